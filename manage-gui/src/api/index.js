@@ -201,6 +201,10 @@ export function allChangeRequests() {
     return fetchJson("change-requests/all");
 }
 
+export function changeRequestsOverview(page) {
+    return fetchJson(`change-requests/overview?page=${page}`);
+}
+
 export function hasOpenChangeRequests() {
     return fetchJson("change-requests/count");
 }
@@ -288,8 +292,8 @@ export function scopeInUse(scopes) {
 }
 
 //Activity
-export function recentActivity(types, limit) {
-    return postPutJson("recent-activity", {types, limit}, "POST")
+export function recentActivity(types, limit, before = null, beforeId = null) {
+    return postPutJson("recent-activity", {types, limit, before, beforeId}, "POST")
 }
 
 //Policies
@@ -423,6 +423,7 @@ I18n.translations.en = {
         searchPlaceHolder: "Search for change requests",
         info: "All outstanding change requests of {{name}}",
         noChangeRequests: "There are no pending change requests",
+        loadMore: "Load more",
         created: "Created",
         apiClient: "API client",
         incremental: "Incremental",
@@ -570,6 +571,7 @@ I18n.translations.en = {
         info: "Below are all the metadata that was recently changed.",
         refresh: "Refresh",
         limit: "Max results",
+        loadMore: "Load more",
         noResults: "No results, make sure you have selected one of more entity types."
     },
     not_found: {
@@ -25,6 +25,7 @@ export default class Activity extends React.Component {
             limit: "25",
             query: "",
             loaded: false,
+            hasMore: false,
             sorted: "created",
             copiedToClipboardClassName: ""
         };
@@ -40,25 +41,38 @@ export default class Activity extends React.Component {
             this.setState({activity: [], filteredActivity: []});
         } else {
             this.setState({loaded: false});
-            recentActivity(types, parseInt(limit, 10)).then(res => {
-                const activities = res.map(a => ({
-                    id: a.id,
-                    type: a.type,
-                    entityId: a.data.entityid,
-                    state: a.data.state,
-                    terminated: a.revision.terminated,
-                    revisionNote: a.data.revisionnote,
-                    name: a.type === "policy" ? a.data.name : getNameForLanguage(a.data.metaDataFields),
-                    organization: a.type === "policy" ? "-" : getOrganisationForLanguage(a.data.metaDataFields) || "",
-                    created: new Date(a.revision.created),
-                    updatedBy: a.revision.updatedBy,
-                }));
-                const sorted = activities.sort(this.sortByAttribute("created", false));
-                this.setState({activity: sorted, filteredActivity: sorted, loaded: true});
+            const max = parseInt(limit, 10);
+            recentActivity(types, max).then(res => {
+                const sorted = res.map(this.toActivity).sort(this.sortByAttribute("created", false));
+                this.setState({activity: sorted, filteredActivity: sorted, loaded: true, hasMore: res.length === max});
             });
         }
     };
 
+    loadMore = () => {
+        const {types, limit, activity, query} = this.state;
+        const last = activity[activity.length - 1];
+        const max = parseInt(limit, 10);
+        recentActivity(types, max, last.created.toISOString(), last.id).then(res => {
+            const more = activity.concat(res.map(this.toActivity));
+            this.setState({activity: more, hasMore: res.length === max},
+                () => this.search({target: {value: query}}));
+        });
+    };
+
+    toActivity = a => ({
+        id: a.id,
+        type: a.type,
+        entityId: a.data.entityid,
+        state: a.data.state,
+        terminated: a.revision.terminated,
+        revisionNote: a.data.revisionnote,
+        name: a.type === "policy" ? a.data.name : getNameForLanguage(a.data.metaDataFields),
+        organization: a.type === "policy" ? "-" : getOrganisationForLanguage(a.data.metaDataFields) || "",
+        created: new Date(a.revision.created),
+        updatedBy: a.revision.updatedBy,
+    });
+
     sortByAttribute = (name, reverse = false) => (a, b) => {
         const aSafe = a[name] || "";
         const bSafe = b[name] || "";
@@ -202,7 +216,7 @@ export default class Activity extends React.Component {
 
     render() {
         const {
-            filteredActivity, types, allTypes, limit, query, loaded, copiedToClipboardClassName, reverse
+            filteredActivity, types, allTypes, limit, query, loaded, copiedToClipboardClassName, reverse, hasMore
         } = this.state;
         if (!loaded) {
             return null;
@@ -212,6 +226,9 @@ export default class Activity extends React.Component {
             <div className="activity">
                 {this.renderHeader(filteredActivity, query, limit, types, allTypes, copiedToClipboardClassName)}
                 {hasResults && this.renderTable(filteredActivity, reverse)}
+                {hasMore && <section className="load-more">
+                    <span className="button green" onClick={this.loadMore}>{I18n.t("activity.loadMore")}</span>
+                </section>}
                 {!hasResults && <p className="no-results">{I18n.t("activity.noResults")}</p>}
                 {this.renderActivityTablePrintable(filteredActivity)}
             </div>
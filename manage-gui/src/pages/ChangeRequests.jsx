@@ -1,6 +1,6 @@
 import React from "react";
 import I18n from "i18n-js";
-import {allChangeRequests} from "../api";
+import {changeRequestsOverview} from "../api";
 import {copyToClip, isEmpty, stop} from "../utils/Utils";
 import "./Support.scss";
 import {Select} from "../components";
@@ -16,6 +16,8 @@ class ChangeRequests extends React.PureComponent {
             query: "",
             copiedToClipboardClassName: "",
             loaded: false,
+            page: 0,
+            more: false,
             status: "all",
             confirmationDialogOpen: false,
             confirmationQuestion: "",
@@ -25,16 +27,27 @@ class ChangeRequests extends React.PureComponent {
     }
 
     componentDidMount() {
-        allChangeRequests().then(res => {
-            res.forEach(cr => cr.createdAt = new Date(cr.created));
+        this.loadChangeRequests(0);
+    }
+
+    loadChangeRequests = page => {
+        changeRequestsOverview(page).then(res => {
+            res.changeRequests.forEach(cr => cr.createdAt = new Date(cr.created));
+            const changeRequests = this.state.changeRequests.concat(res.changeRequests);
             this.setState({
-                changeRequests: res.sort((a, b) => b.createdAt - a.createdAt),
-                filteredChangeRequests: res,
+                changeRequests: changeRequests,
+                page: page,
+                more: res.more,
                 loaded: true
-            });
+            }, () => this.search({target: {value: this.state.query}}));
         })
     }
 
+    loadMore = e => {
+        stop(e);
+        this.loadChangeRequests(this.state.page + 1);
+    }
+
     copyToClipboard = e => {
         stop(e);
         if (!isEmpty(this.state.changeRequests)) {
@@ -122,6 +135,9 @@ class ChangeRequests extends React.PureComponent {
                 isSearchable={false}
                 className="status-select"/>
         {this.renderSearchResultsTable(changeRequests, status)}
+        {this.state.more && <section className="load-more">
+            <a className="button green" onClick={this.loadMore}>{I18n.t("changeRequests.loadMore")}</a>
+        </section>}
         {this.renderSearchResultsTablePrintable(changeRequests)}
     </div>;
 
@@ -359,14 +359,29 @@ export default class System extends React.PureComponent {
             <i className="fa fa-arrow-down current"></i>)
         : <i className="fa fa-arrow-down"></i>;
 
+    formatBytes = bytes => {
+        if (bytes === null || bytes === undefined) {
+            return "-";
+        }
+        const units = ["B", "KB", "MB", "GB", "TB"];
+        let value = bytes;
+        let unit = 0;
+        while (value >= 1024 && unit < units.length - 1) {
+            value /= 1024;
+            unit++;
+        }
+        return `${unit === 0 ? value : value.toFixed(1)} ${units[unit]}`;
+    };
+
     renderStats = () => {
         const {statistics, statsSorted, statsSortedReverse} = this.state;
         const sortedStatistics = statistics.sort((a, b) => statsSorted === "name" ?
-            a.name.localeCompare(b.name) * (statsSortedReverse ? -1 : 1) : (a.count - b.count) * (statsSortedReverse ? -1 : 1));
-        const columns = ["name", "count"];
+            a.name.localeCompare(b.name) * (statsSortedReverse ? -1 : 1) :
+            ((a[statsSorted] || 0) - (b[statsSorted] || 0)) * (statsSortedReverse ? -1 : 1));
+        const columns = ["name", "count", "size", "storageSize", "indexSize"];
         return (
             <section className="stats">
-                <p>Overview of all collections and the size of the collection.</p>
+                <p>Overview of all collections, the number of documents and the sizes of the collection.</p>
                 <table className="stats">
                     <thead>
                     <tr>{
@@ -382,7 +397,10 @@ export default class System extends React.PureComponent {
                     <tbody>
                     {sortedStatistics.map((statsEntry, i) => <tr key={i}>
                         <td>{statsEntry.name}</td>
-                        <td>{statsEntry.count}</td>
+                        <td>{statsEntry.count === null ? "-" : statsEntry.count}</td>
+                        <td>{this.formatBytes(statsEntry.size)}</td>
+                        <td>{this.formatBytes(statsEntry.storageSize)}</td>
+                        <td>{this.formatBytes(statsEntry.indexSize)}</td>
                     </tr>)}
                     </tbody>
                 </table>
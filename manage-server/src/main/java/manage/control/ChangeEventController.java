@@ -0,0 +1,52 @@
+package manage.control;
+
+import manage.service.ChangeEventService;
+import org.springframework.http.MediaType;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.util.StringUtils;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.Map;
+import java.util.OptionalLong;
+
+@RestController
+public class ChangeEventController {
+
+    private final ChangeEventService changeEventService;
+
+    public ChangeEventController(ChangeEventService changeEventService) {
+        this.changeEventService = changeEventService;
+    }
+
+    @PreAuthorize("hasAnyRole('ADMIN', 'READ')")
+    @GetMapping({"/client/changes", "/internal/changes"})
+    public Map<String, Object> changes(@RequestParam(value = "after", required = false, defaultValue = "0") long after,
+                                       @RequestParam(value = "limit", required = false, defaultValue = "100") int limit) {
+        return changeEventService.changes(after, limit);
+    }
+
+    /*
+     * Reconnecting EventSource clients send the id of the last received event, a malformed id falls back to after
+     */
+    @PreAuthorize("hasAnyRole('ADMIN', 'READ')")
+    @GetMapping(value = {"/client/changes/stream", "/internal/changes/stream"}, produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter stream(@RequestParam(value = "after", required = false, defaultValue = "0") long after,
+                             @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId) {
+        return changeEventService.subscribe(lastEventId(lastEventId).orElse(after));
+    }
+
+    private OptionalLong lastEventId(String lastEventId) {
+        if (!StringUtils.hasText(lastEventId)) {
+            return OptionalLong.empty();
+        }
+        try {
+            return OptionalLong.of(Long.parseLong(lastEventId.trim()));
+        } catch (NumberFormatException e) {
+            return OptionalLong.empty();
+        }
+    }
+}
@@ -1,11 +1,36 @@
 package manage.control;
 
-import manage.format.EngineBlockFormatter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import manage.exception.EndpointNotAllowed;
 import manage.model.EntityType;
 import manage.model.MetaData;
 import manage.model.PushOptions;
 import manage.model.Scope;
 import manage.policies.PdpPolicyDefinition;
+import manage.push.ConnectionConsumer;
+import manage.push.ConnectionSource;
+import manage.push.ConnectionsDelta;
+import manage.push.ConnectionsFeed;
+import manage.push.ConnectionsRequestCallback;
+import manage.push.PayloadDigest;
+import manage.push.PushCoordinator;
+import manage.push.FormattedConnectionCache;
+import manage.push.EngineBlockConnections;
+import manage.push.FormattingStatistics;
+import manage.push.HashingConnectionSource;
+import manage.push.JsonArrayRequestCallback;
+import manage.push.JsonRequestCallback;
+import manage.push.PushFanOut;
+import manage.push.PushHistory;
+import manage.push.PushHistoryRepository;
+import manage.push.PushMetrics;
+import manage.push.PushOutcome;
+import manage.push.PushRequest;
+import manage.push.PushSnapshot;
+import manage.push.PushStages;
+import manage.push.PushState;
+import manage.push.PushStateRepository;
+import manage.push.PushTarget;
 import manage.repository.MetaDataRepository;
 import manage.web.HttpHostProvider;
 import manage.web.PreemptiveAuthenticationHttpComponentsClientHttpRequestFactory;
@@ -16,22 +41,39 @@ import org.apache.http.impl.client.BasicCredentialsProvider;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.conn.DefaultProxyRoutePlanner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.env.Environment;
 import org.springframework.core.env.Profiles;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.stereotype.Component;
 import org.springframework.util.CollectionUtils;
+import org.springframework.util.StreamUtils;
+import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
+import org.springframework.web.context.request.WebRequest;
 
+import javax.annotation.PreDestroy;
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Stream;
@@ -44,185 +86,440 @@ import static java.util.stream.Collectors.toMap;
 @SuppressWarnings("unchecked")
 public class DatabaseController {
 
+    private static final Logger LOG = LoggerFactory.getLogger(DatabaseController.class);
+
+    private static final String EB_PUSH_TARGET = "eb";
+    private static final String OIDC_PUSH_TARGET = "oidc";
+    private static final String PDP_PUSH_TARGET = "pdp";
+
     private final RestTemplate restTemplate;
     private final String pushUri;
+    private final String deltaPushUri;
+    private final int retries;
+    private final boolean gzip;
 
     private final RestTemplate oidcRestTemplate;
     private final String oidcPushUri;
     private final boolean oidcEnabled;
-
-    private final boolean excludeEduGainImported;
-    private final boolean excludeOidcRP;
+    private final int oidcRetries;
+    private final boolean oidcGzip;
 
     private final MetaDataRepository metaDataRepository;
+    private final PushStateRepository pushStateRepository;
+    private final ObjectMapper objectMapper;
+    private final EngineBlockConnections engineBlockConnections;
+    private final PushSnapshot pushSnapshot;
+    private final FormattedConnectionCache formattedConnectionCache;
 
     private final Environment environment;
     private final String pdpPushUri;
     private final RestTemplate pdpRestTemplate;
+    private final int pdpRetries;
+    private final boolean pdpGzip;
+
+    private final PushFanOut pushFanOut;
+    private final PayloadDigest payloadDigest;
+    //The ObjectMapper of the RestTemplate message converters, so the OIDC-NG and PdP payloads are serialized as before
+    private final ObjectMapper pushObjectMapper = Jackson2ObjectMapperBuilder.json().build();
+    private final PushCoordinator pushCoordinator;
+    private final PushHistoryRepository pushHistoryRepository;
+    private final PushMetrics pushMetrics;
 
     @Autowired
     DatabaseController(MetaDataRepository metaDataRepository,
+                       PushStateRepository pushStateRepository,
+                       PushHistoryRepository pushHistoryRepository,
                        @Value("${push.eb.url}") String pushUri,
+                       @Value("${push.eb.delta_url:}") String deltaPushUri,
                        @Value("${push.eb.user}") String user,
                        @Value("${push.eb.password}") String password,
-                       @Value("${push.eb.exclude_edugain_imports}") boolean excludeEduGainImported,
-                       @Value("${push.eb.exclude_oidc_rp}") boolean excludeOidcRP,
+                       @Value("${push.eb.connect_timeout:10000}") int connectTimeout,
+                       @Value("${push.eb.read_timeout:600000}") int readTimeout,
+                       @Value("${push.eb.retries:1}") int retries,
+                       @Value("${push.eb.gzip:false}") boolean gzip,
                        @Value("${push.oidc.url}") String oidcPushUri,
                        @Value("${push.oidc.user}") String oidcUser,
                        @Value("${push.oidc.password}") String oidcPassword,
+                       @Value("${push.oidc.connect_timeout:10000}") int oidcConnectTimeout,
+                       @Value("${push.oidc.read_timeout:120000}") int oidcReadTimeout,
+                       @Value("${push.oidc.retries:1}") int oidcRetries,
+                       @Value("${push.oidc.gzip:false}") boolean oidcGzip,
                        @Value("${push.pdp.url}") String pdpPushUri,
                        @Value("${push.pdp.user}") String pdpUser,
                        @Value("${push.pdp.password}") String pdpPassword,
+                       @Value("${push.pdp.connect_timeout:10000}") int pdpConnectTimeout,
+                       @Value("${push.pdp.read_timeout:120000}") int pdpReadTimeout,
+                       @Value("${push.pdp.retries:1}") int pdpRetries,
+                       @Value("${push.pdp.gzip:false}") boolean pdpGzip,
                        @Value("${push.oidc.enabled}") boolean oidcEnabled,
+                       ObjectMapper objectMapper,
+                       EngineBlockConnections engineBlockConnections,
+                       PushSnapshot pushSnapshot,
+                       FormattedConnectionCache formattedConnectionCache,
+                       PushFanOut pushFanOut,
+                       PushMetrics pushMetrics,
+                       @Value("${push.debounce:0}") long pushDebounceMillis,
                        Environment environment) throws MalformedURLException {
         this.metaDataRepository = metaDataRepository;
+        this.pushStateRepository = pushStateRepository;
+        this.pushHistoryRepository = pushHistoryRepository;
         this.pushUri = pushUri;
-        this.restTemplate = new RestTemplate(getRequestFactory(user, password, pushUri));
-        this.excludeEduGainImported = excludeEduGainImported;
-        this.excludeOidcRP = excludeOidcRP;
-
-        this.oidcRestTemplate = new RestTemplate(getRequestFactory(oidcUser, oidcPassword,oidcPushUri ));
+        this.deltaPushUri = deltaPushUri;
+        this.restTemplate = new RestTemplate(getRequestFactory(user, password, pushUri, connectTimeout, readTimeout));
+        this.retries = retries;
+        this.gzip = gzip;
+
+        this.oidcRestTemplate = new RestTemplate(getRequestFactory(oidcUser, oidcPassword, oidcPushUri,
+                oidcConnectTimeout, oidcReadTimeout));
+        this.oidcRetries = oidcRetries;
+        this.oidcGzip = oidcGzip;
         this.oidcPushUri = oidcPushUri;
         this.oidcEnabled = oidcEnabled;
 
-        this.pdpRestTemplate = new RestTemplate(getRequestFactory(pdpUser, pdpPassword, pdpPushUri));
+        this.pdpRestTemplate = new RestTemplate(getRequestFactory(pdpUser, pdpPassword, pdpPushUri,
+                pdpConnectTimeout, pdpReadTimeout));
+        this.pdpRetries = pdpRetries;
+        this.pdpGzip = pdpGzip;
         this.pdpPushUri = pdpPushUri;
 
+        this.objectMapper = objectMapper;
+        this.engineBlockConnections = engineBlockConnections;
+        this.pushSnapshot = pushSnapshot;
+        this.formattedConnectionCache = formattedConnectionCache;
+        this.pushFanOut = pushFanOut;
+        this.pushMetrics = pushMetrics;
+        this.payloadDigest = new PayloadDigest(objectMapper);
+        this.pushCoordinator = new PushCoordinator(this::doPush, pushDebounceMillis);
         this.environment = environment;
     }
 
-    public ResponseEntity<Map> doPush(PushOptions pushOptions) {
+    /*
+     * Requests a push that will include all changes made until now. Concurrent requests are coalesced by the
+     * PushCoordinator, callers can wait for the result with PushRequest#await. The initiator is recorded in the
+     * PushHistory.
+     */
+    public PushRequest requestPush(PushOptions pushOptions, String initiator) {
+        return pushCoordinator.submit(pushOptions, initiator);
+    }
+
+    public List<PushHistory> findPushHistory(int limit) {
+        return pushHistoryRepository.findLatest(limit);
+    }
+
+    public Optional<PushRequest> findPushRequest(long id) {
+        return pushCoordinator.find(id);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pushCoordinator.shutdown();
+    }
+
+    public ResponseEntity<Map> doPush(PushOptions pushOptions, List<String> initiators) {
         if (environment.acceptsProfiles(Profiles.of("dev"))) {
             return new ResponseEntity<>(Collections.singletonMap("status", "OK"), HttpStatus.OK);
         }
-        Map<String, Object> result = new HashMap<>();
+        Instant started = Instant.now();
+        long start = System.nanoTime();
+        boolean force = pushOptions.isForce();
+        List<PushTarget> targets = new ArrayList<>();
         if (pushOptions.isIncludePdP()) {
-            List<PdpPolicyDefinition> policies = this.metaDataRepository
-                    .findAllByType(EntityType.PDP.getType()).stream()
-                    .map(metaData -> new PdpPolicyDefinition(metaData))
-                    .filter(policyDefinition -> policyDefinition.isActive())
-                    .collect(toList());
-            this.pdpRestTemplate.put(pdpPushUri, policies);
-            result.put("status", "OK");
-            result.put("pdp", true);
+            targets.add(new PushTarget(PDP_PUSH_TARGET, pdpRetries,
+                    (details, stages) -> this.pdpPush(force, details, stages)));
         }
         if (pushOptions.isIncludeEB()) {
-            Map<String, Map<String, Map<String, Object>>> json = this.pushPreview();
-
-            ResponseEntity<String> response = this.restTemplate.postForEntity(pushUri, json, String.class);
-            HttpStatus statusCode = response.getStatusCode();
-
-            result.put("status", "OK");
-            result.put("response", response);
-        }
-
-        // Now push all oidc_rp metadata to OIDC proxy
-        if (!environment.acceptsProfiles(Profiles.of("dev")) && oidcEnabled && pushOptions.isIncludeOIDC()) {
-            List<MetaData> relyingParties = metaDataRepository.getMongoTemplate().findAll(MetaData.class, EntityType.RP.getType());
-            List<MetaData> resourceServers = metaDataRepository.getMongoTemplate().findAll(MetaData.class, EntityType.RS.getType());
-            List<Scope> scopes = metaDataRepository.getMongoTemplate().findAll(Scope.class);
-            Map<String, Scope> scopesMapped = scopes.stream().collect(toMap(Scope::getName, scope -> scope));
-            resourceServers.forEach(rs -> {
-                //Once we want to get rid of this hack, but for now backward compatibility
-                rs.setType(EntityType.RP.getType());
-                Map<String, Object> metaDataFields = rs.metaDataFields();
-                metaDataFields.put("isResourceServer", true);
-                List<String> scopeList = (List<String>) metaDataFields.get("scopes");
-                if (!CollectionUtils.isEmpty(scopeList)) {
-                    List<Scope> transformedScope = scopeList.stream()
-                            .map(scope -> scopesMapped.getOrDefault(scope, null))
-                            .filter(Objects::nonNull)
-                            .collect(toList());
-                    metaDataFields.put("scopes", transformedScope);
-                }
-            });
-            relyingParties.forEach(rp -> {
-                //Once we want to get rid of this cleanup, but for now backward compatibility
-                Map<String, Object> metaDataFields = rp.metaDataFields();
-                metaDataFields.put("isResourceServer", false);
-                metaDataFields.remove("scopes");
-            });
-            relyingParties.addAll(resourceServers);
-            List<MetaData> filteredEntities = relyingParties.stream()
-                    .filter(metaData -> !excludeFromPush(metaData.metaDataFields()))
-                    .collect(toList());
-            this.oidcRestTemplate.postForEntity(oidcPushUri, filteredEntities, Void.class);
-            result.put("oidc", true);
-            result.put("status", "OK");
-        }
-        return new ResponseEntity<>(result, HttpStatus.OK);
+            targets.add(new PushTarget(EB_PUSH_TARGET, retries,
+                    (details, stages) -> this.engineBlockPush(force, details, stages)));
+        }
+        if (oidcEnabled && pushOptions.isIncludeOIDC()) {
+            targets.add(new PushTarget(OIDC_PUSH_TARGET, oidcRetries,
+                    (details, stages) -> this.oidcPush(force, details, stages)));
+        }
+        List<PushOutcome> outcomes = pushFanOut.push(targets);
+        long durationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        Map<String, Object> result = new HashMap<>();
+        Map<String, Object> targetResults = new HashMap<>();
+        outcomes.forEach(outcome -> {
+            result.putAll(outcome.getDetails());
+            targetResults.put(outcome.getTarget(), outcome.toMap());
+        });
+        boolean success = outcomes.stream().allMatch(PushOutcome::isSuccess);
+        String status = success ? "OK" : "FAILED";
+        if (!outcomes.isEmpty()) {
+            result.put("status", status);
+            result.put("targets", targetResults);
+        }
+        this.recordHistory(PushHistory.of(initiators, pushOptions, started, durationMillis, status, outcomes));
+        pushMetrics.record(durationMillis, status, outcomes);
+        return new ResponseEntity<>(result, success ? HttpStatus.OK : HttpStatus.INTERNAL_SERVER_ERROR);
     }
 
-    @PreAuthorize("hasRole('ADMIN')")
-    @GetMapping("/client/playground/pushPreview")
-    public Map<String, Map<String, Map<String, Object>>> pushPreview() {
-        EngineBlockFormatter formatter = new EngineBlockFormatter();
+    private void recordHistory(PushHistory pushHistory) {
+        //The history is informational, a failure to record it must not fail the push
+        try {
+            pushHistoryRepository.save(pushHistory);
+        } catch (RuntimeException e) {
+            LOG.warn("Failed to record the push history", e);
+        }
+    }
+
+    private boolean pdpPush(boolean force, Map<String, Object> result, PushStages stages) throws IOException {
+        //The first pass only decides whether the policies changed
+        String digest = stages.time(PushStages.DIGEST, () -> payloadDigest.digestElements(this::activePolicies));
+        if (notModified(pushStateRepository.findByTarget(PDP_PUSH_TARGET), digest, force)) {
+            return false;
+        }
+        //The stored digest is computed while the policies are written, so it describes the pushed policies
+        PayloadDigest.ElementsDigest pushed = payloadDigest.elementsDigest();
+        stages.exchange(() -> this.pdpRestTemplate.execute(pdpPushUri, HttpMethod.PUT,
+                new JsonArrayRequestCallback(pushObjectMapper, () -> this.activePolicies().peek(pushed::add), pdpGzip)
+                        .measuredBy(stages),
+                null));
+        String pushedDigest = pushed.digest();
+        stages.add(PushStages.DIGEST, pushed.getDigestNanos());
+        pushStateRepository.save(new PushState(PDP_PUSH_TARGET, null, pushedDigest, Instant.now()));
+        result.put("pdp", true);
+        return true;
+    }
+
+    /*
+     * Only the active policies - with only the fields needed for the PdpPolicyDefinition - are read from the database
+     * and converted one by one while streaming the cursor.
+     */
+    private Stream<PdpPolicyDefinition> activePolicies() {
+        Query query = Query.query(Criteria.where("data.active").is(true)).with(Sort.by("_id"));
+        query.fields().include(PdpPolicyDefinition.METADATA_FIELDS);
+        return metaDataRepository.getMongoTemplate()
+                .stream(query, MetaData.class, EntityType.PDP.getType())
+                .stream()
+                .map(PdpPolicyDefinition::new);
+    }
+
+    private boolean engineBlockPush(boolean force, Map<String, Object> result, PushStages stages) throws IOException {
+        Optional<PushState> pushState = pushStateRepository.findByTarget(EB_PUSH_TARGET);
+        if (StringUtils.hasText(deltaPushUri)) {
+            return this.deltaPush(pushState, force, result, stages);
+        }
+        //The first pass only keeps the hash per connection to decide whether the connections changed
+        HashingConnectionSource current = new HashingConnectionSource(this.formattedConnections(result, stages));
+        current.forEachConnection((id, connection) -> {});
+        String digest = current.digest();
+        stages.add(PushStages.DIGEST, current.getHashNanos());
+        if (notModified(pushState, digest, force)) {
+            return false;
+        }
+        //The stored digest is computed while the connections are written, so it describes the pushed connections
+        HashingConnectionSource pushed = new HashingConnectionSource(this.reformattedConnections(stages));
+        result.put("response", this.fullPush(pushed, stages));
+        String pushedDigest = pushed.digest();
+        stages.add(PushStages.DIGEST, pushed.getHashNanos());
+        result.put("cache", formattedConnectionCache.statistics());
+        pushStateRepository.save(new PushState(EB_PUSH_TARGET, null, pushedDigest, Instant.now()));
+        return true;
+    }
+
+    private boolean notModified(Optional<PushState> pushState, String digest, boolean force) {
+        return !force && pushState.map(PushState::getDigest).filter(digest::equals).isPresent();
+    }
 
-        List<MetaData> serviceProviders = metaDataRepository.getMongoTemplate().findAll(MetaData.class, "saml20_sp");
-        Stream<MetaData> metaDataStream = excludeEduGainImported ?
-                serviceProviders.stream()
-                        .filter(metaData -> {
-                            Map metaDataFields = metaData.metaDataFields();
-                            boolean importedFromEdugain = Boolean.TRUE.equals(metaDataFields.get("coin:imported_from_edugain"));
-                            boolean pushEnabled = Boolean.TRUE.equals(metaDataFields.get("coin:push_enabled"));
-                            return !importedFromEdugain || pushEnabled;
-                        }) : serviceProviders.stream();
+    // Push all oidc_rp metadata to OIDC proxy
+    private boolean oidcPush(boolean force, Map<String, Object> result, PushStages stages) throws IOException {
+        long loadStart = System.nanoTime();
+        List<MetaData> relyingParties = metaDataRepository.getMongoTemplate().findAll(MetaData.class, EntityType.RP.getType());
+        List<MetaData> resourceServers = metaDataRepository.getMongoTemplate().findAll(MetaData.class, EntityType.RS.getType());
+        List<Scope> scopes = metaDataRepository.getMongoTemplate().findAll(Scope.class);
+        long formatStart = System.nanoTime();
+        stages.add(PushStages.LOAD, formatStart - loadStart);
+        Map<String, Scope> scopesMapped = scopes.stream().collect(toMap(Scope::getName, scope -> scope));
+        resourceServers.forEach(rs -> {
+            //Once we want to get rid of this hack, but for now backward compatibility
+            rs.setType(EntityType.RP.getType());
+            Map<String, Object> metaDataFields = rs.metaDataFields();
+            metaDataFields.put("isResourceServer", true);
+            List<String> scopeList = (List<String>) metaDataFields.get("scopes");
+            if (!CollectionUtils.isEmpty(scopeList)) {
+                List<Scope> transformedScope = scopeList.stream()
+                        .map(scope -> scopesMapped.getOrDefault(scope, null))
+                        .filter(Objects::nonNull)
+                        .collect(toList());
+                metaDataFields.put("scopes", transformedScope);
+            }
+        });
+        relyingParties.forEach(rp -> {
+            //Once we want to get rid of this cleanup, but for now backward compatibility
+            Map<String, Object> metaDataFields = rp.metaDataFields();
+            metaDataFields.put("isResourceServer", false);
+            metaDataFields.remove("scopes");
+        });
+        relyingParties.addAll(resourceServers);
+        long filterStart = System.nanoTime();
+        stages.add(PushStages.FORMAT, filterStart - formatStart);
+        List<MetaData> filteredEntities = relyingParties.stream()
+                .filter(metaData -> !EngineBlockConnections.excludeFromPush(metaData.metaDataFields()))
+                .collect(toList());
+        stages.add(PushStages.FILTER, System.nanoTime() - filterStart);
+        stages.addEntities(filteredEntities.size());
+        String digest = stages.time(PushStages.DIGEST, () -> payloadDigest.digest(filteredEntities));
+        if (notModified(pushStateRepository.findByTarget(OIDC_PUSH_TARGET), digest, force)) {
+            return false;
+        }
+        stages.exchange(() -> this.oidcRestTemplate.execute(oidcPushUri, HttpMethod.POST,
+                new JsonRequestCallback(pushObjectMapper, filteredEntities, oidcGzip).measuredBy(stages), null));
+        pushStateRepository.save(new PushState(OIDC_PUSH_TARGET, null, digest, Instant.now()));
+        result.put("oidc", true);
+        return true;
+    }
 
-        Map<String, Map<String, Object>> serviceProvidersToPush = metaDataStream
-                .filter(metaData -> !excludeFromPush(metaData.metaDataFields()))
-                .collect(toMap(MetaData::getId, formatter::parseServiceProvider));
+    private ResponseEntity<String> fullPush(ConnectionSource connections, PushStages stages) {
+        return stages.exchange(() -> this.restTemplate.execute(pushUri, HttpMethod.POST,
+                new ConnectionsRequestCallback(objectMapper, connections, gzip).measuredBy(stages),
+                this::toResponseEntity));
+    }
 
-        List<MetaData> identityProviders = metaDataRepository.getMongoTemplate().findAll(MetaData.class, "saml20_idp");
+    private ConnectionSource formattedConnections(Map<String, Object> result, PushStages stages) {
+        return consumer -> {
+            FormattingStatistics statistics = this.forEachConnection(consumer);
+            stages.addFormatting(statistics);
+            result.put("format", statistics.toMap());
+        };
+    }
 
-        //Explicit only filter out 'null' objects in the disableConsent as generically filtering out 'nulls' can break things
-        filterOutNullDisableConsentExplanations(identityProviders);
+    //The connections are handed over again for the push, the entities are only counted once
+    private ConnectionSource reformattedConnections(PushStages stages) {
+        return consumer -> stages.addFormattingTime(this.forEachConnection(consumer));
+    }
 
-        Map<String, Map<String, Object>> identityProvidersToPush = identityProviders.stream()
-                .filter(metaData -> !excludeFromPush(metaData.metaDataFields()))
-                .collect(toMap(MetaData::getId, formatter::parseIdentityProvider));
+    private ResponseEntity<String> toResponseEntity(ClientHttpResponse response) throws IOException {
+        return new ResponseEntity<>(
+                StreamUtils.copyToString(response.getBody(), StandardCharsets.UTF_8),
+                response.getHeaders(),
+                response.getStatusCode());
+    }
 
-        if (!excludeOidcRP) {
-            List<MetaData> relyingParties = metaDataRepository.getMongoTemplate().findAll(MetaData.class, EntityType.RP.getType());
-            Map<String, Map<String, Object>> oidcClientsToPush = relyingParties.stream()
-                    .filter(metaData -> !excludeFromPush(metaData.metaDataFields()))
-                    .collect(toMap(MetaData::getId, formatter::parseOidcClient));
+    /*
+     * Only push the added, changed and removed connections compared to the last successful push. If there is no
+     * watermark of the last push or if the delta push fails, then we fall back to a full push.
+     */
+    private boolean deltaPush(Optional<PushState> pushState,
+                              boolean force,
+                              Map<String, Object> result,
+                              PushStages stages) throws IOException {
+        Optional<Map<String, String>> watermark = pushState.map(PushState::getConnectionHashes);
+        Map<String, String> previousHashes = watermark.orElse(Collections.emptyMap());
+        Map<String, Map<String, Object>> changedConnections = new HashMap<>();
+        //Only the changed connections are kept for the delta
+        HashingConnectionSource current = new HashingConnectionSource(this.formattedConnections(result, stages));
+        Map<String, String> hashes = current.getHashes();
+        current.forEachConnection((id, connection) -> {
+            if (watermark.isPresent() && !hashes.get(id).equals(previousHashes.get(id))) {
+                changedConnections.put(id, connection);
+            }
+        });
+        String digest = current.digest();
+        stages.add(PushStages.DIGEST, current.getHashNanos());
+        if (notModified(pushState, digest, force)) {
+            return false;
+        }
+        Optional<ResponseEntity<String>> deltaResponse = watermark
+                .map(previous -> ConnectionsDelta.between(previous, hashes, changedConnections))
+                .flatMap(delta -> this.postDelta(delta, result, stages));
+        if (deltaResponse.isPresent()) {
+            pushStateRepository.save(new PushState(EB_PUSH_TARGET, hashes, digest, Instant.now()));
+            result.put("response", deltaResponse.get());
+        } else {
+            //The state of EB is unknown, the old watermark is no longer valid
+            pushStateRepository.remove(EB_PUSH_TARGET);
+            result.put("push_mode", "full");
+            //The new watermark is computed while the connections are written, so it describes the pushed connections
+            HashingConnectionSource pushed = new HashingConnectionSource(this.reformattedConnections(stages));
+            result.put("response", this.fullPush(pushed, stages));
+            String pushedDigest = pushed.digest();
+            stages.add(PushStages.DIGEST, pushed.getHashNanos());
+            pushStateRepository.save(new PushState(EB_PUSH_TARGET, pushed.getHashes(), pushedDigest, Instant.now()));
+        }
+        result.put("cache", formattedConnectionCache.statistics());
+        return true;
+    }
 
-            serviceProvidersToPush.putAll(oidcClientsToPush);
+    private Optional<ResponseEntity<String>> postDelta(ConnectionsDelta delta,
+                                                       Map<String, Object> result,
+                                                       PushStages stages) {
+        try {
+            ResponseEntity<String> response = stages.exchange(() -> this.restTemplate.execute(deltaPushUri,
+                    HttpMethod.POST, new JsonRequestCallback(objectMapper, delta.toPayload(), gzip).measuredBy(stages),
+                    this::toResponseEntity));
+            LOG.info("Delta push of {} changed and {} removed connections",
+                    delta.getChangedConnections().size(), delta.getRemovedConnections().size());
+            result.put("push_mode", "delta");
+            return Optional.of(response);
+        } catch (RestClientException e) {
+            LOG.warn(String.format("Delta push to %s failed, falling back to a full push", deltaPushUri), e);
+            return Optional.empty();
         }
+    }
 
-        serviceProvidersToPush.putAll(identityProvidersToPush);
+    @PreAuthorize("hasRole('ADMIN')")
+    @GetMapping("/client/playground/pushPreview")
+    public Map<String, Map<String, Map<String, Object>>> pushPreview() throws IOException {
+        Map<String, Map<String, Object>> connections = new HashMap<>();
+        this.forEachConnection(connections::put);
 
         Map<String, Map<String, Map<String, Object>>> results = new HashMap<>();
-        results.put("connections", serviceProvidersToPush);
+        results.put("connections", connections);
 
         return results;
     }
 
-    private boolean excludeFromPush(Map metaDataFields) {
-        Object excludeFromPush = metaDataFields.getOrDefault("coin:exclude_from_push", false);
-        if (excludeFromPush instanceof String) {
-            return "1".equals(excludeFromPush);
+    @PreAuthorize("hasRole('ADMIN')")
+    @GetMapping("/client/playground/connections")
+    public ResponseEntity<ConnectionsFeed> connectionsFeed(@RequestParam(value = "since", required = false) String since,
+                                                           WebRequest webRequest) throws IOException {
+        return doConnectionsFeed(since, webRequest);
+    }
+
+    @PreAuthorize("hasRole('PUSH')")
+    @GetMapping("/internal/connections")
+    public ResponseEntity<ConnectionsFeed> connectionsFeedInternal(@RequestParam(value = "since", required = false) String since,
+                                                                   WebRequest webRequest) throws IOException {
+        return doConnectionsFeed(since, webRequest);
+    }
+
+    private ResponseEntity<ConnectionsFeed> doConnectionsFeed(String since, WebRequest webRequest) throws IOException {
+        if (!pushSnapshot.isEnabled()) {
+            throw new EndpointNotAllowed("The connections feed requires the push snapshot");
+        }
+        //Sets the 304 status for a matching If-None-Match header
+        if (webRequest.checkNotModified(pushSnapshot.etag())) {
+            return null;
         }
-        return (boolean) excludeFromPush;
+        ConnectionsFeed feed = pushSnapshot.feed(since);
+        return ResponseEntity.ok().eTag(feed.getEtag()).body(feed);
     }
 
-    @SuppressWarnings("unchecked")
-    public void filterOutNullDisableConsentExplanations(List<MetaData> identityProviders) {
-        identityProviders.forEach(idp -> {
-            Object disableConsentData = idp.getData().get("disableConsent");
-            if (disableConsentData instanceof List) {
-                List disableConsent = (List) disableConsentData;
-                disableConsent.forEach(disableConsentEntry -> {
-                    if (disableConsentEntry instanceof Map) {
-                        Map<String, Object> disableConsentMap = (Map) disableConsentEntry;
-                        disableConsentMap.entrySet().removeIf(entry -> entry.getValue() == null);
-                    }
-                });
-            }
-        });
+    @PreAuthorize("hasRole('ADMIN')")
+    @GetMapping("/client/playground/pushSnapshot")
+    public Map<String, Object> verifyPushSnapshot() throws IOException {
+        if (!pushSnapshot.isEnabled()) {
+            return Collections.singletonMap("enabled", false);
+        }
+        return pushSnapshot.verify();
+    }
+
+    /*
+     * Hands over the EB formatted connections of all SP's, RP's and IdP's one by one from the PushSnapshot or - if
+     * the snapshot is disabled - formatted from the database.
+     */
+    private FormattingStatistics forEachConnection(ConnectionConsumer consumer) throws IOException {
+        return pushSnapshot.isEnabled() ? pushSnapshot.forEachConnection(consumer) :
+                engineBlockConnections.forEachConnection(consumer);
     }
 
-    private ClientHttpRequestFactory getRequestFactory(String user, String password, String uri) throws MalformedURLException {
+    private ClientHttpRequestFactory getRequestFactory(String user,
+                                                       String password,
+                                                       String uri,
+                                                       int connectTimeout,
+                                                       int readTimeout) throws MalformedURLException {
         HttpClientBuilder httpClientBuilder = HttpClientBuilder.create().evictExpiredConnections()
                 .evictIdleConnections(10l, TimeUnit.SECONDS);
         BasicCredentialsProvider basicCredentialsProvider = new BasicCredentialsProvider();
@@ -233,6 +530,12 @@ public class DatabaseController {
         optionalHttpHost.ifPresent(httpHost -> httpClientBuilder.setRoutePlanner(new DefaultProxyRoutePlanner(httpHost)));
 
         CloseableHttpClient httpClient = httpClientBuilder.build();
-        return new PreemptiveAuthenticationHttpComponentsClientHttpRequestFactory(httpClient, uri);
+        PreemptiveAuthenticationHttpComponentsClientHttpRequestFactory requestFactory =
+                new PreemptiveAuthenticationHttpComponentsClientHttpRequestFactory(httpClient, uri);
+        //Stream the - potentially very large - request bodies with chunked transfer encoding
+        requestFactory.setBufferRequestBody(false);
+        requestFactory.setConnectTimeout(connectTimeout);
+        requestFactory.setReadTimeout(readTimeout);
+        return requestFactory;
     }
 }
@@ -1,6 +1,7 @@
 package manage.control;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import manage.api.APIUser;
 import manage.conf.MetaDataAutoConfiguration;
 import manage.exception.EndpointNotAllowed;
@@ -25,10 +26,16 @@ import org.springframework.util.StringUtils;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
 
+import javax.servlet.http.HttpServletResponse;
 import javax.xml.stream.XMLStreamException;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -44,6 +51,8 @@ public class MetaDataController {
 
     private static final Logger LOG = LoggerFactory.getLogger(MetaDataController.class);
 
+    private static final String NDJSON = "application/x-ndjson";
+
     private final MetaDataRepository metaDataRepository;
 
     private final MetaDataAutoConfiguration metaDataAutoConfiguration;
@@ -54,17 +63,21 @@ public class MetaDataController {
 
     private final ImporterService importerService;
 
+    private final ObjectMapper objectMapper;
+
     public MetaDataController(MetaDataRepository metaDataRepository,
                               MetaDataAutoConfiguration metaDataAutoConfiguration,
                               ExporterService exporterService,
                               ImporterService importerService,
-                              MetaDataService metaDataService) {
+                              MetaDataService metaDataService,
+                              ObjectMapper objectMapper) {
 
         this.metaDataRepository = metaDataRepository;
         this.metaDataAutoConfiguration = metaDataAutoConfiguration;
         this.exporterService = exporterService;
         this.importerService = importerService;
         this.metaDataService = metaDataService;
+        this.objectMapper = objectMapper;
 
     }
 
@@ -140,7 +153,7 @@ public class MetaDataController {
     @PreAuthorize("hasRole('ADMIN')")
     @DeleteMapping(value = "/client/delete/feed")
     public Map<String, Long> deleteFeed() {
-        long deleted = this.metaDataRepository.deleteAllImportedServiceProviders();
+        long deleted = this.metaDataService.deleteAllImportedServiceProviders();
         return Collections.singletonMap("deleted", deleted);
     }
 
@@ -282,6 +295,21 @@ public class MetaDataController {
         return metaDataRepository.allChangeRequests();
     }
 
+    @PreAuthorize("hasRole('ADMIN')")
+    @GetMapping("/client/change-requests/overview")
+    public Map<String, Object> changeRequestsOverview(@RequestParam(value = "page", required = false, defaultValue = "0") int page,
+                                                      @RequestParam(value = "size", required = false, defaultValue = "100") int size,
+                                                      @RequestParam(value = "state", required = false) String state) {
+        size = Math.min(size, MetaDataRepository.CHANGE_REQUESTS_PAGE_LIMIT);
+        List<MetaDataChangeRequest> changeRequests = new ArrayList<>(metaDataRepository.changeRequestsOverview(page, size, state));
+        boolean more = changeRequests.size() > size;
+        Map<String, Object> result = new HashMap<>();
+        result.put("changeRequests", more ? changeRequests.subList(0, size) : changeRequests);
+        result.put("page", page);
+        result.put("more", more);
+        return result;
+    }
+
     @PreAuthorize("hasRole('ADMIN')")
     @GetMapping("client/change-requests/count")
     public long openChangeRequests() {
@@ -315,7 +343,7 @@ public class MetaDataController {
         MetaData metaData = metaDataService
                 .doMergeUpdate(metaDataChangeRequest, user, changeRequest.getRevisionNotes(), true)
                 .get();
-        metaDataRepository.getMongoTemplate().remove(metaDataChangeRequest, collectionName);
+        metaDataRepository.removeChangeRequest(metaDataChangeRequest, collectionName);
         return metaData;
     }
 
@@ -415,9 +443,49 @@ public class MetaDataController {
     @PostMapping({"/client/search/{type}", "/internal/search/{type}"})
     public List<Map> searchEntities(@PathVariable("type") String type,
                                     @RequestBody Map<String, Object> properties,
-                                    @RequestParam(required = false, defaultValue = "false") boolean nested) {
+                                    @RequestParam(required = false, defaultValue = "false") boolean nested,
+                                    @RequestParam(required = false) String after,
+                                    @RequestParam(required = false) Integer limit) {
+        if (after == null && limit == null) {
+            return metaDataService.searchEntityByType(type, properties, nested);
+        }
+        //Keyset pagination, the next page starts after the _id of the last result
+        return metaDataService.searchEntityByType(type, properties, nested, after,
+                limit == null ? MetaDataRepository.SEARCH_PAGE_LIMIT : limit);
+    }
 
-        return metaDataService.searchEntityByType(type, properties, nested);
+    @PreAuthorize("hasAnyRole('ADMIN', 'READ')")
+    @PostMapping(value = {"/client/search/{type}", "/internal/search/{type}"}, params = "explain=true")
+    public Map<String, Object> explainSearch(@PathVariable("type") String type,
+                                             @RequestBody Map<String, Object> properties) {
+        return metaDataService.explainSearch(type, properties);
+    }
+
+    @PreAuthorize("hasAnyRole('ADMIN', 'READ')")
+    @PostMapping(value = {"/client/search/{type}", "/internal/search/{type}"}, produces = NDJSON)
+    public void streamEntities(@PathVariable("type") String type,
+                               @RequestBody Map<String, Object> properties,
+                               @RequestParam(required = false, defaultValue = "false") boolean nested,
+                               @RequestParam(required = false) String after,
+                               @RequestParam(required = false) Integer limit,
+                               HttpServletResponse response) throws IOException {
+        response.setContentType(NDJSON);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        int pageLimit = limit == null ? MetaDataRepository.SEARCH_PAGE_LIMIT : limit;
+        OutputStream outputStream = response.getOutputStream();
+        try {
+            metaDataService.streamEntityByType(type, properties, nested, after, pageLimit, metaData -> {
+                try {
+                    outputStream.write(objectMapper.writeValueAsBytes(metaData));
+                    outputStream.write('\n');
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        outputStream.flush();
     }
 
     @PreAuthorize("hasAnyRole('ADMIN', 'READ')")
@@ -3,30 +3,42 @@ package manage.control;
 import manage.api.APIUser;
 import manage.conf.Features;
 import manage.exception.EndpointNotAllowed;
+import manage.exception.ResourceNotFoundException;
 import manage.model.EntityType;
 import manage.model.MetaData;
+import manage.model.MetaDataChangedEvent;
 import manage.model.OrphanMetaData;
 import manage.model.PushOptions;
+import manage.push.PushHistory;
+import manage.push.PushRequest;
+import manage.repository.EntityIdDirectory;
 import manage.repository.MetaDataRepository;
+import manage.service.EntityIdReconciler;
+import manage.service.EntityIdReconciliation;
 import manage.shibboleth.FederatedUser;
 import manage.validations.MetaDataValidator;
+import org.bson.Document;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.data.mongodb.core.MongoTemplate;
-import org.springframework.data.mongodb.core.query.BasicQuery;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.util.CollectionUtils;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.*;
-import java.util.function.Function;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import static java.util.stream.Collectors.groupingBy;
 import static java.util.stream.Collectors.toList;
 
 @RestController
@@ -35,17 +47,30 @@ public class SystemController {
 
     private static final Logger LOG = LoggerFactory.getLogger(SystemController.class);
 
+    private static final List<String> REFERENCE_PROPERTIES = List.of("allowedEntities", "disableConsent", "stepupEntities",
+            "identityProviderIds", "serviceProviderIds", "mfaEntities", "allowedResourceServers");
+    private static final int ORPHANS_BATCH_SIZE = 500;
+
     private final MetaDataRepository metaDataRepository;
     private final MetaDataValidator metaDataValidator;
     private final DatabaseController databaseController;
+    private final EntityIdDirectory entityIdDirectory;
+    private final EntityIdReconciler entityIdReconciler;
+    private final ApplicationEventPublisher applicationEventPublisher;
 
     @Autowired
     public SystemController(MetaDataRepository metaDataRepository,
                             MetaDataValidator metaDataValidator,
-                            DatabaseController databaseController) {
+                            DatabaseController databaseController,
+                            EntityIdDirectory entityIdDirectory,
+                            EntityIdReconciler entityIdReconciler,
+                            ApplicationEventPublisher applicationEventPublisher) {
         this.metaDataRepository = metaDataRepository;
         this.metaDataValidator = metaDataValidator;
         this.databaseController = databaseController;
+        this.entityIdDirectory = entityIdDirectory;
+        this.entityIdReconciler = entityIdReconciler;
+        this.applicationEventPublisher = applicationEventPublisher;
     }
 
     @PreAuthorize("hasRole('ADMIN')")
@@ -54,14 +79,38 @@ public class SystemController {
         if (!federatedUser.featureAllowed(Features.PUSH)) {
             throw new EndpointNotAllowed();
         }
-        return databaseController.doPush(pushOptions);
+        return databaseController.requestPush(pushOptions, federatedUser.getName()).await();
     }
 
     @PreAuthorize("hasRole('PUSH')")
     @GetMapping("/internal/push")
-    public ResponseEntity<Map> pushInternal(APIUser apiUser) {
+    public ResponseEntity<Map> pushInternal(APIUser apiUser,
+                                            @RequestParam(value = "wait", required = false, defaultValue = "true") boolean wait,
+                                            @RequestParam(value = "force", required = false, defaultValue = "false") boolean force) {
         LOG.info("Push initiated by {}", apiUser.getName());
-        return databaseController.doPush(new PushOptions(true, true, false));
+        PushRequest pushRequest = databaseController.requestPush(new PushOptions(true, true, false, force),
+                apiUser.getName());
+        return wait ? pushRequest.await() : new ResponseEntity<>(pushRequest.toMap(), HttpStatus.ACCEPTED);
+    }
+
+    @PreAuthorize("hasRole('ADMIN')")
+    @GetMapping("/client/playground/pushHistory")
+    public List<PushHistory> pushHistory(@RequestParam(value = "limit", required = false, defaultValue = "25") int limit) {
+        return databaseController.findPushHistory(limit);
+    }
+
+    @PreAuthorize("hasRole('PUSH')")
+    @GetMapping("/internal/push/history")
+    public List<PushHistory> pushHistoryInternal(@RequestParam(value = "limit", required = false, defaultValue = "25") int limit) {
+        return databaseController.findPushHistory(limit);
+    }
+
+    @PreAuthorize("hasRole('PUSH')")
+    @GetMapping("/internal/push/{id}")
+    public Map<String, Object> pushRequest(@PathVariable("id") Long id) {
+        return databaseController.findPushRequest(id)
+                .map(PushRequest::toMap)
+                .orElseThrow(() -> new ResourceNotFoundException(String.format("Push %s not found", id)));
     }
 
     @PreAuthorize("hasRole('ADMIN')")
@@ -73,6 +122,29 @@ public class SystemController {
         return metaDataValidator.validateMigration();
     }
 
+    @PreAuthorize("hasRole('ADMIN')")
+    @GetMapping("/client/playground/entityIdDirectory")
+    public Map<String, Object> verifyEntityIdDirectory() {
+        if (!entityIdDirectory.isEnabled()) {
+            return Collections.singletonMap("enabled", false);
+        }
+        return entityIdDirectory.verify();
+    }
+
+    @PreAuthorize("hasAnyRole('ADMIN', 'READ')")
+    @GetMapping({"/client/playground/reconciliations", "/internal/reconciliations"})
+    public List<Map<String, Object>> reconciliations() {
+        return entityIdReconciler.findLatest().stream().map(EntityIdReconciliation::toMap).collect(Collectors.toList());
+    }
+
+    @PreAuthorize("hasAnyRole('ADMIN', 'READ')")
+    @GetMapping({"/client/playground/reconciliations/{id}", "/internal/reconciliations/{id}"})
+    public Map<String, Object> reconciliation(@PathVariable("id") Long id) {
+        return entityIdReconciler.find(id)
+                .map(EntityIdReconciliation::toMap)
+                .orElseThrow(() -> new ResourceNotFoundException(String.format("Reconciliation %s not found", id)));
+    }
+
     @PreAuthorize("hasRole('SYSTEM')")
     @DeleteMapping({"/client/playground/deleteOrphans"})
     public void deleteOrphans() {
@@ -86,85 +158,97 @@ public class SystemController {
     }
 
     private void doDeleteOrphans() {
-        List<OrphanMetaData> orphans = this.orphans();
-        orphans.forEach(orphanMetaData -> {
-            MetaData metaData = metaDataRepository.findById(orphanMetaData.getId(), orphanMetaData.getCollection());
-            List<Map<String, Object>> entries =
-                    (List<Map<String, Object>>) metaData.getData().get(orphanMetaData.getReferencedCollectionName());
-
-            List<Map<String, Object>> newEntries = entries.stream().filter(entry -> !entry.get("name").equals
-                    (orphanMetaData.getMissingEntityId())).collect(Collectors.toList());
-            metaData.getData().put(orphanMetaData.getReferencedCollectionName(), newEntries);
-            MetaData previous = metaDataRepository.findById(metaData.getId(), orphanMetaData.getCollection());
-            previous.revision(UUID.randomUUID().toString());
-            metaDataRepository.save(previous);
-            metaData.promoteToLatest("System", "Removed reference to non-existent entityID");
-            metaDataRepository.update(metaData);
-
+        Map<String, Map<String, List<OrphanMetaData>>> orphansPerCollection = this.orphans().stream()
+                .collect(groupingBy(OrphanMetaData::getCollection, LinkedHashMap::new,
+                        groupingBy(OrphanMetaData::getId, LinkedHashMap::new, toList())));
+        MongoTemplate mongoTemplate = metaDataRepository.getMongoTemplate();
+        List<String> conflicting = new ArrayList<>();
+        orphansPerCollection.forEach((collection, orphansPerId) -> {
+            List<String> ids = new ArrayList<>(orphansPerId.keySet());
+            for (int from = 0; from < ids.size(); from += ORPHANS_BATCH_SIZE) {
+                Query query = new Query(Criteria.where("_id").in(ids.subList(from, Math.min(ids.size(), from + ORPHANS_BATCH_SIZE))));
+                List<MetaData> revisions = new ArrayList<>();
+                List<MetaData> latest = new ArrayList<>();
+                mongoTemplate.find(query, Document.class, collection).forEach(document -> {
+                    MetaData previous = mongoTemplate.getConverter().read(MetaData.class, document);
+                    MetaData metaData = mongoTemplate.getConverter().read(MetaData.class, document);
+                    orphansPerId.get(metaData.getId()).forEach(orphanMetaData -> {
+                        String propertyName = orphanMetaData.getReferencedCollectionName();
+                        List<Map<String, Object>> entries = (List<Map<String, Object>>) metaData.getData().get(propertyName);
+                        metaData.getData().put(propertyName, entries.stream()
+                                .filter(entry -> !Objects.equals(entry.get("name"), orphanMetaData.getMissingEntityId()))
+                                .collect(toList()));
+                    });
+                    previous.revision(UUID.randomUUID().toString());
+                    metaData.promoteToLatest("System", "Removed reference to non-existent entityID");
+                    revisions.add(previous);
+                    latest.add(metaData);
+                });
+                List<MetaData> revised = metaDataRepository.reviseAll(collection, revisions, latest);
+                LOG.info("Removed references to non-existent entityID's from {} of {} {}", revised.size(), latest.size(), collection);
+                //Only the replaced MetaData changed, the others were modified or deleted concurrently
+                revised.forEach(metaData -> applicationEventPublisher.publishEvent(
+                        MetaDataChangedEvent.of(MetaDataChangedEvent.Operation.UPDATE, metaData)));
+                Set<String> revisedIds = revised.stream().map(MetaData::getId).collect(Collectors.toSet());
+                latest.stream()
+                        .filter(metaData -> !revisedIds.contains(metaData.getId()))
+                        .forEach(metaData -> conflicting.add(String.format("%s %s", collection, metaData.getId())));
+            }
         });
+        if (!conflicting.isEmpty()) {
+            throw new OptimisticLockingFailureException(String.format(
+                    "References to non-existent entityID's not removed from concurrently modified %s, retry to remove them",
+                    conflicting));
+        }
     }
 
     @PreAuthorize("hasAnyRole('ADMIN', 'READ')")
     @GetMapping({"/client/playground/orphans", "/internal/playground/orphans"})
     public List<OrphanMetaData> orphans() {
+        Set<String> entityIds = existingEntityIds();
+        List<OrphanMetaData> orphans = new ArrayList<>();
+        Stream.of(EntityType.values()).forEach(type -> orphanMetaData(type, entityIds, orphans::add));
+        return orphans;
+    }
+
+    private Set<String> existingEntityIds() {
         return Stream.of(EntityType.values())
-                .flatMap(this::orphanMetaData)
-                .collect(toList());
+                .flatMap(type -> metaDataRepository.entityIds(type.getType()).values().stream())
+                .collect(Collectors.toSet());
     }
 
-    private Stream<OrphanMetaData> orphanMetaData(EntityType type) {
+    private void orphanMetaData(EntityType type, Set<String> entityIds, Consumer<OrphanMetaData> orphans) {
         Query query = new Query();
         query.fields()
                 .include("data.entityid")
                 .include("type")
                 .include("data.metaDataFields.name:en")
-                .include("data.name")
-                .include("data.allowedEntities.name")
-                .include("data.identityProviderIds.name")
-                .include("data.serviceProviderIds.name")
-                .include("data.allowedResourceServers.name")
-                .include("data.stepupEntities.name")
-                .include("data.mfaEntities.name")
-                .include("data.disableConsent.name");
-
-        query.addCriteria(new Criteria().orOperator(
-                Criteria.where("data.allowedEntities").exists(true),
-                Criteria.where("data.disableConsent").exists(true),
-                Criteria.where("data.stepupEntities").exists(true),
-                Criteria.where("data.serviceProviderIds").exists(true),
-                Criteria.where("data.identityProviderIds").exists(true),
-                Criteria.where("data.mfaEntities").exists(true),
-                Criteria.where("data.allowedResourceServers").exists(true)));
+                .include("data.name");
+        REFERENCE_PROPERTIES.forEach(propertyName -> query.fields().include(String.format("data.%s.name", propertyName)));
+        query.addCriteria(new Criteria().orOperator(REFERENCE_PROPERTIES.stream()
+                .map(propertyName -> Criteria.where(String.format("data.%s", propertyName)).exists(true))
+                .toArray(Criteria[]::new)));
 
         MongoTemplate mongoTemplate = metaDataRepository.getMongoTemplate();
-        List<MetaData> metaDataWithReferences = mongoTemplate.find(query, MetaData.class, type.getType());
-
-        Map<String, Map<String, List<MetaData>>> groupedByEntityIdReference = new HashMap<>();
-        Stream.of("allowedEntities", "disableConsent", "stepupEntities", "identityProviderIds", "serviceProviderIds", "mfaEntities", "allowedResourceServers").forEach(propertyName -> {
-            metaDataWithReferences.stream().forEach(metaData -> {
+        try (CloseableIterator<MetaData> iterator = mongoTemplate.stream(query, MetaData.class, type.getType())) {
+            iterator.forEachRemaining(metaData -> REFERENCE_PROPERTIES.forEach(propertyName -> {
                 List<Map<String, Object>> entries = (List<Map<String, Object>>) metaData.getData().get(propertyName);
-                if (!CollectionUtils.isEmpty(entries)) {
-                    entries.forEach(ae -> groupedByEntityIdReference
-                            .computeIfAbsent((String) ae.get("name"), k -> new HashMap<>())
-                            .computeIfAbsent(propertyName, m -> new ArrayList<>())
-                            .add(metaData));
+                if (CollectionUtils.isEmpty(entries)) {
+                    return;
                 }
-            });
-        });
-        List<String> types = Arrays.stream(EntityType.values()).map(EntityType::getType).collect(toList());
-        return groupedByEntityIdReference.entrySet().stream()
-                .filter(entry -> types.stream()
-                        .noneMatch(entityType -> mongoTemplate.exists(new BasicQuery("{\"data.entityid\":\"" + entry.getKey() + "\"}"), entityType)))
-                .flatMap(entry -> entry.getValue().entrySet().stream().map(m ->
-                        m.getValue().stream().map(metaData -> new OrphanMetaData(
-                                entry.getKey(),
+                entries.stream()
+                        .map(entry -> (String) entry.get("name"))
+                        .filter(name -> !entityIds.contains(name))
+                        .forEach(name -> orphans.accept(new OrphanMetaData(
+                                name,
                                 (String) metaData.getData().get("entityid"),
                                 type.equals(EntityType.PDP) ? (String) metaData.getData().get("name") :
                                         (String) metaData.metaDataFields().get("name:en"),
-                                m.getKey(),
+                                propertyName,
                                 metaData.getId(),
                                 type.getType()
-                        ))))
-                .flatMap(Function.identity());
+                        )));
+            }));
+        }
     }
 }
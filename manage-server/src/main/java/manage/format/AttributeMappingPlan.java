@@ -0,0 +1,96 @@
+package manage.format;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+
+/**
+ * The attribute mappings of the EngineBlockFormatter compiled once into flat arrays. For every mapping the source key,
+ * whether the value is read from the metaDataFields, the path of the nested result maps and the target name are
+ * precomputed, so formatting an entity does not split, parse or resolve anything.
+ */
+@SuppressWarnings("unchecked")
+final class AttributeMappingPlan {
+
+    private static final String METADATA = "metadata";
+    private static final int BEGIN_INDEX = "metadata:".length();
+
+    private final String[] sourceKeys;
+    private final boolean[] metaDataFields;
+    private final String[][] paths;
+    private final String[] targets;
+
+    private AttributeMappingPlan(String[] sourceKeys, boolean[] metaDataFields, String[][] paths, String[] targets) {
+        this.sourceKeys = sourceKeys;
+        this.metaDataFields = metaDataFields;
+        this.paths = paths;
+        this.targets = targets;
+    }
+
+    static AttributeMappingPlan compile(Map<String, Optional<String>> attributes) {
+        int size = attributes.size();
+        String[] sourceKeys = new String[size];
+        boolean[] metaDataFields = new boolean[size];
+        String[][] paths = new String[size][];
+        String[] targets = new String[size];
+        int i = 0;
+        for (Map.Entry<String, Optional<String>> entry : attributes.entrySet()) {
+            String compoundName = entry.getKey();
+            String[] parts = compoundName.split(":");
+            if (parts.length == 1) {
+                sourceKeys[i] = compoundName;
+                paths[i] = new String[0];
+                targets[i] = entry.getValue().orElse(compoundName);
+            } else if (parts[0].equals(METADATA)) {
+                sourceKeys[i] = compoundName.substring(BEGIN_INDEX);
+                metaDataFields[i] = true;
+                String[] path = new String[parts.length - 1];
+                System.arraycopy(parts, 0, path, 0, path.length);
+                paths[i] = path;
+                targets[i] = entry.getValue().orElse(parts[parts.length - 1]);
+            } else {
+                //Compound names outside of the metadata have no source value
+                continue;
+            }
+            i++;
+        }
+        if (i < size) {
+            return new AttributeMappingPlan(Arrays.copyOf(sourceKeys, i), Arrays.copyOf(metaDataFields, i),
+                    Arrays.copyOf(paths, i), Arrays.copyOf(targets, i));
+        }
+        return new AttributeMappingPlan(sourceKeys, metaDataFields, paths, targets);
+    }
+
+    void apply(Map<String, Object> source, Map<String, Object> result) {
+        Map<String, Object> metaDataFieldsSource = null;
+        for (int i = 0; i < sourceKeys.length; i++) {
+            Object value;
+            if (metaDataFields[i]) {
+                if (metaDataFieldsSource == null) {
+                    metaDataFieldsSource = (Map<String, Object>) source.get("metaDataFields");
+                }
+                value = metaDataFieldsSource.get(sourceKeys[i]);
+            } else {
+                value = source.get(sourceKeys[i]);
+            }
+            if (value == null) {
+                continue;
+            }
+            Map<String, Object> target = result;
+            for (String segment : paths[i]) {
+                Object nested = target.get(segment);
+                if (nested == null) {
+                    nested = new TreeMap<String, Object>();
+                    target.put(segment, nested);
+                }
+                target = (Map<String, Object>) nested;
+            }
+            target.put(targets[i], EngineBlockFormatter.parseValueToString(value));
+        }
+    }
+
+    int size() {
+        return sourceKeys.length;
+    }
+}
@@ -5,6 +5,7 @@ import manage.model.MetaData;
 import org.springframework.util.StringUtils;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.IntStream;
 
 import static java.util.Optional.empty;
@@ -18,42 +19,47 @@ import static org.springframework.util.StringUtils.hasText;
 @SuppressWarnings("unchecked")
 public class EngineBlockFormatter {
 
-    private static final Map<String, Optional> commonAttributes = new TreeMap<>();
-    private static final Map<String, Optional> spAttributes = new TreeMap<>();
-    private static final Map<String, Optional> idpAttributes = new TreeMap<>();
-
-    private static final int BEGIN_INDEX = "metadata:".length();
+    /*
+     * The attribute tables are only populated during class initialization and are read-only afterwards, so the
+     * formatter is thread-safe and can be used by the parallel push formatting.
+     */
+    static final Map<String, Optional<String>> commonAttributes;
+    private static final AttributeMappingPlan commonAttributesPlan;
+    private static final Map<String, AttributeMappingPlan> coinAttributePlans = new ConcurrentHashMap<>();
 
     static {
-        commonAttributes.put("entityid", of("name"));
-        commonAttributes.put("metadata:name:nl", empty());
-        commonAttributes.put("metadata:name:en", empty());
-        commonAttributes.put("metadata:displayName:en", empty());
-        commonAttributes.put("metadata:displayName:nl", empty());
-        commonAttributes.put("metadata:description:en", empty());
-        commonAttributes.put("metadata:description:nl", empty());
+        Map<String, Optional<String>> attributes = new TreeMap<>();
+        attributes.put("entityid", of("name"));
+        attributes.put("metadata:name:nl", empty());
+        attributes.put("metadata:name:en", empty());
+        attributes.put("metadata:displayName:en", empty());
+        attributes.put("metadata:displayName:nl", empty());
+        attributes.put("metadata:description:en", empty());
+        attributes.put("metadata:description:nl", empty());
         //logo is handled in separate method
-        commonAttributes.put("metadata:OrganizationName:nl", empty());
-        commonAttributes.put("metadata:OrganizationName:en", empty());
-        commonAttributes.put("metadata:OrganizationDisplayName:nl", empty());
-        commonAttributes.put("metadata:OrganizationDisplayName:en", empty());
-        commonAttributes.put("metadata:OrganizationURL:nl", empty());
-        commonAttributes.put("metadata:OrganizationURL:en", empty());
-
-        commonAttributes.put("metadata:keywords:en", empty());
-        commonAttributes.put("metadata:keywords:nl", empty());
-        commonAttributes.put("metadata:url:en", empty());
-        commonAttributes.put("metadata:url:nl", empty());
-
-        commonAttributes.put("metadata:certData", empty());
-        commonAttributes.put("metadata:certData2", empty());
-        commonAttributes.put("metadata:certData3", empty());
-
-        commonAttributes.put("state", empty());
+        attributes.put("metadata:OrganizationName:nl", empty());
+        attributes.put("metadata:OrganizationName:en", empty());
+        attributes.put("metadata:OrganizationDisplayName:nl", empty());
+        attributes.put("metadata:OrganizationDisplayName:en", empty());
+        attributes.put("metadata:OrganizationURL:nl", empty());
+        attributes.put("metadata:OrganizationURL:en", empty());
+
+        attributes.put("metadata:keywords:en", empty());
+        attributes.put("metadata:keywords:nl", empty());
+        attributes.put("metadata:url:en", empty());
+        attributes.put("metadata:url:nl", empty());
+
+        attributes.put("metadata:certData", empty());
+        attributes.put("metadata:certData2", empty());
+        attributes.put("metadata:certData3", empty());
+
+        attributes.put("state", empty());
         //contact persons are handled in separate method
-        commonAttributes.put("metadata:NameIDFormat", empty());
+        attributes.put("metadata:NameIDFormat", empty());
         //single log outs are handled in separate method
-        commonAttributes.put("manipulation", of("manipulation_code"));
+        attributes.put("manipulation", of("manipulation_code"));
+        commonAttributes = Collections.unmodifiableMap(attributes);
+        commonAttributesPlan = AttributeMappingPlan.compile(commonAttributes);
     }
 
     public Map<String, Object> parseServiceProvider(MetaData metaDataContainer) {
@@ -68,8 +74,6 @@ public class EngineBlockFormatter {
         addAssertionConsumerService(source, serviceProvider);
         addPrivacyStatementURL(source, serviceProvider);
 
-        spAttributes.forEach((key, value) -> this.addToResult(source, serviceProvider, key, value));
-
         removeEmptyValues(serviceProvider);
         return serviceProvider;
 
@@ -93,8 +97,6 @@ public class EngineBlockFormatter {
         addCommonProviderAttributes(source, identityProvider);
         addSingleSignOnService(source, identityProvider);
 
-        idpAttributes.forEach((key, value) -> this.addToResult(source, identityProvider, key, value));
-
         addShibMdScopes(source, identityProvider);
 
         removeEmptyValues(identityProvider);
@@ -118,7 +120,7 @@ public class EngineBlockFormatter {
     }
 
     private void addCommonProviderAttributes(Map<String, Object> source, Map<String, Object> result) {
-        commonAttributes.forEach((key, value) -> this.addToResult(source, result, key, value));
+        commonAttributesPlan.apply(source, result);
 
         addCoinMetadataAttributesToResult(source, result);
         addLogo(source, result);
@@ -194,7 +196,7 @@ public class EngineBlockFormatter {
         }
     }
 
-    private String parseValueToString(Object value) {
+    static String parseValueToString(Object value) {
         if (value == null) {
             return null;
         }
@@ -365,40 +367,16 @@ public class EngineBlockFormatter {
                                                      Map<String, Object> result) {
         Map<String, Object> metadata = (Map<String, Object>) source.get("metaDataFields");
         metadata.keySet().stream().filter(key -> key.startsWith("coin:"))
-                .forEach(key -> {
-                    addToResult(source, result, "metadata:" + key, empty());
-                });
+                .forEach(key -> coinAttributePlans
+                        .computeIfAbsent(key, coin -> AttributeMappingPlan.compile(Map.of("metadata:" + coin, empty())))
+                        .apply(source, result));
     }
 
     protected void addToResult(Map<String, Object> source,
                                Map<String, Object> result,
                                String compoundName,
                                Optional<String> convertTo) {
-        List<String> parts = Arrays.asList(compoundName.split(":"));
-        if (parts.size() == 1) {
-            Object o = source.get(compoundName);
-            if (o != null) {
-                result.put(convertTo.orElse(compoundName), parseValueToString(o));
-            }
-            return;
-        }
-        Iterator<String> iterator = parts.iterator();
-        Object value = null;
-        while (iterator.hasNext()) {
-            String part = iterator.next();
-            if (part.equals("metadata")) {
-                result = (Map<String, Object>) result.computeIfAbsent(part, key -> new TreeMap<String, Map<String,
-                        Object>>());
-                value = ((Map) source.get("metaDataFields")).get(compoundName.substring(BEGIN_INDEX));
-            } else {
-                if (iterator.hasNext()) {
-                    result = (Map<String, Object>) result.computeIfAbsent(part, key -> new TreeMap<String,
-                            Map<String, Object>>());
-                } else if (value != null) {
-                    result.put(convertTo.orElse(part), parseValueToString(value));
-                }
-            }
-        }
+        AttributeMappingPlan.compile(Map.of(compoundName, convertTo)).apply(source, result);
     }
 
 }
@@ -3,16 +3,17 @@ package manage.hook;
 import manage.api.AbstractUser;
 import manage.model.EntityType;
 import manage.model.MetaData;
+import manage.repository.EntityIdDirectory;
 import manage.repository.MetaDataRepository;
 import org.springframework.util.CollectionUtils;
 
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 
+import static java.util.Collections.emptyList;
+import static java.util.Collections.emptySet;
 import static java.util.Collections.singletonList;
 import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toSet;
 import static manage.model.EntityType.IDP;
 import static manage.model.EntityType.RP;
 import static manage.model.EntityType.RS;
@@ -22,9 +23,11 @@ import static manage.model.EntityType.SP;
 public class EntityIdConstraintsHook extends MetaDataHookAdapter {
 
     private final MetaDataRepository metaDataRepository;
+    private final EntityIdDirectory entityIdDirectory;
 
-    public EntityIdConstraintsHook(MetaDataRepository metaDataRepository) {
+    public EntityIdConstraintsHook(MetaDataRepository metaDataRepository, EntityIdDirectory entityIdDirectory) {
         this.metaDataRepository = metaDataRepository;
+        this.entityIdDirectory = entityIdDirectory;
     }
 
     @Override
@@ -56,22 +59,47 @@ public class EntityIdConstraintsHook extends MetaDataHookAdapter {
         relationsToCheck.put("serviceProviderIds", Arrays.asList(SP, RP));
         relationsToCheck.put("identityProviderIds", singletonList(IDP));
 
+        //All referenced entityid's per collection, resolved with one lookup per collection
+        Map<EntityType, Set<String>> referencedEntityIds = new EnumMap<>(EntityType.class);
+        relationsToCheck.forEach((key, value) -> references(newMetaData, key).forEach(reference -> {
+            String name = reference.get("name");
+            if (name != null) {
+                value.forEach(entityType -> referencedEntityIds.computeIfAbsent(entityType, k -> new HashSet<>()).add(name));
+            }
+        }));
+        Map<EntityType, Set<String>> existingEntityIds = existingEntityIds(referencedEntityIds);
+
         relationsToCheck.forEach((key, value) -> {
-            if (newMetaData.getData().containsKey(key)) {
-                List<Map<String, String>> references = (List<Map<String, String>>) newMetaData.getData().get(key);
-                if (!CollectionUtils.isEmpty(references)) {
-                    List<Map<String, String>> strippedReferences = references.stream()
-                            .filter(map -> value.stream()
-                                    .anyMatch(entityType ->
-                                            !CollectionUtils.isEmpty(
-                                                    metaDataRepository.findRaw(entityType.getType(),
-                                                            String.format("{\"data.entityid\" : \"%s\"}", map.get("name")))))
-                            ).collect(toList());
-                    newMetaData.getData().put(key, strippedReferences);
-                }
+            List<Map<String, String>> references = references(newMetaData, key);
+            if (!CollectionUtils.isEmpty(references)) {
+                List<Map<String, String>> strippedReferences = references.stream()
+                        .filter(map -> value.stream()
+                                .anyMatch(entityType -> existingEntityIds.getOrDefault(entityType, emptySet())
+                                        .contains(map.get("name")))
+                        ).collect(toList());
+                newMetaData.getData().put(key, strippedReferences);
             }
         });
         return newMetaData;
     }
 
+    private List<Map<String, String>> references(MetaData metaData, String key) {
+        List<Map<String, String>> references = (List<Map<String, String>>) metaData.getData().get(key);
+        return references == null ? emptyList() : references;
+    }
+
+    private Map<EntityType, Set<String>> existingEntityIds(Map<EntityType, Set<String>> referencedEntityIds) {
+        Map<EntityType, Set<String>> existingEntityIds = new EnumMap<>(EntityType.class);
+        if (entityIdDirectory.isEnabled()) {
+            entityIdDirectory.synchronize();
+            referencedEntityIds.forEach((entityType, entityIds) -> existingEntityIds.put(entityType, entityIds.stream()
+                    .filter(entityId -> entityIdDirectory.exists(entityType.getType(), entityId))
+                    .collect(toSet())));
+        } else {
+            referencedEntityIds.forEach((entityType, entityIds) -> existingEntityIds.put(entityType,
+                    metaDataRepository.findExistingEntityIds(entityType.getType(), entityIds)));
+        }
+        return existingEntityIds;
+    }
+
 }
@@ -3,23 +3,20 @@ package manage.hook;
 import manage.api.AbstractUser;
 import manage.model.EntityType;
 import manage.model.MetaData;
-import manage.repository.MetaDataRepository;
+import manage.service.EntityIdReconciler;
 
 import java.util.*;
 
 import static java.util.Arrays.asList;
-import static java.util.Collections.emptyList;
 import static java.util.Collections.singletonList;
-import static java.util.stream.Collectors.toList;
 import static manage.model.EntityType.*;
 
-@SuppressWarnings("unchecked")
 public class EntityIdReconcilerHook extends MetaDataHookAdapter {
 
-    private final MetaDataRepository metaDataRepository;
+    private final EntityIdReconciler entityIdReconciler;
 
-    public EntityIdReconcilerHook(MetaDataRepository metaDataRepository) {
-        this.metaDataRepository = metaDataRepository;
+    public EntityIdReconcilerHook(EntityIdReconciler entityIdReconciler) {
+        this.entityIdReconciler = entityIdReconciler;
     }
 
     @Override
@@ -36,23 +33,9 @@ public class EntityIdReconcilerHook extends MetaDataHookAdapter {
             return newMetaData;
         }
         String metaDataType = newMetaData.getType();
-        List<String> types = metaDataTypesForeignKeyRelations(metaDataType);
-        getCollectionReferenceNames(metaDataType).forEach(name ->
-                types.forEach(type -> {
-                    List<MetaData> references = metaDataRepository.findRaw(type,
-                            String.format("{\"data.%s.name\" : \"%s\"}", name, oldEntityId));
-
-                    String revisionNote = String.format("Updated after entityId rename of %s to %s", oldEntityId, newEntityId);
-
-                    references.forEach(metaData -> {
-                        List<Map<String, String>> entities = (List<Map<String, String>>) metaData.getData().getOrDefault(name, new ArrayList<>());
-                        entities.stream()
-                                .filter(entry -> oldEntityId.equals(entry.get("name")))
-                                .findAny()
-                                .ifPresent(entry -> entry.put("name", newEntityId));
-                        this.revision(metaData, revisionNote);
-                    });
-                }));
+        String revisionNote = String.format("Updated after entityId rename of %s to %s", oldEntityId, newEntityId);
+        entityIdReconciler.reconcile(oldEntityId, newEntityId, metaDataTypesForeignKeyRelations(metaDataType),
+                getCollectionReferenceNames(metaDataType), revisionNote);
         return newMetaData;
     }
 
@@ -61,22 +44,9 @@ public class EntityIdReconcilerHook extends MetaDataHookAdapter {
         String entityId = entityId(metaDataToBeDeleted);
         String metaDataType = metaDataToBeDeleted.getType();
 
-        List<String> types = metaDataTypesForeignKeyRelations(metaDataType);
-        getCollectionReferenceNames(metaDataType).forEach(name -> {
-            types.forEach(type -> {
-                List<MetaData> references = metaDataRepository.findRaw(type,
-                        String.format("{\"data.%s.name\" : \"%s\"}", name, entityId));
-
-                String revisionNote = String.format("Updated after deletion of entityId %s", entityId);
-
-                references.forEach(metaData -> {
-                    List<Map<String, String>> entities = (List<Map<String, String>>) metaData.getData().getOrDefault(name, new ArrayList<>());
-                    entities = entities.stream().filter(entry -> !entityId.equals(entry.get("name"))).collect(toList());
-                    metaData.getData().put(name, entities);
-                    this.revision(metaData, revisionNote);
-                });
-            });
-        });
+        String revisionNote = String.format("Updated after deletion of entityId %s", entityId);
+        entityIdReconciler.reconcile(entityId, null, metaDataTypesForeignKeyRelations(metaDataType),
+                getCollectionReferenceNames(metaDataType), revisionNote);
         return metaDataToBeDeleted;
     }
 
@@ -84,17 +54,6 @@ public class EntityIdReconcilerHook extends MetaDataHookAdapter {
         return (String) metaData.getData().get("entityid");
     }
 
-    private void revision(MetaData metaData, String revisionNote) {
-        String id = metaData.getId();
-        MetaData previous = metaDataRepository.findById(id, metaData.getType());
-        previous.revision(UUID.randomUUID().toString());
-        metaDataRepository.save(previous);
-
-        metaData.promoteToLatest("System", revisionNote);
-        metaDataRepository.update(metaData);
-
-    }
-
     private List<String> getCollectionReferenceNames(String type) {
         if (type.equals(SP.getType()) || type.equals(RP.getType())) {
             return asList("allowedEntities", "stepupEntities", "mfaEntities", "disableConsent", "serviceProviderIds");
@@ -4,10 +4,13 @@ import crypto.KeyStore;
 import crypto.RSAKeyStore;
 import lombok.SneakyThrows;
 import manage.conf.MetaDataAutoConfiguration;
+import manage.repository.EntityIdDirectory;
 import manage.repository.MetaDataRepository;
+import manage.service.EntityIdReconciler;
 import org.apache.commons.io.IOUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.io.Resource;
@@ -22,6 +25,9 @@ public class MetaDataHookConfiguration {
     @Autowired
     @SneakyThrows
     CompositeMetaDataHook hooks(MetaDataRepository metaDataRepository,
+                                EntityIdDirectory entityIdDirectory,
+                                EntityIdReconciler entityIdReconciler,
+                                ApplicationEventPublisher applicationEventPublisher,
                                 MetaDataAutoConfiguration metaDataAutoConfiguration,
                                 @Value("${crypto.public-key-location}") Resource publicKeyResource,
                                 @Value("${crypto.development-mode}") Boolean developmentMode) {
@@ -37,14 +43,14 @@ public class MetaDataHookConfiguration {
                         new ExtraneousKeysPoliciesHook(metaDataAutoConfiguration),
                         new OidcValidationHook(metaDataAutoConfiguration),
                         new TypeSafetyHook(metaDataAutoConfiguration),
-                        new EntityIdConstraintsHook(metaDataRepository),
-                        new EntityIdReconcilerHook(metaDataRepository),
+                        new EntityIdConstraintsHook(metaDataRepository, entityIdDirectory),
+                        new EntityIdReconcilerHook(entityIdReconciler),
                         new SSIDValidationHook(metaDataRepository, metaDataAutoConfiguration),
                         new SecretHook(metaDataAutoConfiguration),
                         new RequiredAttributesHook(metaDataAutoConfiguration),
                         new ProvisioningHook(metaDataRepository, metaDataAutoConfiguration),
                         new EncryptionHook(keyStore),
-                        new ProvisioningApplicationDeletionHook(metaDataRepository)));
+                        new ProvisioningApplicationDeletionHook(metaDataRepository, applicationEventPublisher)));
     }
 
 
@@ -3,7 +3,9 @@ package manage.hook;
 import manage.api.AbstractUser;
 import manage.model.EntityType;
 import manage.model.MetaData;
+import manage.model.MetaDataChangedEvent;
 import manage.repository.MetaDataRepository;
+import org.springframework.context.ApplicationEventPublisher;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -17,9 +19,12 @@ import static manage.model.EntityType.PROV;
 public class ProvisioningApplicationDeletionHook extends MetaDataHookAdapter {
 
     private final MetaDataRepository metaDataRepository;
+    private final ApplicationEventPublisher applicationEventPublisher;
 
-    public ProvisioningApplicationDeletionHook(MetaDataRepository metaDataRepository) {
+    public ProvisioningApplicationDeletionHook(MetaDataRepository metaDataRepository,
+                                               ApplicationEventPublisher applicationEventPublisher) {
         this.metaDataRepository = metaDataRepository;
+        this.applicationEventPublisher = applicationEventPublisher;
     }
 
     @Override
@@ -60,7 +65,7 @@ public class ProvisioningApplicationDeletionHook extends MetaDataHookAdapter {
 
         metaData.promoteToLatest("System", revisionNote);
         metaDataRepository.update(metaData);
-
+        applicationEventPublisher.publishEvent(MetaDataChangedEvent.of(MetaDataChangedEvent.Operation.UPDATE, metaData));
     }
 
 }
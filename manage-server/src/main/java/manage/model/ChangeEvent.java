@@ -0,0 +1,38 @@
+package manage.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+
+/**
+ * Compact record of a change of a MetaData, appended to the change_events outbox. The cursor is an ascending sequence
+ * and orders the events for the consumers.
+ */
+@Getter
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = ChangeEvent.COLLECTION)
+public class ChangeEvent {
+
+    public static final String COLLECTION = "change_events";
+    //The events are removed by a TTL index on the created timestamp
+    public static final long RETENTION_DAYS = 90;
+
+    @Id
+    private Long cursor;
+    private MetaDataChangedEvent.Operation operation;
+    private String type;
+    private String metaDataId;
+    private String entityId;
+    private Long version;
+    private Instant created;
+
+    public static ChangeEvent of(long cursor, MetaDataChangedEvent event, Instant created) {
+        return new ChangeEvent(cursor, event.getOperation(), event.getType(), event.getId(), event.getEntityId(),
+                event.getVersion(), created);
+    }
+}
@@ -0,0 +1,35 @@
+package manage.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Published by the MetaDataService after the latest version of a MetaData is created, updated, deleted or restored.
+ * Listeners are invoked synchronously after the write, so they must not fail the write.
+ */
+@Getter
+@AllArgsConstructor
+@ToString
+public class MetaDataChangedEvent {
+
+    public enum Operation {
+        CREATE, UPDATE, DELETE, RESTORE,
+        //All MetaData of the type are deleted, the id, entityId and version are null
+        DELETE_ALL,
+        //Only in the change_events outbox: changes were not appended and consumers must compare all MetaData with the
+        //database. The type, id, entityId and version are null
+        RESYNC
+    }
+
+    private final Operation operation;
+    private final String type;
+    private final String id;
+    private final String entityId;
+    private final Long version;
+
+    public static MetaDataChangedEvent of(Operation operation, MetaData metaData) {
+        return new MetaDataChangedEvent(operation, metaData.getType(), metaData.getId(),
+                (String) metaData.getData().get("entityid"), metaData.getVersion());
+    }
+}
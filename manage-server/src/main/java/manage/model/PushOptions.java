@@ -14,4 +14,10 @@ public class PushOptions {
     private boolean includeEB;
     private boolean includeOIDC;
     private boolean includePdP;
+    //Push even if nothing was modified since the last push
+    private boolean force;
+
+    public PushOptions(boolean includeEB, boolean includeOIDC, boolean includePdP) {
+        this(includeEB, includeOIDC, includePdP, false);
+    }
 }
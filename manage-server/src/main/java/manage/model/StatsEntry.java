@@ -6,5 +6,9 @@ import lombok.AllArgsConstructor;
 public class StatsEntry {
 
     public String name;
+    //The number of documents and the sizes in bytes, null if the statistics of the collection are not available
     public Long count;
+    public Long size;
+    public Long storageSize;
+    public Long indexSize;
 }
@@ -7,13 +7,16 @@ import com.mongodb.bulk.BulkWriteResult;
 import com.mongodb.client.DistinctIterable;
 import lombok.SneakyThrows;
 import manage.conf.MetaDataAutoConfiguration;
+import manage.model.ChangeEvent;
 import manage.model.EntityType;
 import manage.model.MetaData;
 import manage.model.Scope;
+import manage.push.PushHistory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.data.domain.Sort;
 import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.CollectionOptions;
 import org.springframework.data.mongodb.core.index.Index;
 import org.springframework.data.mongodb.core.index.IndexInfo;
 import org.springframework.data.mongodb.core.index.IndexOperations;
@@ -25,6 +28,7 @@ import org.springframework.util.CollectionUtils;
 import org.springframework.util.StringUtils;
 
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -286,6 +290,45 @@ public class MongoChangelog {
         });
     }
 
+    @ChangeSet(order = "015", id = "createPushHistory", author = "okke.harsta@surf.nl")
+    public void createPushHistory(MongockTemplate mongoTemplate) {
+        if (!mongoTemplate.collectionExists(PushHistory.COLLECTION)) {
+            mongoTemplate.createCollection(PushHistory.COLLECTION, CollectionOptions.empty()
+                    .capped()
+                    .size(PushHistory.CAPPED_SIZE_BYTES)
+                    .maxDocuments(PushHistory.CAPPED_MAX_DOCUMENTS));
+        }
+    }
+
+    @ChangeSet(order = "016", id = "createChangeEvents", author = "okke.harsta@surf.nl")
+    public void createChangeEvents(MongockTemplate mongoTemplate) {
+        if (!mongoTemplate.collectionExists(ChangeEvent.COLLECTION)) {
+            mongoTemplate.createCollection(ChangeEvent.COLLECTION);
+        }
+        mongoTemplate.indexOps(ChangeEvent.COLLECTION).ensureIndex(new Index("created", Sort.Direction.ASC)
+                .expire(ChangeEvent.RETENTION_DAYS, TimeUnit.DAYS));
+    }
+
+    @ChangeSet(order = "017", id = "changeRequestCreatedIndex", author = "okke.harsta@surf.nl")
+    public void changeRequestCreatedIndex(MongockTemplate mongoTemplate) {
+        Stream.of(EntityType.values()).forEach(entityType -> mongoTemplate
+                .indexOps(entityType.getType().concat(CHANGE_REQUEST_POSTFIX))
+                .ensureIndex(new Index("created", Sort.Direction.DESC)));
+    }
+
+    @ChangeSet(order = "018", id = "activityTimestampIdIndexes", author = "okke.harsta@surf.nl")
+    public void activityTimestampIdIndexes(MongockTemplate mongoTemplate) {
+        //The recent activity sorts on the timestamp and the id, the id breaks the ties of equal timestamps
+        Stream.of(EntityType.values()).forEach(entityType -> {
+            mongoTemplate.indexOps(entityType.getType()).ensureIndex(new Index()
+                    .on("revision.created", Sort.Direction.DESC)
+                    .on("_id", Sort.Direction.DESC));
+            mongoTemplate.indexOps(entityType.getType().concat(REVISION_POSTFIX)).ensureIndex(new Index()
+                    .on("revision.terminated", Sort.Direction.DESC)
+                    .on("_id", Sort.Direction.DESC));
+        });
+    }
+
     private void migrateRelayingPartyToResourceServer(Map<String, Map<String, Object>> properties, List<Pattern> patterns, Map<String, Object> simpleProperties, MetaData rs) {
         rs.setType(EntityType.RS.getType());
         rs.getData().entrySet().removeIf(entry -> !properties.containsKey(entry.getKey()));
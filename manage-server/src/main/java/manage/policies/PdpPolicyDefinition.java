@@ -24,6 +24,12 @@ import static java.util.stream.Collectors.toList;
 @SuppressWarnings("unchecked")
 public class PdpPolicyDefinition {
 
+    //The fields of the MetaData used to construct a PdpPolicyDefinition, used for projections
+    public static final String[] METADATA_FIELDS = {"data.name", "data.description", "data.policyId", "data.type",
+            "data.active", "data.serviceProviderIds", "data.identityProviderIds", "data.attributes", "data.loas",
+            "data.denyRule", "data.allAttributesMustMatch", "data.userDisplayName", "data.authenticatingAuthorityName",
+            "data.denyAdvice", "data.denyAdviceNl", "revision.created", "revision.number"};
+
     private String id;
     private String policyId;
     private String name;
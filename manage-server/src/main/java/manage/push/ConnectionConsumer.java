@@ -0,0 +1,10 @@
+package manage.push;
+
+import java.io.IOException;
+import java.util.Map;
+
+@FunctionalInterface
+public interface ConnectionConsumer {
+
+    void accept(String id, Map<String, Object> connection) throws IOException;
+}
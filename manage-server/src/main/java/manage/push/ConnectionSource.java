@@ -0,0 +1,13 @@
+package manage.push;
+
+import java.io.IOException;
+
+/**
+ * Source of the EngineBlock formatted connections. Implementations must hand over the connections one by one, so
+ * the complete federation does not need to be materialized in memory.
+ */
+@FunctionalInterface
+public interface ConnectionSource {
+
+    void forEachConnection(ConnectionConsumer consumer) throws IOException;
+}
@@ -0,0 +1,70 @@
+package manage.push;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import lombok.Getter;
+import org.springframework.util.DigestUtils;
+
+import java.util.*;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * The added, changed and removed EngineBlock connections between the last pushed state and the current connections.
+ */
+@Getter
+public class ConnectionsDelta {
+
+    private static final ObjectMapper canonicalObjectMapper = new ObjectMapper()
+            .configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+
+    private final Map<String, Map<String, Object>> changedConnections;
+    private final List<String> removedConnections;
+
+    private ConnectionsDelta(Map<String, Map<String, Object>> changedConnections, List<String> removedConnections) {
+        this.changedConnections = changedConnections;
+        this.removedConnections = removedConnections;
+    }
+
+    public static Map<String, String> hashes(Map<String, Map<String, Object>> connections) {
+        Map<String, String> hashes = new HashMap<>();
+        connections.forEach((id, connection) -> hashes.put(id, hash(connection)));
+        return hashes;
+    }
+
+    public static ConnectionsDelta between(Map<String, String> previousHashes,
+                                           Map<String, String> currentHashes,
+                                           Map<String, Map<String, Object>> connections) {
+        Map<String, Map<String, Object>> changedConnections = new HashMap<>();
+        currentHashes.forEach((id, hash) -> {
+            if (!hash.equals(previousHashes.get(id))) {
+                changedConnections.put(id, connections.get(id));
+            }
+        });
+        List<String> removedConnections = previousHashes.keySet().stream()
+                .filter(id -> !currentHashes.containsKey(id))
+                .sorted()
+                .collect(toList());
+        return new ConnectionsDelta(changedConnections, removedConnections);
+    }
+
+    public boolean isEmpty() {
+        return changedConnections.isEmpty() && removedConnections.isEmpty();
+    }
+
+    public Map<String, Object> toPayload() {
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("connections", changedConnections);
+        payload.put("removed", removedConnections);
+        return payload;
+    }
+
+    public static String hash(Map<String, Object> connection) {
+        try {
+            return DigestUtils.md5DigestAsHex(canonicalObjectMapper.writeValueAsBytes(connection));
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+}
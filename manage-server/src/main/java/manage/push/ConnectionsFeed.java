@@ -0,0 +1,25 @@
+package manage.push;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The EngineBlock connections pulled by a consumer. With a delta only the connections changed and removed after the
+ * watermark of the previous feed are included.
+ */
+@Getter
+@AllArgsConstructor
+public class ConnectionsFeed {
+
+    private final String watermark;
+    @JsonIgnore
+    private final String etag;
+    private final boolean delta;
+    private final Map<String, Map<String, Object>> connections;
+    private final List<String> removed;
+
+}
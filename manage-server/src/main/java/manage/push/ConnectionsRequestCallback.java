@@ -0,0 +1,48 @@
+package manage.push;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes the connections one by one directly into the - chunked - request body as
+ * <code>{"connections": {"id": {...}, ...}}</code>.
+ */
+public class ConnectionsRequestCallback extends StreamingJsonRequestCallback {
+
+    private final ObjectMapper objectMapper;
+    private final ConnectionSource connectionSource;
+
+    public ConnectionsRequestCallback(ObjectMapper objectMapper, ConnectionSource connectionSource) {
+        this(objectMapper, connectionSource, false);
+    }
+
+    public ConnectionsRequestCallback(ObjectMapper objectMapper, ConnectionSource connectionSource, boolean gzip) {
+        super(gzip);
+        this.objectMapper = objectMapper;
+        this.connectionSource = connectionSource;
+    }
+
+    @Override
+    public void writeTo(OutputStream outputStream) throws IOException {
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+            serialize(() -> {
+                generator.writeStartObject();
+                generator.writeFieldName("connections");
+                generator.writeStartObject();
+            });
+            //The connections are read and formatted in between, which is not serialization time
+            connectionSource.forEachConnection((id, connection) -> serialize(() -> {
+                generator.writeFieldName(id);
+                generator.writeObject(connection);
+            }));
+            serialize(() -> {
+                generator.writeEndObject();
+                generator.writeEndObject();
+                generator.flush();
+            });
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package manage.push;
+
+import manage.format.EngineBlockFormatter;
+import manage.model.EntityType;
+import manage.model.MetaData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * The SP's, RP's and IdP's pushed to EngineBlock and their EngineBlock format. Both the full formatting of all
+ * connections and the formatting of a single connection - for the PushSnapshot - apply the same include rules.
+ */
+@Component
+@SuppressWarnings("unchecked")
+public class EngineBlockConnections {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EngineBlockConnections.class);
+
+    private final MongoTemplate mongoTemplate;
+    private final FormattingPipeline formattingPipeline;
+    private final FormattedConnectionCache formattedConnectionCache;
+    private final boolean excludeEduGainImported;
+    private final List<String> types;
+    private final EngineBlockFormatter formatter = new EngineBlockFormatter();
+
+    @Autowired
+    public EngineBlockConnections(MongoTemplate mongoTemplate,
+                                  FormattingPipeline formattingPipeline,
+                                  FormattedConnectionCache formattedConnectionCache,
+                                  @Value("${push.eb.exclude_edugain_imports}") boolean excludeEduGainImported,
+                                  @Value("${push.eb.exclude_oidc_rp}") boolean excludeOidcRP) {
+        this.mongoTemplate = mongoTemplate;
+        this.formattingPipeline = formattingPipeline;
+        this.formattedConnectionCache = formattedConnectionCache;
+        this.excludeEduGainImported = excludeEduGainImported;
+        List<String> pushedTypes = new ArrayList<>();
+        pushedTypes.add(EntityType.SP.getType());
+        if (!excludeOidcRP) {
+            pushedTypes.add(EntityType.RP.getType());
+        }
+        pushedTypes.add(EntityType.IDP.getType());
+        this.types = List.copyOf(pushedTypes);
+    }
+
+    /**
+     * The collections pushed to EngineBlock in the order of the push
+     */
+    public List<String> getTypes() {
+        return types;
+    }
+
+    public boolean include(String type, MetaData metaData) {
+        Map metaDataFields = metaData.metaDataFields();
+        if (excludeEduGainImported && type.equals(EntityType.SP.getType())) {
+            boolean importedFromEdugain = Boolean.TRUE.equals(metaDataFields.get("coin:imported_from_edugain"));
+            boolean pushEnabled = Boolean.TRUE.equals(metaDataFields.get("coin:push_enabled"));
+            if (importedFromEdugain && !pushEnabled) {
+                return false;
+            }
+        }
+        return !excludeFromPush(metaDataFields);
+    }
+
+    public Map<String, Object> format(String type, MetaData metaData) {
+        return formattedConnectionCache.get(metaData, md -> this.doFormat(type, md));
+    }
+
+    /**
+     * The EngineBlock connection of the MetaData from the collection of the type or empty if the MetaData is not pushed
+     */
+    public Optional<Map<String, Object>> connection(String type, MetaData metaData) {
+        return include(type, metaData) ? Optional.of(format(type, metaData)) : Optional.empty();
+    }
+
+    /*
+     * Streams all SP's, RP's and IdP's from the database and hands over the EB formatted connections one by one.
+     * The formatting is done in parallel by the FormattingPipeline and only for MetaData not in the
+     * FormattedConnectionCache.
+     */
+    public FormattingStatistics forEachConnection(ConnectionConsumer consumer) throws IOException {
+        FormattingStatistics statistics = formattingPipeline.newStatistics();
+        for (String type : types) {
+            //Sorting on the _id index ensures a deterministic order of the connections
+            Query query = new Query().with(Sort.by("_id"));
+            try (CloseableIterator<MetaData> iterator = mongoTemplate.stream(query, MetaData.class, type)) {
+                formattingPipeline.format(iterator, metaData -> this.include(type, metaData),
+                        metaData -> this.format(type, metaData), consumer, statistics);
+            }
+        }
+        LOG.info("Formatted {}, cache {}", statistics, formattedConnectionCache.statistics());
+        return statistics;
+    }
+
+    private Map<String, Object> doFormat(String type, MetaData metaData) {
+        switch (EntityType.fromType(type)) {
+            case SP:
+                return formatter.parseServiceProvider(metaData);
+            case RP:
+                return formatter.parseOidcClient(metaData);
+            case IDP:
+                //Explicit only filter out 'null' objects in the disableConsent as generically filtering out 'nulls' can break things
+                filterOutNullDisableConsentExplanations(metaData);
+                return formatter.parseIdentityProvider(metaData);
+            default:
+                throw new IllegalArgumentException("Not pushed to EngineBlock: " + type);
+        }
+    }
+
+    public static boolean excludeFromPush(Map metaDataFields) {
+        Object excludeFromPush = metaDataFields.getOrDefault("coin:exclude_from_push", false);
+        if (excludeFromPush instanceof String) {
+            return "1".equals(excludeFromPush);
+        }
+        return (boolean) excludeFromPush;
+    }
+
+    public static void filterOutNullDisableConsentExplanations(MetaData idp) {
+        Object disableConsentData = idp.getData().get("disableConsent");
+        if (disableConsentData instanceof List) {
+            List disableConsent = (List) disableConsentData;
+            disableConsent.forEach(disableConsentEntry -> {
+                if (disableConsentEntry instanceof Map) {
+                    Map<String, Object> disableConsentMap = (Map) disableConsentEntry;
+                    disableConsentMap.entrySet().removeIf(entry -> entry.getValue() == null);
+                }
+            });
+        }
+    }
+}
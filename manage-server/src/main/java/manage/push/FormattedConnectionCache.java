@@ -0,0 +1,116 @@
+package manage.push;
+
+import manage.model.MetaData;
+import manage.model.MetaDataChangedEvent;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Least recently used cache of the EngineBlock formatted connections keyed by the id and version of the MetaData. Every
+ * save of a MetaData increments the version, so a cached connection is never returned for changed MetaData. The
+ * entries of changed MetaData are invalidated to free up the memory before the next push.
+ * <p>
+ * The cached connections are shared between pushes and must not be modified.
+ */
+@Component
+public class FormattedConnectionCache {
+
+    private final int maximumSize;
+    private final Map<String, CachedConnection> connections;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public FormattedConnectionCache(@Value("${push.format.cache_size:10000}") int maximumSize) {
+        this.maximumSize = Math.max(0, maximumSize);
+        this.connections = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedConnection> eldest) {
+                boolean evict = size() > FormattedConnectionCache.this.maximumSize;
+                if (evict) {
+                    evictions.incrementAndGet();
+                }
+                return evict;
+            }
+        };
+    }
+
+    public Map<String, Object> get(MetaData metaData, Function<MetaData, Map<String, Object>> formatter) {
+        if (maximumSize == 0) {
+            return formatter.apply(metaData);
+        }
+        String id = metaData.getId();
+        Long version = metaData.getVersion();
+        synchronized (connections) {
+            CachedConnection cachedConnection = connections.get(id);
+            if (cachedConnection != null && Objects.equals(cachedConnection.version, version)) {
+                hits.incrementAndGet();
+                return cachedConnection.connection;
+            }
+        }
+        misses.incrementAndGet();
+        //Formatting is done outside the lock, so the formatting threads don't wait on each other
+        Map<String, Object> connection = formatter.apply(metaData);
+        synchronized (connections) {
+            connections.put(id, new CachedConnection(version, connection));
+        }
+        return connection;
+    }
+
+    @EventListener
+    public void onMetaDataChanged(MetaDataChangedEvent event) {
+        if (event.getOperation() == MetaDataChangedEvent.Operation.DELETE_ALL) {
+            invalidateAll();
+        } else {
+            invalidate(event.getId());
+        }
+    }
+
+    public void invalidate(String id) {
+        synchronized (connections) {
+            connections.remove(id);
+        }
+    }
+
+    public void invalidateAll() {
+        synchronized (connections) {
+            connections.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (connections) {
+            return connections.size();
+        }
+    }
+
+    public Map<String, Object> statistics() {
+        Map<String, Object> result = new HashMap<>();
+        result.put("size", size());
+        result.put("maximumSize", maximumSize);
+        result.put("hits", hits.get());
+        result.put("misses", misses.get());
+        result.put("evictions", evictions.get());
+        return result;
+    }
+
+    private static class CachedConnection {
+
+        private final Long version;
+        private final Map<String, Object> connection;
+
+        private CachedConnection(Long version, Map<String, Object> connection) {
+            this.version = version;
+            this.connection = connection;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package manage.push;
+
+import manage.model.MetaData;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Formats MetaData in parallel batches on a fixed pool, while the next batch is read from the - Mongo - iterator.
+ * The formatted connections are handed over to the consumer on the calling thread in the order of the iterator.
+ */
+@Component
+public class FormattingPipeline {
+
+    private final ExecutorService executorService;
+    private final int parallelism;
+    private final int batchSize;
+
+    public FormattingPipeline(@Value("${push.format.parallelism:0}") int parallelism,
+                              @Value("${push.format.batch_size:250}") int batchSize) {
+        this.parallelism = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        this.batchSize = Math.max(1, batchSize);
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("push-formatter-");
+        threadFactory.setDaemon(true);
+        this.executorService = Executors.newFixedThreadPool(this.parallelism, threadFactory);
+    }
+
+    public FormattingStatistics newStatistics() {
+        return new FormattingStatistics(parallelism);
+    }
+
+    public void format(Iterator<MetaData> metaDataIterator,
+                       Predicate<MetaData> include,
+                       Function<MetaData, Map<String, Object>> formatter,
+                       ConnectionConsumer consumer,
+                       FormattingStatistics statistics) throws IOException {
+        long start = System.nanoTime();
+        List<Future<Map<String, Object>>> pending = Collections.emptyList();
+        List<String> pendingIdentifiers = Collections.emptyList();
+        try {
+            while (hasNext(metaDataIterator, statistics)) {
+                List<Future<Map<String, Object>>> batch = new ArrayList<>(batchSize);
+                List<String> identifiers = new ArrayList<>(batchSize);
+                while (batch.size() < batchSize && hasNext(metaDataIterator, statistics)) {
+                    long loadStart = System.nanoTime();
+                    MetaData metaData = metaDataIterator.next();
+                    long filterStart = System.nanoTime();
+                    statistics.addLoaded(filterStart - loadStart);
+                    boolean included = include.test(metaData);
+                    statistics.addFiltered(System.nanoTime() - filterStart);
+                    if (included) {
+                        identifiers.add(metaData.getId());
+                        batch.add(executorService.submit(() -> {
+                            long formatStart = System.nanoTime();
+                            Map<String, Object> connection = formatter.apply(metaData);
+                            statistics.addFormatted(System.nanoTime() - formatStart);
+                            return connection;
+                        }));
+                    }
+                }
+                //The previous batch is handed over while the current batch is being formatted
+                emit(pendingIdentifiers, pending, consumer);
+                pending = batch;
+                pendingIdentifiers = identifiers;
+            }
+            emit(pendingIdentifiers, pending, consumer);
+        } finally {
+            pending.forEach(future -> future.cancel(true));
+            statistics.addWallTime(System.nanoTime() - start);
+        }
+    }
+
+    private boolean hasNext(Iterator<MetaData> metaDataIterator, FormattingStatistics statistics) {
+        //Fetching the next batch of a Mongo cursor is done in hasNext
+        long start = System.nanoTime();
+        boolean hasNext = metaDataIterator.hasNext();
+        statistics.addLoaded(System.nanoTime() - start);
+        return hasNext;
+    }
+
+    private void emit(List<String> identifiers,
+                      List<Future<Map<String, Object>>> futures,
+                      ConnectionConsumer consumer) throws IOException {
+        for (int i = 0; i < futures.size(); i++) {
+            consumer.accept(identifiers.get(i), get(futures.get(i)));
+        }
+    }
+
+    private Map<String, Object> get(Future<Map<String, Object>> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof RuntimeException ? (RuntimeException) cause : new IllegalStateException(cause);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executorService.shutdownNow();
+    }
+}
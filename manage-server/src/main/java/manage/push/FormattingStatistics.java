@@ -0,0 +1,83 @@
+package manage.push;
+
+import lombok.Getter;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Timings of the formatting stage. The format time is the sum of the time spent by all formatting threads, so the
+ * ratio between the format time and the wall time is the effective speedup. The load and filter times are spent on
+ * the thread reading the cursor.
+ */
+@Getter
+public class FormattingStatistics {
+
+    private final int parallelism;
+    private final AtomicLong connections = new AtomicLong();
+    private final AtomicLong wallTimeNanos = new AtomicLong();
+    private final AtomicLong formatTimeNanos = new AtomicLong();
+    private final AtomicLong loadTimeNanos = new AtomicLong();
+    private final AtomicLong filterTimeNanos = new AtomicLong();
+
+    public FormattingStatistics(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    void addFormatted(long nanos) {
+        connections.incrementAndGet();
+        formatTimeNanos.addAndGet(nanos);
+    }
+
+    void addLoaded(long nanos) {
+        loadTimeNanos.addAndGet(nanos);
+    }
+
+    void addFiltered(long nanos) {
+        filterTimeNanos.addAndGet(nanos);
+    }
+
+    void addConnection() {
+        connections.incrementAndGet();
+    }
+
+    /*
+     * Adds the load, filter and format times - not the connections - of the other statistics
+     */
+    void addTimings(FormattingStatistics other) {
+        loadTimeNanos.addAndGet(other.loadTimeNanos.get());
+        filterTimeNanos.addAndGet(other.filterTimeNanos.get());
+        formatTimeNanos.addAndGet(other.formatTimeNanos.get());
+    }
+
+    void addWallTime(long nanos) {
+        wallTimeNanos.addAndGet(nanos);
+    }
+
+    public long getWallTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(wallTimeNanos.get());
+    }
+
+    public long getFormatTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(formatTimeNanos.get());
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> result = new HashMap<>();
+        result.put("parallelism", parallelism);
+        result.put("connections", connections.get());
+        result.put("wallTimeMillis", getWallTimeMillis());
+        result.put("formatTimeMillis", getFormatTimeMillis());
+        result.put("loadTimeMillis", TimeUnit.NANOSECONDS.toMillis(loadTimeNanos.get()));
+        result.put("filterTimeMillis", TimeUnit.NANOSECONDS.toMillis(filterTimeNanos.get()));
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s connections in %s ms wall time, %s ms format time on %s threads",
+                connections.get(), getWallTimeMillis(), getFormatTimeMillis(), parallelism);
+    }
+}
@@ -0,0 +1,56 @@
+package manage.push;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Hashes the EngineBlock formatted connections while the wrapped source hands them over, e.g. while they are written
+ * into the request body of a push. Only the hash per connection is kept, so the digest of exactly the handed over
+ * connections is known after one pass without materializing the connections.
+ */
+public class HashingConnectionSource implements ConnectionSource {
+
+    private final ConnectionSource connectionSource;
+    private final Map<String, String> hashes = new HashMap<>();
+    private long hashNanos;
+
+    public HashingConnectionSource(ConnectionSource connectionSource) {
+        this.connectionSource = connectionSource;
+    }
+
+    @Override
+    public void forEachConnection(ConnectionConsumer consumer) throws IOException {
+        hashes.clear();
+        connectionSource.forEachConnection((id, connection) -> {
+            long start = System.nanoTime();
+            hashes.put(id, ConnectionsDelta.hash(connection));
+            hashNanos += System.nanoTime() - start;
+            consumer.accept(id, connection);
+        });
+    }
+
+    /**
+     * The hashes per id of the connections handed over by the last pass
+     */
+    public Map<String, String> getHashes() {
+        return hashes;
+    }
+
+    /**
+     * The digest of the connections handed over by the last pass
+     */
+    public String digest() {
+        long start = System.nanoTime();
+        String digest = PayloadDigest.digest(hashes);
+        hashNanos += System.nanoTime() - start;
+        return digest;
+    }
+
+    /**
+     * The time spent hashing the connections and computing the digest
+     */
+    public long getHashNanos() {
+        return hashNanos;
+    }
+}
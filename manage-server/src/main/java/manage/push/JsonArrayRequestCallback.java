@@ -0,0 +1,46 @@
+package manage.push;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Writes the elements of the - lazy - stream one by one into the request body as a JSON array. The stream is opened
+ * when the body is written and closed afterwards, so a Mongo cursor is never read into memory. Reading the next
+ * element is recorded as load time.
+ */
+public class JsonArrayRequestCallback extends StreamingJsonRequestCallback {
+
+    private final ObjectMapper objectMapper;
+    private final Supplier<? extends Stream<?>> elements;
+
+    public JsonArrayRequestCallback(ObjectMapper objectMapper, Supplier<? extends Stream<?>> elements, boolean gzip) {
+        super(gzip);
+        this.objectMapper = objectMapper;
+        this.elements = elements;
+    }
+
+    @Override
+    public void writeTo(OutputStream outputStream) throws IOException {
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream);
+             Stream<?> stream = elements.get()) {
+            serialize(generator::writeStartArray);
+            Iterator<?> iterator = stream.iterator();
+            PushStages stages = getStages();
+            while (stages.time(PushStages.LOAD, iterator::hasNext)) {
+                Object element = stages.time(PushStages.LOAD, iterator::next);
+                serialize(() -> generator.writeObject(element));
+                stages.addEntities(1);
+            }
+            serialize(() -> {
+                generator.writeEndArray();
+                generator.flush();
+            });
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package manage.push;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Serializes the payload directly into the request body.
+ */
+public class JsonRequestCallback extends StreamingJsonRequestCallback {
+
+    private final ObjectMapper objectMapper;
+    private final Object payload;
+
+    public JsonRequestCallback(ObjectMapper objectMapper, Object payload, boolean gzip) {
+        super(gzip);
+        this.objectMapper = objectMapper;
+        this.payload = payload;
+    }
+
+    @Override
+    public void writeTo(OutputStream outputStream) throws IOException {
+        serialize(() -> objectMapper.writeValue(outputStream, payload));
+    }
+}
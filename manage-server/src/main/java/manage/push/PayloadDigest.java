@@ -0,0 +1,138 @@
+package manage.push;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * SHA-256 digests of the push payloads. The payloads are serialized with sorted map entries and properties directly
+ * into the digest, so identical payloads have identical digests and the payload is never buffered.
+ */
+public class PayloadDigest {
+
+    private final ObjectMapper canonicalObjectMapper;
+
+    public PayloadDigest(ObjectMapper objectMapper) {
+        this.canonicalObjectMapper = objectMapper.copy()
+                .configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true)
+                .configure(MapperFeature.SORT_PROPERTIES_ALPHABETICALLY, true);
+    }
+
+    public String digest(Object payload) throws IOException {
+        return write(outputStream -> canonicalObjectMapper.writeValue(outputStream, payload));
+    }
+
+    public String digest(ConnectionSource connectionSource) throws IOException {
+        return write(new ConnectionsRequestCallback(canonicalObjectMapper, connectionSource)::writeTo);
+    }
+
+    public String digestElements(Supplier<? extends Stream<?>> elements) throws IOException {
+        return write(new JsonArrayRequestCallback(canonicalObjectMapper, elements, false)::writeTo);
+    }
+
+    /**
+     * A digest of the elements of a JSON array that is computed while the elements pass by, e.g. while they are
+     * written into the request body of a push. It equals {@link #digestElements(Supplier)} of the same elements.
+     */
+    public ElementsDigest elementsDigest() {
+        return new ElementsDigest();
+    }
+
+    /**
+     * The digest of the connections based on the hashes of the individual connections
+     */
+    public static String digest(Map<String, String> connectionHashes) {
+        MessageDigest messageDigest = messageDigest();
+        new TreeMap<>(connectionHashes).forEach((id, hash) -> {
+            messageDigest.update(id.getBytes(StandardCharsets.UTF_8));
+            messageDigest.update(hash.getBytes(StandardCharsets.UTF_8));
+        });
+        return toHex(messageDigest.digest());
+    }
+
+    private static String write(PayloadWriter payloadWriter) throws IOException {
+        MessageDigest messageDigest = messageDigest();
+        try (OutputStream outputStream = new DigestOutputStream(OutputStream.nullOutputStream(), messageDigest)) {
+            payloadWriter.writeTo(outputStream);
+        }
+        return toHex(messageDigest.digest());
+    }
+
+    private static MessageDigest messageDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        return String.format("%064x", new BigInteger(1, bytes));
+    }
+
+    public class ElementsDigest {
+
+        private final MessageDigest messageDigest = messageDigest();
+        private final JsonGenerator generator;
+        private long digestNanos;
+
+        private ElementsDigest() {
+            try {
+                this.generator = canonicalObjectMapper.getFactory()
+                        .createGenerator(new DigestOutputStream(OutputStream.nullOutputStream(), messageDigest));
+                this.generator.writeStartArray();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        public void add(Object element) {
+            long start = System.nanoTime();
+            try {
+                generator.writeObject(element);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                digestNanos += System.nanoTime() - start;
+            }
+        }
+
+        public String digest() throws IOException {
+            long start = System.nanoTime();
+            try (JsonGenerator jsonGenerator = generator) {
+                jsonGenerator.writeEndArray();
+                jsonGenerator.flush();
+            } finally {
+                digestNanos += System.nanoTime() - start;
+            }
+            return toHex(messageDigest.digest());
+        }
+
+        /**
+         * The time spent digesting the elements
+         */
+        public long getDigestNanos() {
+            return digestNanos;
+        }
+    }
+
+    @FunctionalInterface
+    private interface PayloadWriter {
+
+        void writeTo(OutputStream outputStream) throws IOException;
+    }
+}
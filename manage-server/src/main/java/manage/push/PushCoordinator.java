@@ -0,0 +1,110 @@
+package manage.push;
+
+import manage.model.PushOptions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+
+/**
+ * Coalesces push requests. At most one push is running and all requests that arrive during a push are merged into
+ * exactly one follow-up push, which starts when the running push is done. A queued push is started at the earliest
+ * after the debounce window, counted from the first request, so a burst of requests results in one push.
+ */
+public class PushCoordinator {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PushCoordinator.class);
+
+    private static final int HISTORY_SIZE = 100;
+
+    //Pushes with the merged options on behalf of the initiators
+    private final BiFunction<PushOptions, List<String>, ResponseEntity<Map>> pusher;
+    private final long debounceMillis;
+    private final ScheduledExecutorService scheduler;
+    private final AtomicLong sequence = new AtomicLong();
+    private final Map<Long, PushRequest> history = new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, PushRequest> eldest) {
+            return size() > HISTORY_SIZE;
+        }
+    };
+
+    private PushRequest running;
+    private PushRequest queued;
+
+    public PushCoordinator(BiFunction<PushOptions, List<String>, ResponseEntity<Map>> pusher, long debounceMillis) {
+        this.pusher = pusher;
+        this.debounceMillis = Math.max(0, debounceMillis);
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("push-coordinator-");
+        threadFactory.setDaemon(true);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+    }
+
+    public synchronized PushRequest submit(PushOptions pushOptions, String initiator) {
+        if (queued != null) {
+            queued.merge(pushOptions, initiator);
+            LOG.info("Merged push request into queued push {}", queued.getId());
+            return queued;
+        }
+        queued = new PushRequest(sequence.incrementAndGet(), pushOptions, initiator);
+        history.put(queued.getId(), queued);
+        if (running == null) {
+            schedule(queued);
+        }
+        return queued;
+    }
+
+    public synchronized Optional<PushRequest> find(long id) {
+        return Optional.ofNullable(history.get(id));
+    }
+
+    private void schedule(PushRequest pushRequest) {
+        long delay = Math.max(0, pushRequest.getRequested().toEpochMilli() + debounceMillis - Instant.now().toEpochMilli());
+        scheduler.schedule(this::run, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void run() {
+        PushRequest pushRequest;
+        PushOptions pushOptions;
+        synchronized (this) {
+            pushRequest = queued;
+            queued = null;
+            running = pushRequest;
+            pushOptions = pushRequest.start();
+        }
+        LOG.info("Starting push {} for {} caller(s)", pushRequest.getId(), pushRequest.getCallers());
+        try {
+            pushRequest.complete(pusher.apply(pushOptions, pushRequest.getInitiators()));
+        } catch (RuntimeException e) {
+            LOG.error(String.format("Push %s failed", pushRequest.getId()), e);
+            pushRequest.fail(e);
+        } catch (Error e) {
+            //The callers waiting for the push must not block forever
+            LOG.error(String.format("Push %s failed", pushRequest.getId()), e);
+            pushRequest.fail(e);
+            throw e;
+        } finally {
+            synchronized (this) {
+                running = null;
+                if (queued != null) {
+                    schedule(queued);
+                }
+            }
+        }
+    }
+
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,96 @@
+package manage.push;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestClientException;
+
+import javax.annotation.PreDestroy;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Pushes to all targets concurrently, so a slow target does not delay the others. The connect and read deadlines
+ * are configured on the RestTemplate of each target, the number of retries is part of the PushTarget. Only
+ * connection errors and server errors are retried, client errors will fail again.
+ */
+@Component
+public class PushFanOut {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PushFanOut.class);
+
+    private final ExecutorService executorService;
+    private final long retryBackoffMillis;
+
+    public PushFanOut(@Value("${push.retry_backoff:1000}") long retryBackoffMillis) {
+        this.retryBackoffMillis = retryBackoffMillis;
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("push-target-");
+        threadFactory.setDaemon(true);
+        this.executorService = Executors.newCachedThreadPool(threadFactory);
+    }
+
+    public List<PushOutcome> push(List<PushTarget> targets) {
+        List<CompletableFuture<PushOutcome>> futures = targets.stream()
+                .map(target -> CompletableFuture.supplyAsync(() -> this.push(target), executorService))
+                .collect(toList());
+        return futures.stream().map(CompletableFuture::join).collect(toList());
+    }
+
+    private PushOutcome push(PushTarget target) {
+        long start = System.nanoTime();
+        int attempts = 0;
+        while (true) {
+            attempts++;
+            Map<String, Object> details = new HashMap<>();
+            PushStages stages = new PushStages();
+            try {
+                boolean modified = target.getTask().push(details, stages);
+                long duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                if (modified) {
+                    LOG.info("Push to {} succeeded in {} ms after {} attempt(s)", target.getName(), duration, attempts);
+                } else {
+                    LOG.info("Push to {} skipped as nothing was modified since the last push", target.getName());
+                }
+                return new PushOutcome(target.getName(), true, modified, attempts, duration, details, stages, null);
+            } catch (Exception e) {
+                boolean retry = attempts <= target.getRetries() && isRetryable(e) && backoff(attempts);
+                LOG.warn(String.format("Push to %s failed on attempt %s%s", target.getName(), attempts,
+                        retry ? ", retrying" : ""), e);
+                if (!retry) {
+                    long duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                    return new PushOutcome(target.getName(), false, true, attempts, duration, details, stages,
+                            e.getMessage());
+                }
+            }
+        }
+    }
+
+    private boolean isRetryable(Exception e) {
+        return e instanceof RestClientException && !(e instanceof HttpClientErrorException);
+    }
+
+    private boolean backoff(int attempts) {
+        try {
+            Thread.sleep(retryBackoffMillis * attempts);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executorService.shutdownNow();
+    }
+}
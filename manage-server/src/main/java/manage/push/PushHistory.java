@@ -0,0 +1,87 @@
+package manage.push;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import manage.model.PushOptions;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.io.Serializable;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * The record of one push. The collection is capped, so only the most recent pushes are kept.
+ */
+@Getter
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = PushHistory.COLLECTION)
+public class PushHistory implements Serializable {
+
+    public static final String COLLECTION = "push_history";
+    public static final long CAPPED_SIZE_BYTES = 16 * 1024 * 1024;
+    public static final long CAPPED_MAX_DOCUMENTS = 5000;
+
+    @Id
+    private String id;
+
+    private List<String> initiators;
+
+    private PushOptions options;
+
+    private Instant started;
+
+    private long durationMillis;
+
+    private String status;
+
+    private List<Target> targets;
+
+    public static PushHistory of(List<String> initiators,
+                                 PushOptions options,
+                                 Instant started,
+                                 long durationMillis,
+                                 String status,
+                                 List<PushOutcome> outcomes) {
+        List<Target> targets = outcomes.stream().map(Target::new).collect(toList());
+        return new PushHistory(null, initiators, options, started, durationMillis, status, targets);
+    }
+
+    @Getter
+    @NoArgsConstructor
+    public static class Target implements Serializable {
+
+        private String name;
+
+        private String status;
+
+        private int attempts;
+
+        private long durationMillis;
+
+        //Durations in milliseconds keyed by the stage, see PushStages
+        private Map<String, Long> stages;
+
+        private long bytes;
+
+        private long entities;
+
+        private String error;
+
+        Target(PushOutcome outcome) {
+            this.name = outcome.getTarget();
+            this.status = outcome.getStatus();
+            this.attempts = outcome.getAttempts();
+            this.durationMillis = outcome.getDurationMillis();
+            this.stages = outcome.getStages().durationMillis();
+            this.bytes = outcome.getStages().getBytes();
+            this.entities = outcome.getStages().getEntities();
+            this.error = outcome.getError();
+        }
+    }
+}
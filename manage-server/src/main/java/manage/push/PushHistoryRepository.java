@@ -0,0 +1,32 @@
+package manage.push;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public class PushHistoryRepository {
+
+    private final MongoTemplate mongoTemplate;
+
+    @Autowired
+    public PushHistoryRepository(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    public void save(PushHistory pushHistory) {
+        mongoTemplate.insert(pushHistory);
+    }
+
+    /*
+     * The generated ObjectId's are ascending in insertion order
+     */
+    public List<PushHistory> findLatest(int limit) {
+        Query query = new Query().with(Sort.by(Sort.Direction.DESC, "_id")).limit(limit);
+        return mongoTemplate.find(query, PushHistory.class);
+    }
+}
@@ -0,0 +1,55 @@
+package manage.push;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the durations, the stage timings and the payload sizes of the pushes as Micrometer meters, the same
+ * measurements as the PushHistory. The meters are served by the metrics endpoint of the actuator.
+ */
+@Component
+public class PushMetrics {
+
+    private final MeterRegistry meterRegistry;
+
+    @Autowired
+    public PushMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    public void record(long durationMillis, String status, List<PushOutcome> outcomes) {
+        Timer.builder("manage.push")
+                .description("Duration of a push to all targets")
+                .tag("status", status)
+                .register(meterRegistry)
+                .record(durationMillis, TimeUnit.MILLISECONDS);
+        outcomes.forEach(outcome -> {
+            String target = outcome.getTarget();
+            Timer.builder("manage.push.target")
+                    .description("Duration of a push to one target including retries")
+                    .tags("target", target, "status", outcome.getStatus())
+                    .register(meterRegistry)
+                    .record(outcome.getDurationMillis(), TimeUnit.MILLISECONDS);
+            PushStages stages = outcome.getStages();
+            stages.durationNanos().forEach((stage, nanos) -> Timer.builder("manage.push.stage")
+                    .description("Duration of a stage of a push to one target")
+                    .tags("target", target, "stage", stage)
+                    .register(meterRegistry)
+                    .record(nanos, TimeUnit.NANOSECONDS));
+            if (stages.getBytes() > 0) {
+                DistributionSummary.builder("manage.push.payload")
+                        .description("Size of the request body of a push to one target")
+                        .baseUnit("bytes")
+                        .tag("target", target)
+                        .register(meterRegistry)
+                        .record(stages.getBytes());
+            }
+        });
+    }
+}
@@ -0,0 +1,40 @@
+package manage.push;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.HashMap;
+import java.util.Map;
+
+@Getter
+@AllArgsConstructor
+public class PushOutcome {
+
+    private final String target;
+    private final boolean success;
+    private final boolean modified;
+    private final int attempts;
+    private final long durationMillis;
+    private final Map<String, Object> details;
+    //The stages of the last attempt
+    private final PushStages stages;
+    private final String error;
+
+    public String getStatus() {
+        return success ? (modified ? "OK" : "not_modified") : "FAILED";
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> result = new HashMap<>();
+        result.put("status", getStatus());
+        result.put("attempts", attempts);
+        result.put("durationMillis", durationMillis);
+        result.put("stages", stages.durationMillis());
+        result.put("bytes", stages.getBytes());
+        result.put("entities", stages.getEntities());
+        if (error != null) {
+            result.put("error", error);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,119 @@
+package manage.push;
+
+import lombok.Getter;
+import manage.model.PushOptions;
+import org.springframework.http.ResponseEntity;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * A push requested by one or more callers. All requests that arrive before the push is started are merged into the
+ * same PushRequest, so the push includes the changes of all callers.
+ */
+@Getter
+public class PushRequest {
+
+    public enum Status {
+        QUEUED, RUNNING, DONE, FAILED
+    }
+
+    private final long id;
+    private final Instant requested;
+    private final CompletableFuture<ResponseEntity<Map>> future = new CompletableFuture<>();
+    private final Set<String> initiators = new LinkedHashSet<>();
+
+    private volatile boolean includeEB;
+    private volatile boolean includeOIDC;
+    private volatile boolean includePdP;
+    private volatile boolean force;
+    private volatile int callers;
+    private volatile Status status = Status.QUEUED;
+    private volatile Instant started;
+    private volatile Instant finished;
+
+    PushRequest(long id, PushOptions pushOptions, String initiator) {
+        this.id = id;
+        this.requested = Instant.now();
+        merge(pushOptions, initiator);
+    }
+
+    void merge(PushOptions pushOptions, String initiator) {
+        synchronized (initiators) {
+            initiators.add(initiator);
+        }
+        includeEB |= pushOptions.isIncludeEB();
+        includeOIDC |= pushOptions.isIncludeOIDC();
+        includePdP |= pushOptions.isIncludePdP();
+        force |= pushOptions.isForce();
+        callers++;
+    }
+
+    PushOptions start() {
+        status = Status.RUNNING;
+        started = Instant.now();
+        return new PushOptions(includeEB, includeOIDC, includePdP, force);
+    }
+
+    public List<String> getInitiators() {
+        synchronized (initiators) {
+            return new ArrayList<>(initiators);
+        }
+    }
+
+    void complete(ResponseEntity<Map> response) {
+        finished = Instant.now();
+        status = response.getStatusCode().is2xxSuccessful() ? Status.DONE : Status.FAILED;
+        future.complete(response);
+    }
+
+    void fail(Throwable e) {
+        finished = Instant.now();
+        status = Status.FAILED;
+        future.completeExceptionally(e);
+    }
+
+    /**
+     * Blocks until the push is done and returns the result of the push
+     */
+    public ResponseEntity<Map> await() {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> result = new HashMap<>();
+        result.put("id", id);
+        result.put("status", status.name().toLowerCase());
+        result.put("includeEB", includeEB);
+        result.put("includeOIDC", includeOIDC);
+        result.put("includePdP", includePdP);
+        result.put("force", force);
+        result.put("callers", callers);
+        result.put("initiators", getInitiators());
+        result.put("requested", requested);
+        if (started != null) {
+            result.put("started", started);
+        }
+        if (finished != null) {
+            result.put("finished", finished);
+        }
+        if (future.isDone() && !future.isCompletedExceptionally()) {
+            result.put("result", future.join().getBody());
+        }
+        return result;
+    }
+}
@@ -0,0 +1,664 @@
+package manage.push;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import manage.model.ChangeEvent;
+import manage.model.MetaData;
+import manage.model.MetaDataChangedEvent;
+import manage.repository.ChangeEventRepository;
+import manage.repository.MetaDataRepository;
+import manage.service.ChangeEventService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+import org.springframework.util.StringUtils;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toSet;
+
+/**
+ * The EngineBlock connections of all pushed MetaData, kept up to date from the change_events outbox. A push - and the
+ * push preview - only hands over the precomputed connections.
+ * <p>
+ * The change events of all Manage instances are applied in the order of their cursor: the changed MetaData are read
+ * and formatted again. Changes made directly in the database are not in the outbox, those are found by comparing the
+ * versions of the MetaData with the database in the background every refresh interval, never on the push path. The
+ * changes found are appended to the outbox, so all Manage instances apply them. The snapshot is built on first use or
+ * loaded from the optional file, where it is persisted on shutdown.
+ * <p>
+ * Every entry is numbered with the cursor of the change event it was last changed by. The watermark - the cursor up to
+ * which all change events are applied - is handed out by the {@link #feed(String) connections feed} and allows
+ * consumers to pull only the connections changed since a previous watermark of any Manage instance. The ETag of the
+ * feed is a digest of the ids and versions of all MetaData and is therefore equal on all Manage instances for the same
+ * database.
+ * <p>
+ * Only one thread at a time reads the database to update the snapshot and the feeds do not wait for it. The monitor
+ * of the snapshot is only held for the changes in memory. The connections in the snapshot are shared between pushes
+ * and must not be modified.
+ */
+@Component
+public class PushSnapshot {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PushSnapshot.class);
+
+    //Above this number of stale MetaData the collection is streamed instead of queried by id
+    private static final int FETCH_BY_ID_LIMIT = 500;
+    //Marks MetaData that is not pushed in the formatting pipeline
+    private static final Map<String, Object> NOT_PUSHED = Collections.unmodifiableMap(new HashMap<>());
+    //The number of removed MetaData remembered for the deltas of the connections feed
+    private static final int MAX_TOMBSTONES = 10_000;
+    private static final int CHANGE_EVENTS_BATCH_SIZE = 1_000;
+
+    private final MetaDataRepository metaDataRepository;
+    private final MongoTemplate mongoTemplate;
+    private final ChangeEventRepository changeEventRepository;
+    private final EngineBlockConnections engineBlockConnections;
+    private final FormattingPipeline formattingPipeline;
+    private final ObjectMapper objectMapper;
+    private final boolean enabled;
+    private final String file;
+    private final long settleMillis;
+    private final ScheduledExecutorService scheduler;
+
+    //Held by the one thread that reads the database to update the snapshot
+    private final ReentrantLock synchronizationLock = new ReentrantLock();
+
+    //Per collection the entries sorted on the MetaData id, which is the order of the push
+    private final Map<String, NavigableMap<String, Entry>> entries = new ConcurrentHashMap<>();
+    private volatile boolean initialized;
+
+    //The cursor of the last applied change event
+    private long cursor;
+    //The cursor of the oldest change that is not available anymore as a delta
+    private long deltaCursor;
+    //The cursor per removed id in the order of removal
+    private final LinkedHashMap<String, Long> tombstones = new LinkedHashMap<>();
+    private long versionDigestHigh;
+    private long versionDigestLow;
+
+    @Autowired
+    public PushSnapshot(MetaDataRepository metaDataRepository,
+                        ChangeEventRepository changeEventRepository,
+                        EngineBlockConnections engineBlockConnections,
+                        FormattingPipeline formattingPipeline,
+                        ObjectMapper objectMapper,
+                        @Value("${push.snapshot.enabled:true}") boolean enabled,
+                        @Value("${push.snapshot.file:}") String file,
+                        @Value("${push.snapshot.refresh_interval:60000}") long refreshIntervalMillis,
+                        @Value("${change_events.settle_millis:5000}") long settleMillis) {
+        this.metaDataRepository = metaDataRepository;
+        this.mongoTemplate = metaDataRepository.getMongoTemplate();
+        this.changeEventRepository = changeEventRepository;
+        this.engineBlockConnections = engineBlockConnections;
+        this.formattingPipeline = formattingPipeline;
+        this.objectMapper = objectMapper;
+        this.enabled = enabled;
+        this.file = file;
+        this.settleMillis = settleMillis;
+        if (enabled && refreshIntervalMillis > 0) {
+            CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("push-snapshot-");
+            threadFactory.setDaemon(true);
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+            this.scheduler.scheduleWithFixedDelay(this::refresh, refreshIntervalMillis, refreshIntervalMillis,
+                    TimeUnit.MILLISECONDS);
+        } else {
+            this.scheduler = null;
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Compares the snapshot with the database for changes made outside Manage, done in the background every refresh
+     * interval
+     */
+    public void refresh() {
+        //The snapshot is built on first use
+        if (!initialized) {
+            return;
+        }
+        try {
+            synchronize(formattingPipeline.newStatistics());
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Failed to synchronize the push snapshot", e);
+        }
+    }
+
+    /**
+     * Applies the change events and hands over the connections in the order of the push. The comparison with the
+     * database is left to the background refresh, so a push does not scan the collections.
+     */
+    public FormattingStatistics forEachConnection(ConnectionConsumer consumer) throws IOException {
+        long start = System.nanoTime();
+        FormattingStatistics statistics = formattingPipeline.newStatistics();
+        synchronizationLock.lock();
+        try {
+            initialize(statistics);
+            applyChanges(statistics);
+            //No changes are applied while the connections are handed over
+            for (String type : engineBlockConnections.getTypes()) {
+                for (Map.Entry<String, Entry> entry : entries(type).entrySet()) {
+                    Map<String, Object> connection = entry.getValue().getConnection();
+                    if (connection != null) {
+                        consumer.accept(entry.getKey(), connection);
+                        statistics.addConnection();
+                    }
+                }
+            }
+        } finally {
+            synchronizationLock.unlock();
+        }
+        statistics.addWallTime(System.nanoTime() - start);
+        LOG.info("Handed over push snapshot, {}", statistics);
+        return statistics;
+    }
+
+    /*
+     * Applies the change events and the changes made directly in the database
+     */
+    void synchronize(FormattingStatistics statistics) throws IOException {
+        synchronizationLock.lock();
+        try {
+            initialize(statistics);
+            applyChanges(statistics);
+            compare(statistics);
+        } finally {
+            synchronizationLock.unlock();
+        }
+    }
+
+    /*
+     * Repairs the entries of the MetaData with another version in the database
+     */
+    private void compare(FormattingStatistics statistics) throws IOException {
+        int changed = 0;
+        int removed = 0;
+        for (String type : engineBlockConnections.getTypes()) {
+            NavigableMap<String, Entry> typeEntries = entries(type);
+            long loadStart = System.nanoTime();
+            Map<String, Long> versions = metaDataRepository.versions(type);
+            statistics.addLoaded(System.nanoTime() - loadStart);
+
+            //Only the thread holding the synchronization lock changes the entries
+            Set<String> missing = typeEntries.keySet().stream()
+                    .filter(id -> !versions.containsKey(id))
+                    .collect(toSet());
+            Set<String> stale = versions.entrySet().stream()
+                    .filter(version -> {
+                        Entry entry = typeEntries.get(version.getKey());
+                        return entry == null || !Objects.equals(entry.getVersion(), version.getValue());
+                    })
+                    .map(Map.Entry::getKey)
+                    .collect(toSet());
+            if (!missing.isEmpty() || !stale.isEmpty()) {
+                Set<String> ids = new HashSet<>(missing);
+                ids.addAll(stale);
+                repair(type, ids, statistics);
+                changed += stale.size();
+                removed += missing.size();
+            }
+        }
+        if (changed > 0 || removed > 0) {
+            LOG.info("Synchronized push snapshot, {} added or changed and {} removed", changed, removed);
+        }
+    }
+
+    /**
+     * Compares the snapshot with a full rebuild of all connections. The inconsistent entries are formatted again.
+     */
+    public Map<String, Object> verify() throws IOException {
+        synchronizationLock.lock();
+        try {
+            synchronize(formattingPipeline.newStatistics());
+            Map<String, String> expected = new LinkedHashMap<>();
+            engineBlockConnections.forEachConnection((id, connection) -> expected.put(id, ConnectionsDelta.hash(connection)));
+            Map<String, String> actual = new LinkedHashMap<>();
+            for (String type : engineBlockConnections.getTypes()) {
+                entries(type).forEach((id, entry) -> {
+                    if (entry.getConnection() != null) {
+                        actual.put(id, ConnectionsDelta.hash(entry.getConnection()));
+                    }
+                });
+            }
+            List<String> missing = expected.keySet().stream().filter(id -> !actual.containsKey(id)).collect(toList());
+            List<String> unexpected = actual.keySet().stream().filter(id -> !expected.containsKey(id)).collect(toList());
+            List<String> different = expected.keySet().stream()
+                    .filter(id -> actual.containsKey(id) && !actual.get(id).equals(expected.get(id)))
+                    .collect(toList());
+            boolean consistent = missing.isEmpty() && unexpected.isEmpty() && different.isEmpty();
+
+            Map<String, Object> result = new HashMap<>();
+            result.put("consistent", consistent);
+            result.put("connections", expected.size());
+            result.put("missing", missing);
+            result.put("unexpected", unexpected);
+            result.put("different", different);
+            if (!consistent) {
+                LOG.warn("Push snapshot is inconsistent, missing {}, unexpected {}, different {}. Repairing the snapshot",
+                        missing, unexpected, different);
+                Set<String> inconsistent = new HashSet<>(missing);
+                inconsistent.addAll(unexpected);
+                inconsistent.addAll(different);
+                for (String type : engineBlockConnections.getTypes()) {
+                    //Missing connections have an entry of MetaData that was not pushed before
+                    Set<String> ids = entries(type).keySet().stream().filter(inconsistent::contains).collect(toSet());
+                    if (!ids.isEmpty()) {
+                        repair(type, ids, formattingPipeline.newStatistics());
+                    }
+                }
+            }
+            return result;
+        } finally {
+            synchronizationLock.unlock();
+        }
+    }
+
+    /**
+     * The strong ETag of the connections feed, after the change events are applied
+     */
+    public String etag() throws IOException {
+        applyChangesIfIdle();
+        synchronized (this) {
+            return etagValue();
+        }
+    }
+
+    /**
+     * Applies the change events and returns all connections or - if the watermark of a previous feed is given and the
+     * changes since are still known - only the connections changed and removed since the watermark.
+     */
+    public ConnectionsFeed feed(String since) throws IOException {
+        applyChangesIfIdle();
+        synchronized (this) {
+            OptionalLong sinceCursor = sinceCursor(since);
+            boolean delta = sinceCursor.isPresent();
+            long after = sinceCursor.orElse(Long.MIN_VALUE);
+
+            Map<String, Map<String, Object>> connections = new LinkedHashMap<>();
+            List<String> removed = new ArrayList<>();
+            for (String type : engineBlockConnections.getTypes()) {
+                entries(type).forEach((id, entry) -> {
+                    if (entry.getSequence() <= after) {
+                        return;
+                    }
+                    if (entry.getConnection() != null) {
+                        connections.put(id, entry.getConnection());
+                    } else if (delta) {
+                        //MetaData that is not pushed anymore
+                        removed.add(id);
+                    }
+                });
+            }
+            if (delta) {
+                tombstones.forEach((id, tombstoneCursor) -> {
+                    if (tombstoneCursor > after) {
+                        removed.add(id);
+                    }
+                });
+            }
+            return new ConnectionsFeed(Long.toString(cursor), etagValue(), delta, connections, removed);
+        }
+    }
+
+    /*
+     * A running synchronization applies the change events, the feed does not wait for it once the snapshot is built
+     */
+    private void applyChangesIfIdle() throws IOException {
+        if (initialized) {
+            if (!synchronizationLock.tryLock()) {
+                return;
+            }
+        } else {
+            synchronizationLock.lock();
+        }
+        try {
+            initialize(formattingPipeline.newStatistics());
+            applyChanges(formattingPipeline.newStatistics());
+        } finally {
+            synchronizationLock.unlock();
+        }
+    }
+
+    private OptionalLong sinceCursor(String since) {
+        if (!StringUtils.hasText(since)) {
+            return OptionalLong.empty();
+        }
+        try {
+            long value = Long.parseLong(since);
+            //A watermark of an instance that is ahead or of an old format results in all connections
+            return value < deltaCursor || value > cursor ? OptionalLong.empty() : OptionalLong.of(value);
+        } catch (NumberFormatException e) {
+            return OptionalLong.empty();
+        }
+    }
+
+    private String etagValue() {
+        return String.format("\"%016x%016x\"", versionDigestHigh, versionDigestLow);
+    }
+
+    private void initialize(FormattingStatistics statistics) throws IOException {
+        if (initialized) {
+            return;
+        }
+        if (!load()) {
+            build(statistics);
+        }
+        initialized = true;
+    }
+
+    private void build(FormattingStatistics statistics) throws IOException {
+        //The changes after this cursor are applied, whether or not they are already read by the build
+        long buildCursor = changeEventRepository.latestCursor();
+        Map<String, Map<String, Entry>> built = new HashMap<>();
+        for (String type : engineBlockConnections.getTypes()) {
+            built.put(type, read(type, null, statistics));
+        }
+        synchronized (this) {
+            clear();
+            built.forEach((type, typeEntries) -> typeEntries.forEach((id, entry) ->
+                    put(type, id, entry.getVersion(), entry.getConnection(), buildCursor)));
+            cursor = buildCursor;
+            deltaCursor = buildCursor;
+        }
+        LOG.info("Built push snapshot up to change event {}", buildCursor);
+    }
+
+    /*
+     * Applies the settled change events in the order of their cursor. Not pushed types are skipped.
+     */
+    private void applyChanges(FormattingStatistics statistics) throws IOException {
+        long latestCursor = changeEventRepository.latestCursor();
+        if (latestCursor < cursor) {
+            LOG.warn("The change events are reset to cursor {}, rebuilding the push snapshot", latestCursor);
+            build(statistics);
+            return;
+        }
+        while (cursor < latestCursor) {
+            List<ChangeEvent> changeEvents = ChangeEventService.settled(
+                    changeEventRepository.findAfter(cursor, CHANGE_EVENTS_BATCH_SIZE), cursor,
+                    () -> changeEventRepository.serverTime().minusMillis(settleMillis));
+            if (changeEvents.isEmpty()) {
+                return;
+            }
+            apply(changeEvents, statistics);
+            if (changeEvents.size() < CHANGE_EVENTS_BATCH_SIZE) {
+                return;
+            }
+        }
+    }
+
+    private void apply(List<ChangeEvent> changeEvents, FormattingStatistics statistics) throws IOException {
+        List<String> types = engineBlockConnections.getTypes();
+        //The cursor of the last change per MetaData, which is read once
+        Map<String, Map<String, Long>> changed = new HashMap<>();
+        Map<String, Long> deletedAll = new HashMap<>();
+        boolean resync = changeEvents.stream()
+                .anyMatch(changeEvent -> changeEvent.getOperation() == MetaDataChangedEvent.Operation.RESYNC);
+        changeEvents.stream()
+                .filter(changeEvent -> changeEvent.getType() != null && types.contains(changeEvent.getType()))
+                .forEach(changeEvent -> {
+                    String type = changeEvent.getType();
+                    if (changeEvent.getOperation() == MetaDataChangedEvent.Operation.DELETE_ALL) {
+                        deletedAll.put(type, changeEvent.getCursor());
+                        changed.remove(type);
+                    } else {
+                        changed.computeIfAbsent(type, key -> new HashMap<>())
+                                .put(changeEvent.getMetaDataId(), changeEvent.getCursor());
+                    }
+                });
+        synchronized (this) {
+            //Changes found by the synchronization are applied when they are appended and are not read again
+            changed.forEach((type, typeChanges) -> typeChanges.entrySet()
+                    .removeIf(change -> applied(type, change.getKey(), change.getValue())));
+        }
+        Map<String, Map<String, Entry>> read = new HashMap<>();
+        for (Map.Entry<String, Map<String, Long>> typeChanges : changed.entrySet()) {
+            read.put(typeChanges.getKey(), read(typeChanges.getKey(), typeChanges.getValue().keySet(), statistics));
+        }
+        synchronized (this) {
+            deletedAll.forEach((type, deleteCursor) ->
+                    new ArrayList<>(entries(type).keySet()).forEach(id -> remove(type, id, deleteCursor)));
+            changed.forEach((type, typeChanges) -> typeChanges.forEach((id, changeCursor) -> {
+                Entry entry = read.get(type).get(id);
+                if (entry == null) {
+                    remove(type, id, changeCursor);
+                } else {
+                    put(type, id, entry.getVersion(), entry.getConnection(), changeCursor);
+                }
+            }));
+            cursor = changeEvents.get(changeEvents.size() - 1).getCursor();
+        }
+        if (resync) {
+            //Changes are missing in the outbox
+            compare(statistics);
+        }
+    }
+
+    private boolean applied(String type, String id, long changeCursor) {
+        Entry current = entries(type).get(id);
+        Long tombstone = tombstones.get(id);
+        return (current != null && current.getSequence() >= changeCursor) ||
+                (tombstone != null && tombstone >= changeCursor);
+    }
+
+    /*
+     * Reads and formats the MetaData again and appends the changes to the outbox, so all Manage instances apply them
+     */
+    private void repair(String type, Set<String> ids, FormattingStatistics statistics) throws IOException {
+        Map<String, String> entityIds = new ConcurrentHashMap<>();
+        Map<String, Entry> read = read(type, ids, statistics, entityIds);
+        RuntimeException failure = null;
+        for (String id : ids) {
+            Entry entry = read.get(id);
+            MetaDataChangedEvent.Operation operation = entry == null ? MetaDataChangedEvent.Operation.DELETE :
+                    entries(type).containsKey(id) ? MetaDataChangedEvent.Operation.UPDATE :
+                            MetaDataChangedEvent.Operation.CREATE;
+            Long changeCursor = null;
+            try {
+                changeCursor = changeEventRepository.append(new MetaDataChangedEvent(operation, type, id,
+                        entityIds.get(id), entry == null ? null : entry.getVersion())).getCursor();
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+            synchronized (this) {
+                //Without change event the change can not be part of a delta
+                long sequence = changeCursor == null ? cursor : changeCursor;
+                if (changeCursor == null) {
+                    deltaCursor = cursor + 1;
+                }
+                if (entry == null) {
+                    remove(type, id, sequence);
+                } else {
+                    put(type, id, entry.getVersion(), entry.getConnection(), sequence);
+                }
+            }
+        }
+        if (failure != null) {
+            LOG.warn(String.format("Failed to append the changes of %s, the feed hands out all connections", type), failure);
+        }
+    }
+
+    @PreDestroy
+    public void persist() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        if (!enabled || !initialized || !StringUtils.hasText(file)) {
+            return;
+        }
+        Path path = Paths.get(file);
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        synchronized (this) {
+            try (OutputStream outputStream = new GZIPOutputStream(Files.newOutputStream(temporary))) {
+                objectMapper.writeValue(outputStream, new Persisted(cursor, entries));
+            } catch (IOException e) {
+                LOG.warn(String.format("Failed to persist the push snapshot to %s", file), e);
+                return;
+            }
+        }
+        try {
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOG.warn(String.format("Failed to persist the push snapshot to %s", file), e);
+        }
+    }
+
+    private boolean load() {
+        if (!StringUtils.hasText(file) || !Files.exists(Paths.get(file))) {
+            return false;
+        }
+        try (InputStream inputStream = new GZIPInputStream(Files.newInputStream(Paths.get(file)))) {
+            Persisted persisted = objectMapper.readValue(inputStream, Persisted.class);
+            if (persisted.getEntries() == null) {
+                throw new IOException("No entries in the push snapshot, the file has an old format");
+            }
+            synchronized (this) {
+                clear();
+                persisted.getEntries().forEach((type, typeEntries) -> typeEntries.forEach((id, entry) -> {
+                    entries(type).put(id, entry);
+                    digest(id, entry.getVersion(), 1);
+                }));
+                cursor = persisted.getCursor();
+                //The changes before the restart are not known
+                deltaCursor = cursor;
+            }
+            LOG.info("Loaded push snapshot up to change event {} from {}", persisted.getCursor(), file);
+            return true;
+        } catch (IOException e) {
+            //The snapshot is rebuilt
+            LOG.warn(String.format("Failed to load the push snapshot from %s", file), e);
+            return false;
+        }
+    }
+
+    private void clear() {
+        entries.values().forEach(Map::clear);
+        tombstones.clear();
+        versionDigestHigh = 0L;
+        versionDigestLow = 0L;
+    }
+
+    private void put(String type, String id, Long version, Map<String, Object> connection, long sequence) {
+        Entry previous = entries(type).put(id, new Entry(version, connection, sequence));
+        if (previous != null) {
+            digest(id, previous.getVersion(), -1);
+        }
+        digest(id, version, 1);
+        tombstones.remove(id);
+    }
+
+    private void remove(String type, String id, long sequence) {
+        Entry previous = entries(type).remove(id);
+        if (previous == null) {
+            return;
+        }
+        digest(id, previous.getVersion(), -1);
+        tombstones.remove(id);
+        tombstones.put(id, sequence);
+        if (tombstones.size() > MAX_TOMBSTONES) {
+            Iterator<Map.Entry<String, Long>> iterator = tombstones.entrySet().iterator();
+            deltaCursor = Math.max(deltaCursor, iterator.next().getValue());
+            iterator.remove();
+        }
+    }
+
+    //Order independent sum of the hashes of all ids and versions, maintained on every change
+    private void digest(String id, Long version, int sign) {
+        byte[] hash = DigestUtils.md5Digest((id + ":" + version).getBytes(StandardCharsets.UTF_8));
+        ByteBuffer buffer = ByteBuffer.wrap(hash);
+        versionDigestHigh += sign * buffer.getLong();
+        versionDigestLow += sign * buffer.getLong();
+    }
+
+    private NavigableMap<String, Entry> entries(String type) {
+        return entries.computeIfAbsent(type, key -> new ConcurrentSkipListMap<>());
+    }
+
+    private Map<String, Entry> read(String type, Set<String> ids, FormattingStatistics statistics) throws IOException {
+        return read(type, ids, statistics, new ConcurrentHashMap<>());
+    }
+
+    /*
+     * Reads and formats the MetaData with the given ids - or all MetaData if no ids are given - without sequence
+     */
+    private Map<String, Entry> read(String type, Set<String> ids, FormattingStatistics statistics,
+                                    Map<String, String> entityIds) throws IOException {
+        Map<String, Long> versions = new ConcurrentHashMap<>();
+        Map<String, Entry> read = new HashMap<>();
+        Query query = ids == null || ids.size() > FETCH_BY_ID_LIMIT ? new Query() :
+                Query.query(Criteria.where("_id").in(ids));
+        FormattingStatistics readStatistics = formattingPipeline.newStatistics();
+        try (CloseableIterator<MetaData> iterator = mongoTemplate.stream(query, MetaData.class, type)) {
+            formattingPipeline.format(iterator,
+                    metaData -> ids == null || ids.contains(metaData.getId()),
+                    metaData -> {
+                        if (metaData.getVersion() != null) {
+                            versions.put(metaData.getId(), metaData.getVersion());
+                        }
+                        Object entityId = metaData.getData() == null ? null : metaData.getData().get("entityid");
+                        if (entityId != null) {
+                            entityIds.put(metaData.getId(), entityId.toString());
+                        }
+                        return engineBlockConnections.connection(type, metaData).orElse(NOT_PUSHED);
+                    },
+                    (id, connection) -> read.put(id,
+                            new Entry(versions.get(id), connection == NOT_PUSHED ? null : connection, 0L)),
+                    readStatistics);
+        }
+        statistics.addTimings(readStatistics);
+        return read;
+    }
+
+    @Getter
+    @NoArgsConstructor
+    @AllArgsConstructor
+    static class Entry {
+
+        private Long version;
+        //Null if the MetaData is not pushed
+        private Map<String, Object> connection;
+        //The cursor of the change event of this entry
+        private long sequence;
+    }
+
+    @Getter
+    @NoArgsConstructor
+    @AllArgsConstructor
+    static class Persisted {
+
+        private long cursor;
+        private Map<String, NavigableMap<String, Entry>> entries;
+    }
+}
@@ -0,0 +1,128 @@
+package manage.push;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Durations per stage, the payload size and the number of pushed entities of one push to one target.
+ * <p>
+ * The stages are measured as self time. The load, filter and format stages are recorded while reading and
+ * formatting the entities, the format time is the summed time of all formatting threads. The digest stage is the
+ * wall time of computing the payload digest, including the reads needed for it. The serialize stage is the time spent
+ * writing the JSON - and compressing it - minus the time spent writing to the connection. The transmit stage is the
+ * time spent writing to the connection plus the time of the HTTP exchange outside the writing of the request body.
+ */
+public class PushStages {
+
+    public static final String LOAD = "load";
+    public static final String FILTER = "filter";
+    public static final String FORMAT = "format";
+    public static final String DIGEST = "digest";
+    public static final String SERIALIZE = "serialize";
+    public static final String TRANSMIT = "transmit";
+
+    private static final List<String> STAGES = List.of(LOAD, FILTER, FORMAT, DIGEST, SERIALIZE, TRANSMIT);
+
+    private final Map<String, AtomicLong> nanos = new ConcurrentHashMap<>();
+    private final AtomicLong bodyNanos = new AtomicLong();
+    private final AtomicLong wireNanos = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong entities = new AtomicLong();
+
+    public void add(String stage, long stageNanos) {
+        nanos.computeIfAbsent(stage, key -> new AtomicLong()).addAndGet(stageNanos);
+    }
+
+    public <T> T time(String stage, Timed<T> work) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return work.get();
+        } finally {
+            add(stage, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Executes the HTTP exchange and records the time outside the writing of the request body as transmit time
+     */
+    public <T> T exchange(Supplier<T> exchange) {
+        long start = System.nanoTime();
+        long bodyStart = bodyNanos.get();
+        try {
+            return exchange.get();
+        } finally {
+            long body = bodyNanos.get() - bodyStart;
+            add(TRANSMIT, Math.max(0, System.nanoTime() - start - body));
+        }
+    }
+
+    public void addFormatting(FormattingStatistics statistics) {
+        addFormattingTime(statistics);
+        addEntities(statistics.getConnections().get());
+    }
+
+    /**
+     * Records the timings of entities that are read and formatted again without counting them twice
+     */
+    public void addFormattingTime(FormattingStatistics statistics) {
+        add(LOAD, statistics.getLoadTimeNanos().get());
+        add(FILTER, statistics.getFilterTimeNanos().get());
+        add(FORMAT, statistics.getFormatTimeNanos().get());
+    }
+
+    public void addEntities(long count) {
+        entities.addAndGet(count);
+    }
+
+    void addBody(long writeNanos, long connectionWriteNanos, long size) {
+        bodyNanos.addAndGet(writeNanos);
+        wireNanos.addAndGet(connectionWriteNanos);
+        bytes.addAndGet(size);
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    public long getEntities() {
+        return entities.get();
+    }
+
+    /**
+     * The recorded stages in nanoseconds in the order of the push
+     */
+    public Map<String, Long> durationNanos() {
+        long wire = wireNanos.get();
+        Map<String, Long> result = new LinkedHashMap<>();
+        STAGES.forEach(stage -> {
+            AtomicLong stageNanos = nanos.get(stage);
+            long value = stageNanos == null ? 0L : stageNanos.get();
+            if (stage.equals(SERIALIZE)) {
+                value = Math.max(0, value - wire);
+            } else if (stage.equals(TRANSMIT)) {
+                value += wire;
+            }
+            if (stageNanos != null || (stage.equals(TRANSMIT) && value > 0)) {
+                result.put(stage, value);
+            }
+        });
+        return result;
+    }
+
+    public Map<String, Long> durationMillis() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        durationNanos().forEach((stage, value) -> result.put(stage, TimeUnit.NANOSECONDS.toMillis(value)));
+        return result;
+    }
+
+    @FunctionalInterface
+    public interface Timed<T> {
+        T get() throws IOException;
+    }
+}
@@ -0,0 +1,32 @@
+package manage.push;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.io.Serializable;
+import java.time.Instant;
+import java.util.Map;
+
+/**
+ * The last successfully pushed state of a push target. The connection hashes - keyed by MetaData#id - are the
+ * watermark for the next delta push, the digest of the payload is used to skip unchanged pushes.
+ */
+@Getter
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "push_state")
+public class PushState implements Serializable {
+
+    @Id
+    private String id;
+
+    private Map<String, String> connectionHashes;
+
+    private String digest;
+
+    private Instant pushed;
+
+}
@@ -0,0 +1,32 @@
+package manage.push;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Repository;
+
+import java.util.Optional;
+
+@Repository
+public class PushStateRepository {
+
+    private final MongoTemplate mongoTemplate;
+
+    @Autowired
+    public PushStateRepository(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    public Optional<PushState> findByTarget(String target) {
+        return Optional.ofNullable(mongoTemplate.findById(target, PushState.class));
+    }
+
+    public void save(PushState pushState) {
+        mongoTemplate.save(pushState);
+    }
+
+    public void remove(String target) {
+        mongoTemplate.remove(Query.query(Criteria.where("_id").is(target)), PushState.class);
+    }
+}
@@ -0,0 +1,13 @@
+package manage.push;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+@Getter
+@AllArgsConstructor
+public class PushTarget {
+
+    private final String name;
+    private final int retries;
+    private final PushTask task;
+}
@@ -0,0 +1,14 @@
+package manage.push;
+
+import java.util.Map;
+
+@FunctionalInterface
+public interface PushTask {
+
+    /**
+     * Pushes to the target and adds the target specific results - e.g. the response - to the details. Returns false
+     * if the push was skipped because the payload was not modified since the last push. The durations of the stages
+     * of the push are recorded in the stages.
+     */
+    boolean push(Map<String, Object> details, PushStages stages) throws Exception;
+}
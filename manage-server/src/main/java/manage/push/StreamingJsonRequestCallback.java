@@ -0,0 +1,127 @@
+package manage.push;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.StreamingHttpOutputMessage;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.web.client.RequestCallback;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes the JSON payload directly into the - chunked - request body, optionally gzip compressed on the fly. Nothing
+ * is buffered, regardless of the size of the payload.
+ * <p>
+ * The time spent writing to the connection and the number of bytes written are recorded in the PushStages, together
+ * with the serialization time of the subclasses.
+ */
+public abstract class StreamingJsonRequestCallback implements RequestCallback {
+
+    private final boolean gzip;
+    private PushStages stages = new PushStages();
+
+    protected StreamingJsonRequestCallback(boolean gzip) {
+        this.gzip = gzip;
+    }
+
+    public StreamingJsonRequestCallback measuredBy(PushStages stages) {
+        this.stages = stages;
+        return this;
+    }
+
+    @Override
+    public void doWithRequest(ClientHttpRequest request) throws IOException {
+        HttpHeaders headers = request.getHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        if (gzip) {
+            headers.set(HttpHeaders.CONTENT_ENCODING, "gzip");
+        }
+        if (request instanceof StreamingHttpOutputMessage) {
+            ((StreamingHttpOutputMessage) request).setBody(this::writeBody);
+        } else {
+            writeBody(request.getBody());
+        }
+    }
+
+    private void writeBody(OutputStream outputStream) throws IOException {
+        long start = System.nanoTime();
+        MeteredOutputStream meteredOutputStream = new MeteredOutputStream(outputStream);
+        try {
+            if (gzip) {
+                try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(meteredOutputStream, 8192)) {
+                    writeTo(gzipOutputStream);
+                }
+            } else {
+                writeTo(meteredOutputStream);
+            }
+        } finally {
+            stages.addBody(System.nanoTime() - start, meteredOutputStream.nanos, meteredOutputStream.bytes);
+        }
+    }
+
+    public abstract void writeTo(OutputStream outputStream) throws IOException;
+
+    protected PushStages getStages() {
+        return stages;
+    }
+
+    /**
+     * Records the time of writing JSON as serialize time. Writes to the connection are subtracted by the PushStages.
+     */
+    protected void serialize(JsonWrite write) throws IOException {
+        long start = System.nanoTime();
+        try {
+            write.write();
+        } finally {
+            stages.add(PushStages.SERIALIZE, System.nanoTime() - start);
+        }
+    }
+
+    @FunctionalInterface
+    protected interface JsonWrite {
+        void write() throws IOException;
+    }
+
+    private static class MeteredOutputStream extends FilterOutputStream {
+
+        private long nanos;
+        private long bytes;
+
+        private MeteredOutputStream(OutputStream outputStream) {
+            super(outputStream);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            long start = System.nanoTime();
+            out.write(b);
+            bytes++;
+            nanos += System.nanoTime() - start;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            long start = System.nanoTime();
+            out.write(b, off, len);
+            bytes += len;
+            nanos += System.nanoTime() - start;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            long start = System.nanoTime();
+            out.flush();
+            nanos += System.nanoTime() - start;
+        }
+
+        @Override
+        public void close() throws IOException {
+            long start = System.nanoTime();
+            out.close();
+            nanos += System.nanoTime() - start;
+        }
+    }
+}
@@ -0,0 +1,366 @@
+package manage.repository;
+
+import manage.model.EntityType;
+import manage.model.MetaDataChangedEvent;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * In-memory trigram index of the autocomplete fields per collection. The substrings of the search are looked up in the
+ * index instead of matched with unanchored regular expressions by Mongo, which always results in a collection scan.
+ * <p>
+ * The index of a collection is built on the first autocomplete and updated on every change published by the
+ * MetaDataService. Changes made by other Manage instances or directly in the database are picked up in the background
+ * by comparing the versions with the database every refresh interval.
+ */
+@Component
+public class AutocompleteIndex {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AutocompleteIndex.class);
+
+    private static final int GRAM_LENGTH = 3;
+    //Above this number of stale MetaData the collection is streamed instead of queried by id
+    private static final int FETCH_BY_ID_LIMIT = 500;
+
+    private final MetaDataRepository metaDataRepository;
+    private final MongoTemplate mongoTemplate;
+    private final boolean enabled;
+    private final Map<String, TypeIndex> indexes = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+
+    @Autowired
+    public AutocompleteIndex(MetaDataRepository metaDataRepository,
+                             @Value("${autocomplete.index_enabled:true}") boolean enabled,
+                             @Value("${autocomplete.refresh_interval:10000}") long refreshIntervalMillis) {
+        this.metaDataRepository = metaDataRepository;
+        this.mongoTemplate = metaDataRepository.getMongoTemplate();
+        this.enabled = enabled;
+        if (enabled && refreshIntervalMillis > 0) {
+            CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("autocomplete-index-");
+            threadFactory.setDaemon(true);
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+            this.scheduler.scheduleWithFixedDelay(this::synchronize, refreshIntervalMillis, refreshIntervalMillis,
+                    TimeUnit.MILLISECONDS);
+        } else {
+            this.scheduler = null;
+        }
+    }
+
+    /**
+     * Same result as {@link MetaDataRepository#autoComplete(String, String)}, ranked on the relevance of the match
+     */
+    public List<Map> autoComplete(String type, String search) {
+        if (!enabled) {
+            return metaDataRepository.autoComplete(type, search);
+        }
+        return indexes.computeIfAbsent(type, TypeIndex::new).search(search);
+    }
+
+    /**
+     * Applies the changes made by other Manage instances or directly in the database to the built indexes
+     */
+    public void synchronize() {
+        indexes.values().forEach(index -> {
+            try {
+                index.synchronize();
+            } catch (RuntimeException e) {
+                LOG.warn(String.format("Failed to synchronize the autocomplete index for %s", index.type), e);
+            }
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    @EventListener
+    public void onMetaDataChanged(MetaDataChangedEvent event) {
+        TypeIndex index = indexes.get(event.getType());
+        if (index == null) {
+            return;
+        }
+        try {
+            index.apply(event);
+        } catch (RuntimeException e) {
+            LOG.warn(String.format("Failed to apply %s to the autocomplete index", event), e);
+            index.invalidate();
+        }
+    }
+
+    static Set<String> grams(String text) {
+        Set<String> grams = new HashSet<>();
+        for (int i = 0; i + GRAM_LENGTH <= text.length(); i++) {
+            grams.add(text.substring(i, i + GRAM_LENGTH));
+        }
+        return grams;
+    }
+
+    /*
+     * Relevance of the match of a word in a text: the whole text, a prefix of the text, a prefix of a word in the
+     * text or anywhere in the text
+     */
+    static int quality(String text, String word) {
+        int index = text.indexOf(word);
+        if (index < 0) {
+            return 0;
+        }
+        if (index == 0) {
+            return text.length() == word.length() ? 4 : 3;
+        }
+        do {
+            if (!Character.isLetterOrDigit(text.charAt(index - 1))) {
+                return 2;
+            }
+            index = text.indexOf(word, index + 1);
+        } while (index > 0);
+        return 1;
+    }
+
+    private class TypeIndex {
+
+        private final String type;
+        private final List<String> fields;
+        //The fields only needed for the matching and not part of the result
+        private final List<String> matchOnlyFields;
+        private final NavigableMap<String, IndexEntry> entries = new TreeMap<>();
+        private final Map<String, Set<String>> postings = new HashMap<>();
+        private boolean loaded;
+
+        private TypeIndex(String type) {
+            this.type = type;
+            this.fields = metaDataRepository.autoCompleteFields(type);
+            Document projection = metaDataRepository.queryWithSamlFields(EntityType.fromType(type)).getFieldsObject();
+            this.matchOnlyFields = fields.stream().filter(field -> !projection.containsKey(field)).collect(toList());
+        }
+
+        private synchronized List<Map> search(String search) {
+            load();
+            if ("*".equals(search)) {
+                return entries.values().stream().map(entry -> entry.result).collect(toList());
+            }
+            List<String> words = Arrays.stream(search.toLowerCase().split(" "))
+                    .filter(word -> !word.isEmpty())
+                    .collect(toList());
+            Collection<String> candidates = candidates(words);
+            List<Map.Entry<IndexEntry, Integer>> matches = new ArrayList<>();
+            for (String id : candidates) {
+                IndexEntry entry = entries.get(id);
+                int score = entry.score(words);
+                if (score > 0) {
+                    matches.add(new AbstractMap.SimpleEntry<>(entry, score));
+                }
+            }
+            return matches.stream()
+                    .sorted(Comparator.<Map.Entry<IndexEntry, Integer>>comparingInt(Map.Entry::getValue).reversed()
+                            .thenComparing(match -> match.getKey().id))
+                    .limit(MetaDataRepository.AUTOCOMPLETE_LIMIT)
+                    .map(match -> match.getKey().result)
+                    .collect(toList());
+        }
+
+        /*
+         * The ids of the entries containing all trigrams of the words. Words shorter than a trigram match all entries.
+         */
+        private Collection<String> candidates(List<String> words) {
+            List<Set<String>> postingLists = new ArrayList<>();
+            for (String word : words) {
+                for (String gram : grams(word)) {
+                    Set<String> postingList = postings.get(gram);
+                    if (postingList == null) {
+                        return Collections.emptyList();
+                    }
+                    postingLists.add(postingList);
+                }
+            }
+            if (postingLists.isEmpty()) {
+                return entries.keySet();
+            }
+            postingLists.sort(Comparator.comparingInt(Set::size));
+            Set<String> candidates = new HashSet<>(postingLists.get(0));
+            postingLists.subList(1, postingLists.size()).forEach(candidates::retainAll);
+            return candidates;
+        }
+
+        private synchronized void apply(MetaDataChangedEvent event) {
+            if (!loaded) {
+                return;
+            }
+            if (event.getOperation() == MetaDataChangedEvent.Operation.DELETE_ALL) {
+                new ArrayList<>(entries.keySet()).forEach(this::remove);
+                return;
+            }
+            Query query = query().addCriteria(Criteria.where("_id").is(event.getId()));
+            Map document = mongoTemplate.findOne(query, Map.class, type);
+            if (document == null) {
+                remove(event.getId());
+            } else {
+                put(document);
+            }
+        }
+
+        private synchronized void invalidate() {
+            loaded = false;
+        }
+
+        private void load() {
+            if (loaded) {
+                return;
+            }
+            long start = System.currentTimeMillis();
+            entries.clear();
+            postings.clear();
+            load(query());
+            loaded = true;
+            LOG.info("Built autocomplete index for {} with {} entries in {} ms", type, entries.size(),
+                    System.currentTimeMillis() - start);
+        }
+
+        private void synchronize() {
+            //The versions are read without blocking the autocomplete
+            Map<String, Long> versions = metaDataRepository.versions(type);
+            synchronized (this) {
+                if (!loaded) {
+                    return;
+                }
+                List<String> removed = entries.keySet().stream().filter(id -> !versions.containsKey(id)).collect(toList());
+                removed.forEach(this::remove);
+                List<String> stale = versions.entrySet().stream()
+                        .filter(version -> {
+                            IndexEntry entry = entries.get(version.getKey());
+                            return entry == null || !Objects.equals(entry.version, version.getValue());
+                        })
+                        .map(Map.Entry::getKey)
+                        .collect(toList());
+                if (stale.isEmpty()) {
+                    return;
+                }
+                load(stale.size() > FETCH_BY_ID_LIMIT ? query() : query().addCriteria(Criteria.where("_id").in(stale)));
+                LOG.debug("Synchronized autocomplete index for {}, {} added or changed and {} removed", type,
+                        stale.size(), removed.size());
+            }
+        }
+
+        private Query query() {
+            Query query = metaDataRepository.queryWithSamlFields(EntityType.fromType(type));
+            matchOnlyFields.forEach(field -> query.fields().include(field));
+            return query;
+        }
+
+        private void load(Query query) {
+            try (CloseableIterator<Map> iterator = mongoTemplate.stream(query, Map.class, type)) {
+                iterator.forEachRemaining(this::put);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private void put(Map document) {
+            String id = document.get("_id").toString();
+            remove(id);
+            String[] texts = fields.stream()
+                    .map(field -> value(document, field))
+                    .map(value -> value instanceof String ? ((String) value).toLowerCase() : null)
+                    .toArray(String[]::new);
+            matchOnlyFields.forEach(field -> removeValue(document, field));
+            Object version = document.get("version");
+            IndexEntry entry = new IndexEntry(id, version == null ? null : ((Number) version).longValue(), texts, document);
+            entries.put(id, entry);
+            entry.grams.forEach(gram -> postings.computeIfAbsent(gram, key -> new HashSet<>()).add(id));
+        }
+
+        private void remove(String id) {
+            IndexEntry entry = entries.remove(id);
+            if (entry == null) {
+                return;
+            }
+            entry.grams.forEach(gram -> {
+                Set<String> postingList = postings.get(gram);
+                postingList.remove(id);
+                if (postingList.isEmpty()) {
+                    postings.remove(gram);
+                }
+            });
+        }
+    }
+
+    private static Object value(Map document, String path) {
+        Object value = document;
+        for (String key : path.split("\\.")) {
+            if (!(value instanceof Map)) {
+                return null;
+            }
+            value = ((Map) value).get(key);
+        }
+        return value;
+    }
+
+    private static void removeValue(Map document, String path) {
+        int lastDot = path.lastIndexOf('.');
+        Object parent = value(document, path.substring(0, lastDot));
+        if (parent instanceof Map) {
+            ((Map) parent).remove(path.substring(lastDot + 1));
+        }
+    }
+
+    private static class IndexEntry {
+
+        private final String id;
+        private final Long version;
+        //The lower-cased values of the autocomplete fields, null if absent
+        private final String[] texts;
+        private final Set<String> grams = new HashSet<>();
+        //The MetaData as returned by the autocomplete, must not be modified
+        private final Map result;
+
+        private IndexEntry(String id, Long version, String[] texts, Map result) {
+            this.id = id;
+            this.version = version;
+            this.texts = texts;
+            this.result = result;
+            Arrays.stream(texts).filter(Objects::nonNull).forEach(text -> grams.addAll(grams(text)));
+        }
+
+        /*
+         * Zero if not all words match, otherwise the sum of the best match of every word weighted by the relevance of
+         * the field
+         */
+        private int score(List<String> words) {
+            int score = 0;
+            for (String word : words) {
+                int best = 0;
+                for (int i = 0; i < texts.length; i++) {
+                    int quality = texts[i] == null ? 0 : quality(texts[i], word);
+                    if (quality > 0) {
+                        best = Math.max(best, quality * texts.length * 2 + (texts.length - i));
+                    }
+                }
+                if (best == 0) {
+                    return 0;
+                }
+                score += best;
+            }
+            return score;
+        }
+    }
+}
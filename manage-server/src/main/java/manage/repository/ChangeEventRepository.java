@@ -0,0 +1,67 @@
+package manage.repository;
+
+import manage.model.ChangeEvent;
+import manage.model.MetaDataChangedEvent;
+import manage.mongo.Sequence;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+import java.util.List;
+
+@Repository
+public class ChangeEventRepository {
+
+    //The document in the sequences collection with the last cursor
+    static final String SEQUENCE_ID = "change_events";
+    private static final String SEQUENCES_COLLECTION = "sequences";
+
+    private final MongoTemplate mongoTemplate;
+    private final FindAndModifyOptions options = FindAndModifyOptions.options().returnNew(true).upsert(true);
+
+    @Autowired
+    public ChangeEventRepository(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    /*
+     * The created timestamp is the time the Mongo server handed out the cursor, so the settle window of the gaps does
+     * not depend on the clocks of the Manage instances
+     */
+    public ChangeEvent append(MetaDataChangedEvent event) {
+        Update updateInc = new Update().inc("value", 1L).currentDate("handedOut");
+        Document sequence = mongoTemplate.findAndModify(Query.query(Criteria.where("_id").is(SEQUENCE_ID)),
+                updateInc, options, Document.class, SEQUENCES_COLLECTION);
+        return mongoTemplate.insert(ChangeEvent.of(sequence.get("value", Number.class).longValue(), event,
+                sequence.getDate("handedOut").toInstant()));
+    }
+
+    public List<ChangeEvent> findAfter(long cursor, int limit) {
+        Query query = Query.query(Criteria.where("_id").gt(cursor))
+                .with(Sort.by(Sort.Direction.ASC, "_id"))
+                .limit(limit);
+        return mongoTemplate.find(query, ChangeEvent.class);
+    }
+
+    /*
+     * The last handed out cursor, the event itself might not be inserted yet
+     */
+    public long latestCursor() {
+        Sequence sequence = mongoTemplate.findById(SEQUENCE_ID, Sequence.class);
+        return sequence == null ? 0L : sequence.getValue();
+    }
+
+    /*
+     * The current time of the Mongo server, the clock of the created timestamps of the change events
+     */
+    public Instant serverTime() {
+        return mongoTemplate.executeCommand(new Document("isMaster", 1)).getDate("localTime").toInstant();
+    }
+}
@@ -0,0 +1,312 @@
+package manage.repository;
+
+import manage.model.ChangeEvent;
+import manage.model.MetaDataChangedEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * In-memory directory of the entityid's of all MetaData per collection, used for the uniqueness check of the
+ * entityid and the existence checks of the references to other MetaData.
+ * <p>
+ * The directory is updated on every change published by the MetaDataService. Before a lookup the directory is
+ * {@link #synchronize() synchronized}: the change events of other Manage instances are applied from the change_events
+ * outbox. To include changes made directly in the database the directory is rebuilt in the background every refresh
+ * interval.
+ */
+@Component
+public class EntityIdDirectory {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EntityIdDirectory.class);
+
+    private static final int CHANGE_EVENTS_BATCH_SIZE = 1000;
+
+    private final MetaDataRepository metaDataRepository;
+    private final ChangeEventRepository changeEventRepository;
+    private final boolean enabled;
+    private final ScheduledExecutorService scheduler;
+
+    private final Map<String, TypeDirectory> directories = new ConcurrentHashMap<>();
+    //Held by the thread reading the database, the monitor only guards the in-memory changes
+    private final ReentrantLock synchronizationLock = new ReentrantLock();
+    //The last change event applied to the directory
+    private long cursor;
+    private boolean started;
+
+    @Autowired
+    public EntityIdDirectory(MetaDataRepository metaDataRepository,
+                             ChangeEventRepository changeEventRepository,
+                             @Value("${entity_id_directory.enabled:true}") boolean enabled,
+                             @Value("${entity_id_directory.refresh_interval:60000}") long refreshIntervalMillis) {
+        this.metaDataRepository = metaDataRepository;
+        this.changeEventRepository = changeEventRepository;
+        this.enabled = enabled;
+        if (enabled && refreshIntervalMillis > 0) {
+            CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("entity-id-directory-");
+            threadFactory.setDaemon(true);
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+            this.scheduler.scheduleWithFixedDelay(this::refresh, refreshIntervalMillis, refreshIntervalMillis,
+                    TimeUnit.MILLISECONDS);
+        } else {
+            this.scheduler = null;
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Applies the changes of other Manage instances. The outbox is read outside the monitor, so the lookups and the
+     * local changes are not blocked by the database.
+     */
+    public void synchronize() {
+        synchronizationLock.lock();
+        try {
+            long latestCursor = changeEventRepository.latestCursor();
+            synchronized (this) {
+                if (!started) {
+                    //The directories are built from the database on first use
+                    cursor = latestCursor;
+                    started = true;
+                    return;
+                }
+            }
+            long after;
+            while ((after = cursor()) < latestCursor) {
+                List<ChangeEvent> changeEvents = changeEventRepository.findAfter(after, CHANGE_EVENTS_BATCH_SIZE);
+                boolean more = apply(after, changeEvents);
+                if (changeEvents.stream().anyMatch(changeEvent ->
+                        changeEvent.getOperation() == MetaDataChangedEvent.Operation.RESYNC)) {
+                    //Changes are missing in the outbox
+                    if (scheduler == null) {
+                        rebuild();
+                    } else {
+                        scheduler.execute(this::refresh);
+                    }
+                    return;
+                }
+                if (!more) {
+                    return;
+                }
+            }
+        } finally {
+            synchronizationLock.unlock();
+        }
+    }
+
+    /**
+     * The ids of the MetaData in the collection with the entityid ignoring case
+     */
+    public List<String> findIds(String type, String entityId) {
+        if (entityId == null) {
+            return new ArrayList<>();
+        }
+        Set<String> ids = directory(type).ids.get(normalize(entityId));
+        return ids == null ? new ArrayList<>() : new ArrayList<>(ids);
+    }
+
+    /**
+     * Whether there is MetaData in the collection with exactly this entityid
+     */
+    public boolean exists(String type, String entityId) {
+        if (entityId == null) {
+            return false;
+        }
+        TypeDirectory directory = directory(type);
+        Set<String> ids = directory.ids.get(normalize(entityId));
+        return ids != null && ids.stream().anyMatch(id -> entityId.equals(directory.entityIds.get(id)));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    @EventListener
+    public void onMetaDataChanged(MetaDataChangedEvent event) {
+        if (!enabled) {
+            return;
+        }
+        synchronized (this) {
+            apply(event.getOperation(), event.getType(), event.getId(), event.getEntityId());
+        }
+    }
+
+    /**
+     * Compares the directory with the database and rebuilds the directory if it is inconsistent
+     */
+    public Map<String, Object> verify() {
+        synchronize();
+        Map<String, Object> result = new HashMap<>();
+        boolean consistent = true;
+        for (String type : new ArrayList<>(directories.keySet())) {
+            Map<String, String> expected = metaDataRepository.entityIds(type);
+            Map<String, String> actual = new HashMap<>(directories.get(type).entityIds);
+            List<String> missing = expected.keySet().stream().filter(id -> !actual.containsKey(id)).collect(toList());
+            List<String> unexpected = actual.keySet().stream().filter(id -> !expected.containsKey(id)).collect(toList());
+            List<String> different = expected.keySet().stream()
+                    .filter(id -> actual.containsKey(id) && !Objects.equals(actual.get(id), expected.get(id)))
+                    .collect(toList());
+            consistent = consistent && missing.isEmpty() && unexpected.isEmpty() && different.isEmpty();
+            Map<String, Object> typeResult = new HashMap<>();
+            typeResult.put("entities", expected.size());
+            typeResult.put("missing", missing);
+            typeResult.put("unexpected", unexpected);
+            typeResult.put("different", different);
+            result.put(type, typeResult);
+        }
+        result.put("consistent", consistent);
+        if (!consistent) {
+            LOG.warn("EntityId directory is inconsistent, rebuilding the directory: {}", result);
+            rebuild();
+        }
+        return result;
+    }
+
+    private TypeDirectory directory(String type) {
+        TypeDirectory directory = directories.get(type);
+        if (directory != null) {
+            return directory;
+        }
+        synchronizationLock.lock();
+        try {
+            directory = directories.get(type);
+            if (directory != null) {
+                return directory;
+            }
+            //Changes after the cursor are applied again by the next synchronization
+            long buildCursor = changeEventRepository.latestCursor();
+            TypeDirectory built = new TypeDirectory(metaDataRepository.entityIds(type));
+            synchronized (this) {
+                cursor = Math.min(cursor, buildCursor);
+                directories.put(type, built);
+            }
+            return built;
+        } finally {
+            synchronizationLock.unlock();
+        }
+    }
+
+    private synchronized long cursor() {
+        return cursor;
+    }
+
+    /**
+     * Applies the change events read after the cursor, returns whether more change events can be read
+     */
+    private synchronized boolean apply(long after, List<ChangeEvent> changeEvents) {
+        if (cursor != after) {
+            //Rebuilt concurrently, the next synchronization continues from the rebuilt cursor
+            return false;
+        }
+        boolean contiguous = true;
+        for (ChangeEvent changeEvent : changeEvents) {
+            if (changeEvent.getOperation() == MetaDataChangedEvent.Operation.RESYNC) {
+                cursor = changeEvent.getCursor();
+                return false;
+            }
+            apply(changeEvent.getOperation(), changeEvent.getType(), changeEvent.getMetaDataId(),
+                    changeEvent.getEntityId());
+            //An event that is not inserted yet is applied after the gap is closed or by the next rebuild
+            contiguous = contiguous && changeEvent.getCursor() == cursor + 1;
+            if (contiguous) {
+                cursor = changeEvent.getCursor();
+            }
+        }
+        return contiguous && changeEvents.size() == CHANGE_EVENTS_BATCH_SIZE;
+    }
+
+    private void refresh() {
+        try {
+            rebuild();
+        } catch (RuntimeException e) {
+            LOG.warn("Failed to rebuild the entityId directory", e);
+        }
+    }
+
+    /**
+     * Rebuilds the directory from the database to include the changes made directly in the database
+     */
+    public void rebuild() {
+        //Changes after the cursor are applied again by the next synchronization
+        long rebuildCursor = changeEventRepository.latestCursor();
+        //The database is read without blocking the lookups
+        Map<String, TypeDirectory> rebuilt = new HashMap<>();
+        directories.keySet().forEach(type -> rebuilt.put(type, new TypeDirectory(metaDataRepository.entityIds(type))));
+        synchronized (this) {
+            directories.putAll(rebuilt);
+            cursor = rebuildCursor;
+            started = true;
+        }
+    }
+
+    private void apply(MetaDataChangedEvent.Operation operation, String type, String id, String entityId) {
+        TypeDirectory directory = directories.get(type);
+        if (directory == null) {
+            return;
+        }
+        switch (operation) {
+            case DELETE_ALL:
+                directories.put(type, new TypeDirectory(Collections.emptyMap()));
+                break;
+            case DELETE:
+                directory.remove(id);
+                break;
+            default:
+                directory.put(id, entityId);
+        }
+    }
+
+    private static String normalize(String entityId) {
+        return entityId == null ? null : entityId.toLowerCase(Locale.ROOT);
+    }
+
+    private static class TypeDirectory {
+
+        private final Map<String, String> entityIds = new ConcurrentHashMap<>();
+        //The ids per lower-cased entityid
+        private final Map<String, Set<String>> ids = new ConcurrentHashMap<>();
+
+        private TypeDirectory(Map<String, String> entityIds) {
+            entityIds.forEach(this::put);
+        }
+
+        private void put(String id, String entityId) {
+            remove(id);
+            if (entityId == null) {
+                return;
+            }
+            entityIds.put(id, entityId);
+            ids.computeIfAbsent(normalize(entityId), key -> ConcurrentHashMap.newKeySet()).add(id);
+        }
+
+        private void remove(String id) {
+            String previous = entityIds.remove(id);
+            if (previous == null) {
+                return;
+            }
+            ids.computeIfPresent(normalize(previous), (key, value) -> {
+                value.remove(id);
+                return value.isEmpty() ? null : value;
+            });
+        }
+    }
+}
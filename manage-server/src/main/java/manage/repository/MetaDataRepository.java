@@ -1,5 +1,9 @@
 package manage.repository;
 
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.result.UpdateResult;
+import manage.exception.InvalidSearchException;
 import manage.model.EntityType;
 import manage.model.MetaData;
 import manage.model.MetaDataChangeRequest;
@@ -9,21 +13,27 @@ import org.bson.Document;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
 import org.springframework.data.mongodb.core.FindAndModifyOptions;
 import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
 import org.springframework.data.mongodb.core.query.*;
+import org.springframework.data.util.CloseableIterator;
 import org.springframework.stereotype.Repository;
 import org.springframework.util.CollectionUtils;
 import org.springframework.util.StringUtils;
 
 import java.time.Instant;
 import java.util.*;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Stream;
 
 import static java.util.Collections.emptyList;
 import static java.util.Collections.emptyMap;
 import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toSet;
 import static manage.mongo.MongoChangelog.CHANGE_REQUEST_POSTFIX;
 import static manage.mongo.MongoChangelog.REVISION_POSTFIX;
 
@@ -34,18 +44,40 @@ import static manage.mongo.MongoChangelog.REVISION_POSTFIX;
 @Repository
 public class MetaDataRepository {
 
-    private static final int AUTOCOMPLETE_LIMIT = 16;
+    static final int AUTOCOMPLETE_LIMIT = 16;
+
+    public static final int CHANGE_REQUESTS_PAGE_LIMIT = 500;
+
+    public static final int SEARCH_PAGE_LIMIT = 1000;
 
     private final MongoTemplate mongoTemplate;
     private final List<String> supportedLanguages;
+    private final long changeRequestsCountTtlMillis;
+    private final long statsTtlMillis;
 
     private final FindAndModifyOptions options = FindAndModifyOptions.options().returnNew(true);
 
+    //Cached number of open change requests, -1 if not counted since the last change
+    private long openChangeRequests = -1;
+    private long openChangeRequestsCounted;
+    private long changeRequestsGeneration;
+
+    private volatile List<StatsEntry> stats;
+    private volatile long statsCollected;
+
+    public MetaDataRepository(MongoTemplate mongoTemplate, String supportedLanguages) {
+        this(mongoTemplate, supportedLanguages, 0, 0);
+    }
+
     @Autowired
     public MetaDataRepository(MongoTemplate mongoTemplate,
-                              @Value("${product.supported_languages}") String supportedLanguages) {
+                              @Value("${product.supported_languages}") String supportedLanguages,
+                              @Value("${change_requests.count_ttl:5000}") long changeRequestsCountTtlMillis,
+                              @Value("${stats.cache_ttl:30000}") long statsTtlMillis) {
         this.mongoTemplate = mongoTemplate;
         this.supportedLanguages = Stream.of(supportedLanguages.split(",")).map(String::trim).collect(toList());
+        this.changeRequestsCountTtlMillis = changeRequestsCountTtlMillis;
+        this.statsTtlMillis = statsTtlMillis;
     }
 
     public MetaData findById(String id, String type) {
@@ -63,7 +95,22 @@ public class MetaDataRepository {
     }
 
     public MetaDataChangeRequest save(MetaDataChangeRequest metaDataChangeRequest) {
-        return mongoTemplate.insert(metaDataChangeRequest, metaDataChangeRequest.getType().concat(CHANGE_REQUEST_POSTFIX));
+        MetaDataChangeRequest saved = mongoTemplate.insert(metaDataChangeRequest,
+                metaDataChangeRequest.getType().concat(CHANGE_REQUEST_POSTFIX));
+        changeRequestsChanged();
+        return saved;
+    }
+
+    public void removeChangeRequest(MetaDataChangeRequest metaDataChangeRequest, String collectionName) {
+        mongoTemplate.remove(metaDataChangeRequest, collectionName);
+        changeRequestsChanged();
+    }
+
+    public List<MetaDataChangeRequest> removeChangeRequests(String metaDataId, String collectionName) {
+        Query query = Query.query(Criteria.where("metaDataId").is(metaDataId));
+        List<MetaDataChangeRequest> removed = mongoTemplate.findAllAndRemove(query, MetaDataChangeRequest.class, collectionName);
+        changeRequestsChanged();
+        return removed;
     }
 
     public void remove(MetaData metaData) {
@@ -88,13 +135,101 @@ public class MetaDataRepository {
         return results;
     }
 
+    /**
+     * The number of open change requests. The collections are counted one after another with the collection metadata
+     * and the total is cached for the TTL or until a change request is created or removed by this instance.
+     */
     public long openChangeRequests() {
-        AtomicLong count = new AtomicLong(0);
-        Query query = new Query();
+        long generation;
+        synchronized (this) {
+            if (openChangeRequests >= 0 && System.currentTimeMillis() - openChangeRequestsCounted < changeRequestsCountTtlMillis) {
+                return openChangeRequests;
+            }
+            generation = changeRequestsGeneration;
+        }
+        long count = Stream.of(EntityType.values())
+                .mapToLong(entityType -> mongoTemplate.estimatedCount(entityType.getType().concat(CHANGE_REQUEST_POSTFIX)))
+                .sum();
+        synchronized (this) {
+            //A change during the counting invalidates the count
+            if (generation == changeRequestsGeneration) {
+                openChangeRequests = count;
+                openChangeRequestsCounted = System.currentTimeMillis();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * A page of all change requests, newest first, without the path updates. The result contains one more change request
+     * than the size if there are more pages. The size is at most {@link #CHANGE_REQUESTS_PAGE_LIMIT}.
+     */
+    public List<MetaDataChangeRequest> changeRequestsOverview(int page, int size, String state) {
+        if (page < 0 || size < 1) {
+            throw new InvalidSearchException(String.format("Invalid page %s or size %s", page, size));
+        }
+        size = Math.min(size, CHANGE_REQUESTS_PAGE_LIMIT);
+        long limit = (page + 1L) * size + 1;
+        Document match = StringUtils.hasText(state) ? new Document("metaDataSummary.state", state) : new Document();
+        Document projection = new Document("pathUpdates", 0);
+        List<Document> pipeline = new ArrayList<>();
         Stream.of(EntityType.values()).forEach(entityType -> {
-            count.addAndGet(mongoTemplate.count(query, entityType.getType().concat(CHANGE_REQUEST_POSTFIX)));
+            List<Document> changeRequests = List.of(
+                    new Document("$match", match),
+                    new Document("$sort", new Document("created", -1)),
+                    new Document("$limit", limit),
+                    new Document("$project", projection));
+            if (pipeline.isEmpty()) {
+                pipeline.addAll(changeRequests);
+            } else {
+                pipeline.add(unionWith(entityType.getType().concat(CHANGE_REQUEST_POSTFIX), changeRequests));
+            }
         });
-        return count.get();
+        pipeline.add(new Document("$sort", new Document("created", -1).append("_id", -1)));
+        pipeline.add(new Document("$skip", (long) page * size));
+        pipeline.add(new Document("$limit", size + 1));
+        return mongoTemplate.aggregate(aggregation(pipeline), EntityType.values()[0].getType().concat(CHANGE_REQUEST_POSTFIX),
+                MetaDataChangeRequest.class).getMappedResults();
+    }
+
+    private synchronized void changeRequestsChanged() {
+        openChangeRequests = -1;
+        changeRequestsGeneration++;
+    }
+
+    /**
+     * The version per id of all MetaData in the collection of the type, read with a projection on the version
+     */
+    public Map<String, Long> versions(String type) {
+        Query query = new Query();
+        query.fields().include("version");
+        Map<String, Long> versions = new HashMap<>();
+        try (CloseableIterator<Document> iterator = mongoTemplate.stream(query, Document.class, type)) {
+            iterator.forEachRemaining(document -> {
+                Object version = document.get("version");
+                versions.put(document.get("_id").toString(), version == null ? null : ((Number) version).longValue());
+            });
+        }
+        return versions;
+    }
+
+    /**
+     * The entityid per id of all MetaData with an entityid in the collection of the type, read with a projection on
+     * the entityid
+     */
+    public Map<String, String> entityIds(String type) {
+        Query query = new Query();
+        query.fields().include("data.entityid");
+        Map<String, String> entityIds = new HashMap<>();
+        try (CloseableIterator<Document> iterator = mongoTemplate.stream(query, Document.class, type)) {
+            iterator.forEachRemaining(document -> {
+                Document data = document.get("data", Document.class);
+                if (data != null && data.getString("entityid") != null) {
+                    entityIds.put(document.get("_id").toString(), data.getString("entityid"));
+                }
+            });
+        }
+        return entityIds;
     }
 
     public void update(MetaData metaData) {
@@ -102,6 +237,48 @@ public class MetaDataRepository {
         mongoTemplate.save(metaData, metaData.getType());
     }
 
+    /**
+     * Inserts the revisions with one unordered bulk write and then replaces the latest versions of the MetaData in the
+     * collection of the type. The revisions and the latest versions are paired by index. A replace matches on the id
+     * and the version read, same as the optimistic locking of {@link #update(MetaData)}, so MetaData changed or
+     * deleted since it was read is not replaced and its revision is removed again. Returns the replaced MetaData.
+     * <p>
+     * The revisions are written first, so a failure can never leave a replaced MetaData without its revision.
+     */
+    public List<MetaData> reviseAll(String type, List<MetaData> revisions, List<MetaData> latest) {
+        if (latest.isEmpty()) {
+            return new ArrayList<>();
+        }
+        revisions.forEach(MetaData::trimSpaces);
+        mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, MetaData.class, type.concat(REVISION_POSTFIX))
+                .insert(revisions)
+                .execute();
+        MongoCollection<Document> collection = mongoTemplate.getCollection(type);
+        List<MetaData> replaced = new ArrayList<>();
+        List<String> conflictingRevisions = new ArrayList<>();
+        for (int i = 0; i < latest.size(); i++) {
+            MetaData metaData = latest.get(i);
+            Long version = metaData.getVersion();
+            metaData.trimSpaces();
+            metaData.setVersion(version == null ? 0L : version + 1);
+            Document document = new Document();
+            mongoTemplate.getConverter().write(metaData, document);
+            //The matched count per replace tells which MetaData was changed or deleted concurrently
+            UpdateResult result = collection.replaceOne(
+                    Filters.and(Filters.eq("_id", document.get("_id")), Filters.eq("version", version)), document);
+            if (result.getMatchedCount() == 0) {
+                metaData.setVersion(version);
+                conflictingRevisions.add(revisions.get(i).getId());
+            } else {
+                replaced.add(metaData);
+            }
+        }
+        if (!conflictingRevisions.isEmpty()) {
+            mongoTemplate.remove(Query.query(Criteria.where("_id").in(conflictingRevisions)), type.concat(REVISION_POSTFIX));
+        }
+        return replaced;
+    }
+
     public MongoTemplate getMongoTemplate() {
         return mongoTemplate;
     }
@@ -116,26 +293,40 @@ public class MetaDataRepository {
         Criteria criteria = new Criteria();
 
         List<String> parts = Arrays.asList(escapedSearch.split(" "));
+        List<String> autoCompleteFields = autoCompleteFields(type);
         criteria.andOperator(parts.stream().map(part -> {
-            List<Criteria> orCriterias = new ArrayList<>();
-            orCriterias.add(regex("data.entityid", part));
-            if (EntityType.PDP.getType().equals(type)) {
-                orCriterias.add(regex("data.name", part));
-                orCriterias.add(regex("data.description", part));
-            } else {
-                this.supportedLanguages.forEach(lang -> {
-                    orCriterias.add(regex("data.metaDataFields.name:" + lang, part));
-                    orCriterias.add(regex("data.metaDataFields.displayName:" + lang, part));
-                    orCriterias.add(regex("data.metaDataFields.keywords:" + lang, part));
-                    orCriterias.add(regex("data.metaDataFields.OrganizationName:" + lang, part));
-                });
-            }
+            List<Criteria> orCriterias = autoCompleteFields.stream()
+                    .map(field -> regex(field, part))
+                    .collect(toList());
             return new Criteria().orOperator(orCriterias.toArray(new Criteria[orCriterias.size()]));
         }).toArray(Criteria[]::new));
         query.addCriteria(criteria);
         return mongoTemplate.find(query, Map.class, type);
     }
 
+    /*
+     * The fields matched by the autocomplete, ordered by relevance
+     */
+    List<String> autoCompleteFields(String type) {
+        List<String> fields = new ArrayList<>();
+        if (EntityType.PDP.getType().equals(type)) {
+            fields.add("data.name");
+            fields.add("data.entityid");
+            fields.add("data.description");
+        } else {
+            this.supportedLanguages.forEach(lang -> {
+                fields.add("data.metaDataFields.name:" + lang);
+                fields.add("data.metaDataFields.displayName:" + lang);
+            });
+            fields.add("data.entityid");
+            this.supportedLanguages.forEach(lang -> {
+                fields.add("data.metaDataFields.OrganizationName:" + lang);
+                fields.add("data.metaDataFields.keywords:" + lang);
+            });
+        }
+        return fields;
+    }
+
     public List<Map> allServiceProviderEntityIds() {
         Query query = new Query();
         query
@@ -147,9 +338,23 @@ public class MetaDataRepository {
         return mongoTemplate.find(query, Map.class, EntityType.SP.getType());
     }
 
-    public long deleteAllImportedServiceProviders() {
+    /**
+     * Deletes the service providers imported from eduGain and returns the entityid's of the deleted service providers
+     * per id
+     */
+    public Map<String, String> deleteAllImportedServiceProviders() {
         Query query = new Query(Criteria.where("data.metaDataFields.coin:imported_from_edugain").is(true));
-        return mongoTemplate.remove(query, EntityType.SP.getType()).getDeletedCount();
+        query.fields().include("data.entityid");
+        Map<String, String> entityIds = new HashMap<>();
+        mongoTemplate.find(query, Document.class, EntityType.SP.getType()).forEach(document -> {
+            Document data = document.get("data", Document.class);
+            entityIds.put(document.get("_id").toString(), data == null ? null : data.getString("entityid"));
+        });
+        if (!entityIds.isEmpty()) {
+            //Service providers imported after the find are deleted by the next delete of the feed
+            mongoTemplate.remove(Query.query(Criteria.where("_id").in(entityIds.keySet())), EntityType.SP.getType());
+        }
+        return entityIds;
     }
 
     public long countAllImportedServiceProviders() {
@@ -158,7 +363,7 @@ public class MetaDataRepository {
     }
 
 
-    protected String escapeSpecialChars(String query) {
+    protected static String escapeSpecialChars(String query) {
         return query.replaceAll("([\\Q\\/$^.?*+{}()|[]\\E])", "\\\\$1");
     }
 
@@ -185,57 +390,244 @@ public class MetaDataRepository {
     }
 
     public List<Map> search(String type, Map<String, Object> properties, List<String> requestedAttributes, Boolean
-            allAttributes, Boolean logicalOperatorIsAnd) {
+            allAttributes, Boolean logicalOperatorIsAnd, String textSearch) {
+        return mongoTemplate.find(searchPlan(type, properties, requestedAttributes, allAttributes, logicalOperatorIsAnd,
+                textSearch).query, Map.class, type);
+    }
+
+    /**
+     * A page of the search ordered on the _id. The next page starts after the _id of the last result and the limit
+     * is at most {@link #SEARCH_PAGE_LIMIT}.
+     */
+    public List<Map> search(String type, Map<String, Object> properties, List<String> requestedAttributes,
+                            Boolean allAttributes, Boolean logicalOperatorIsAnd, String textSearch, String after,
+                            int limit) {
+        Query query = searchPlan(type, properties, requestedAttributes, allAttributes, logicalOperatorIsAnd,
+                textSearch).query;
+        return mongoTemplate.find(keyset(query, after, limit), Map.class, type);
+    }
+
+    /**
+     * Same as {@link #search(String, Map, List, Boolean, Boolean, String, String, int)}, but the results are read from
+     * the cursor when iterated instead of all at once. The iterator must be closed.
+     */
+    public CloseableIterator<Map> streamSearch(String type, Map<String, Object> properties, List<String> requestedAttributes,
+                                               Boolean allAttributes, Boolean logicalOperatorIsAnd, String textSearch,
+                                               String after, int limit) {
+        Query query = searchPlan(type, properties, requestedAttributes, allAttributes, logicalOperatorIsAnd,
+                textSearch).query;
+        return mongoTemplate.stream(keyset(query, after, limit), Map.class, type);
+    }
+
+    /**
+     * The strategy chosen for every property of the search together with the winning plan and execution statistics
+     * of Mongo, so API users can see whether their search is able to use an index.
+     */
+    public Map<String, Object> explainSearch(String type, Map<String, Object> properties, List<String> requestedAttributes,
+                                             Boolean allAttributes, Boolean logicalOperatorIsAnd, String textSearch) {
+        SearchPlan searchPlan = searchPlan(type, properties, requestedAttributes, allAttributes, logicalOperatorIsAnd,
+                textSearch);
+        Query query = searchPlan.query;
+        Document find = new Document("find", type)
+                .append("filter", query.getQueryObject())
+                .append("projection", query.getFieldsObject());
+        query.getCollation().ifPresent(collation -> find.append("collation", collation.toDocument()));
+        Document explain = mongoTemplate.executeCommand(new Document("explain", find).append("verbosity", "executionStats"));
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("plan", searchPlan.steps);
+        result.put("collation", query.getCollation().isPresent());
+        result.put("filter", query.getQueryObject());
+        Document queryPlanner = explain.get("queryPlanner", new Document());
+        Document winningPlan = queryPlanner.get("winningPlan", new Document());
+        result.put("winningPlan", winningPlan);
+        Set<String> indexesUsed = new LinkedHashSet<>();
+        collectIndexNames(winningPlan, indexesUsed);
+        result.put("indexesUsed", indexesUsed);
+        Document executionStats = explain.get("executionStats", new Document());
+        Stream.of("nReturned", "totalKeysExamined", "totalDocsExamined", "executionTimeMillis")
+                .forEach(key -> result.put(key, executionStats.get(key)));
+        return result;
+    }
+
+    private void collectIndexNames(Document stage, Set<String> indexNames) {
+        if (stage.containsKey("indexName")) {
+            indexNames.add(stage.getString("indexName"));
+        }
+        Object inputStage = stage.get("inputStage");
+        if (inputStage instanceof Document) {
+            collectIndexNames((Document) inputStage, indexNames);
+        }
+        Object inputStages = stage.get("inputStages");
+        if (inputStages instanceof List) {
+            ((List<?>) inputStages).stream()
+                    .filter(Document.class::isInstance)
+                    .forEach(input -> collectIndexNames((Document) input, indexNames));
+        }
+    }
+
+    private Query keyset(Query query, String after, int limit) {
+        if (limit < 1) {
+            throw new InvalidSearchException(String.format("Invalid limit %s", limit));
+        }
+        if (StringUtils.hasText(after)) {
+            query.addCriteria(Criteria.where("_id").gt(after));
+        }
+        return query.with(Sort.by(Sort.Direction.ASC, "_id")).limit(Math.min(limit, SEARCH_PAGE_LIMIT));
+    }
+
+    /*
+     * Translates the search properties to a query that is able to use the indexes where possible:
+     * "*" is translated to $exists, "prefix*" to a range on the case-insensitive entityid index or to an anchored
+     * regular expression on other fields and the text search to the text index. Other values with a wildcard are
+     * still unanchored regular expressions, which always result in a collection scan.
+     */
+    SearchPlan searchPlan(String type, Map<String, Object> properties, List<String> requestedAttributes, Boolean
+            allAttributes, Boolean logicalOperatorIsAnd, String textSearch) {
+        boolean revision = type.contains("revision");
+        boolean hasTextSearch = StringUtils.hasText(textSearch);
+        if (hasTextSearch && revision) {
+            throw new InvalidSearchException(String.format("Text search is not supported for %s", type));
+        }
         Query query = allAttributes ? new Query() : queryWithSamlFields(EntityType.fromType(type.replaceAll("_revision", "")));
         if (!allAttributes) {
             requestedAttributes.forEach(requestedAttribute -> {
                 String key = escapeMetaDataField(requestedAttribute);
                 query.fields().include("data.".concat(key));
             });
-            if (type.contains("revision")) {
+            if (revision) {
                 query.fields().include("revision").include("data.revisionnote");
             }
         }
-        List<CriteriaDefinition> criteriaDefinitions = new ArrayList<>();
+        Map<String, SearchStrategy> strategies = new LinkedHashMap<>();
+        properties.forEach((key, value) -> strategies.put(key, SearchStrategy.of(escapeMetaDataField(key), value)));
+        //The collation of the entityid index makes all string comparisons of the query case-insensitive
+        boolean collation = !hasTextSearch && strategies.values().contains(SearchStrategy.PREFIX_RANGE) &&
+                properties.entrySet().stream().noneMatch(entry -> comparesStrings(strategies.get(entry.getKey()), entry.getValue()));
 
+        List<CriteriaDefinition> criteriaDefinitions = new ArrayList<>();
+        List<Map<String, Object>> steps = new ArrayList<>();
         properties.forEach((key, value) -> {
-            key = escapeMetaDataField(key);
-
-            if (value instanceof Boolean && (Boolean) value && key.contains("attributes")) {
-                criteriaDefinitions.add(Criteria.where("data.".concat(key)).exists(true));
-            } else if (value instanceof String && !StringUtils.hasText((String) value)) {
-                criteriaDefinitions.add(Criteria.where("data.".concat(key)).exists(false));
-            } else if (value instanceof String && StringUtils.hasText((String) value) &&
-                    ("true".equalsIgnoreCase((String) value) || "false".equalsIgnoreCase((String) value))) {
-                criteriaDefinitions.add(Criteria.where("data.".concat(key)).is(Boolean.parseBoolean((String) value)));
-            } else if (value instanceof String && StringUtils.hasText((String) value) && isNumeric((String) value)) {
-                criteriaDefinitions.add(Criteria.where("data.".concat(key)).is(Integer.parseInt((String) value)));
-            } else if ("*".equals(value)) {
-                criteriaDefinitions.add(Criteria.where("data.".concat(key)).regex(".*", "i"));
-            } else if (value instanceof String && ((String) value).contains("*")) {
-                String queryString = (String) value;
-                criteriaDefinitions.add(Criteria.where("data.".concat(key)).regex(queryString, "i"));
-            } else if (value instanceof List && !((List) value).isEmpty()) {
-                List l = (List) value;
-                criteriaDefinitions.add(Criteria.where("data.".concat(key)).in(l));
-            } else {
-                criteriaDefinitions.add(Criteria.where("data.".concat(key)).is(value));
+            String field = "data.".concat(escapeMetaDataField(key));
+            SearchStrategy strategy = strategies.get(key);
+            if (strategy == SearchStrategy.PREFIX_RANGE && !collation) {
+                strategy = SearchStrategy.PREFIX_REGEX;
             }
+            criteriaDefinitions.add(strategy.criteria(field, value));
+            Map<String, Object> step = new LinkedHashMap<>();
+            step.put("property", key);
+            step.put("strategy", strategy.name().toLowerCase());
+            steps.add(step);
         });
-        if (criteriaDefinitions.isEmpty()) {
+        if (hasTextSearch) {
+            query.addCriteria(TextCriteria.forDefaultLanguage().matching(textSearch));
+            Map<String, Object> step = new LinkedHashMap<>();
+            step.put("property", "$text");
+            step.put("strategy", "text");
+            steps.add(step);
+        }
+        if (criteriaDefinitions.isEmpty() && !hasTextSearch) {
             criteriaDefinitions.add(Criteria.where("data").exists(true));
         }
-        Criteria[] criteria = criteriaDefinitions.toArray(new Criteria[]{});
-        if (logicalOperatorIsAnd) {
-            query.addCriteria(new Criteria().andOperator(criteria));
-        } else {
-            query.addCriteria(new Criteria().orOperator(criteria));
+        if (!criteriaDefinitions.isEmpty()) {
+            Criteria[] criteria = criteriaDefinitions.toArray(new Criteria[]{});
+            if (logicalOperatorIsAnd) {
+                query.addCriteria(new Criteria().andOperator(criteria));
+            } else {
+                query.addCriteria(new Criteria().orOperator(criteria));
+            }
+        }
+        if (collation) {
+            query.collation(Collation.of("en").strength(2));
+        }
+        return new SearchPlan(query, steps);
+    }
+
+    private static boolean comparesStrings(SearchStrategy strategy, Object value) {
+        if (strategy == SearchStrategy.EQUALS) {
+            return SearchStrategy.equalsValue(value) instanceof String;
+        }
+        return strategy == SearchStrategy.IN && ((List<?>) value).stream().anyMatch(String.class::isInstance);
+    }
+
+    static class SearchPlan {
+
+        final Query query;
+        final List<Map<String, Object>> steps;
+
+        private SearchPlan(Query query, List<Map<String, Object>> steps) {
+            this.query = query;
+            this.steps = steps;
         }
-        return mongoTemplate.find(query, Map.class, type);
     }
 
-    private boolean isNumeric(String value) {
-        return value.matches("\\d+");
+    private enum SearchStrategy {
+
+        EXISTS, NOT_EXISTS, EQUALS, IN, PREFIX_RANGE, PREFIX_REGEX, REGEX;
+
+        //A wildcard only at the end, optionally written as the regular expression ".*"
+        private static final Pattern PREFIX = Pattern.compile("([^*\\\\^$|?+()\\[\\]{}]+?)\\.?\\*");
+
+        private static SearchStrategy of(String key, Object value) {
+            if (value instanceof Boolean && (Boolean) value && key.contains("attributes")) {
+                return EXISTS;
+            }
+            if (value instanceof String) {
+                String s = (String) value;
+                if (!StringUtils.hasText(s)) {
+                    return NOT_EXISTS;
+                }
+                if ("*".equals(s) || ".*".equals(s)) {
+                    return EXISTS;
+                }
+                if (PREFIX.matcher(s).matches()) {
+                    return "entityid".equals(key) ? PREFIX_RANGE : PREFIX_REGEX;
+                }
+                if (s.contains("*")) {
+                    return REGEX;
+                }
+                return EQUALS;
+            }
+            return value instanceof List && !((List) value).isEmpty() ? IN : EQUALS;
+        }
+
+        private CriteriaDefinition criteria(String field, Object value) {
+            switch (this) {
+                case EXISTS:
+                    return Criteria.where(field).exists(true);
+                case NOT_EXISTS:
+                    return Criteria.where(field).exists(false);
+                case IN:
+                    return Criteria.where(field).in((List) value);
+                case PREFIX_RANGE:
+                    String prefix = prefix((String) value);
+                    //U+FFFF has the highest primary weight in the collation and sorts after every continuation
+                    return Criteria.where(field).gte(prefix).lt(prefix + "\uFFFF");
+                case PREFIX_REGEX:
+                    return Criteria.where(field).regex("^" + escapeSpecialChars(prefix((String) value)), "i");
+                case REGEX:
+                    return Criteria.where(field).regex((String) value, "i");
+                default:
+                    return Criteria.where(field).is(equalsValue(value));
+            }
+        }
+
+        private static String prefix(String value) {
+            Matcher matcher = PREFIX.matcher(value);
+            matcher.matches();
+            return matcher.group(1);
+        }
+
+        private static Object equalsValue(Object value) {
+            if (!(value instanceof String)) {
+                return value;
+            }
+            String s = (String) value;
+            if ("true".equalsIgnoreCase(s) || "false".equalsIgnoreCase(s)) {
+                return Boolean.parseBoolean(s);
+            }
+            return s.matches("\\d+") ? Integer.parseInt(s) : s;
+        }
     }
 
     public List<MetaData> findRaw(String type, String query) {
@@ -249,54 +641,90 @@ public class MetaDataRepository {
         return mongoTemplate.find(query, Map.class, type);
     }
 
-    public List<MetaData> recentActivity(List<EntityType> types, int max) {
-        max = Math.min(max, 100);
-        Query query = new Query()
-                .with(Sort.by(Sort.Order.desc("revision.created")))
-                .limit(max);
-        Field fields = query.fields();
-        fields
-                .include("type")
-                .include("data.state")
-                .include("data.entityid")
-                .include("data.name")
-                .include("data.metaDataFields.name:en")
-                .include("data.metaDataFields.OrganizationName:en")
-                .include("data.metaDataFields.OrganizationName:en")
-                .include("data.revisionnote")
-                .include("revision.created")
-                .include("revision.terminated")
-                .include("revision.updatedBy");
-
-        List<MetaData> metaData = types.stream()
-                .map(entityType -> mongoTemplate.find(query, MetaData.class, entityType.getType()))
-                .flatMap(List::stream)
-                .collect(toList());
-        List<MetaData> results = metaData.stream()
-                .sorted(Comparator.comparing(md -> md.getRevision().getCreated(), Comparator.reverseOrder()))
-                .collect(toList()).subList(0, Math.min(max, metaData.size()));
-
-        Instant firstActivity = results.get(results.size() - 1).getRevision().getCreated();
-        query.addCriteria(Criteria.where("revision.terminated").gte(firstActivity));
-        List<MetaData> revisionMetaData = types.stream()
-                .map(entityType -> mongoTemplate.find(query, MetaData.class, entityType.getType().concat(REVISION_POSTFIX)))
-                .flatMap(List::stream)
-                .map(this::updateCreatedRevision)
-                .collect(toList());
-        results.addAll(revisionMetaData);
-        if (!revisionMetaData.isEmpty()) {
-            //need to re-sort and cut off again
-            results = results.stream()
-                    .sorted(Comparator.comparing(md -> md.getRevision().getCreated(), Comparator.reverseOrder()))
-                    .collect(toList()).subList(0, Math.min(max, metaData.size()));
+    /**
+     * The entityid's of the MetaData in the collection that are exactly equal to one of the given entityid's
+     */
+    public Set<String> findExistingEntityIds(String type, Set<String> entityIds) {
+        if (entityIds.isEmpty()) {
+            return new HashSet<>();
+        }
+        //The collation matches the unique entityid index, the case-insensitive matches are filtered out afterwards
+        Query query = new Query(Criteria.where("data.entityid").in(entityIds)).collation(Collation.of("en").strength(2));
+        query.fields().include("data.entityid");
+        Set<String> existing = new HashSet<>();
+        try (CloseableIterator<Document> iterator = mongoTemplate.stream(query, Document.class, type)) {
+            iterator.forEachRemaining(document -> {
+                Document data = document.get("data", Document.class);
+                String entityId = data == null ? null : data.getString("entityid");
+                if (entityIds.contains(entityId)) {
+                    existing.add(entityId);
+                }
+            });
+        }
+        return existing;
+    }
+
+    /**
+     * The latest changes and deletions of the MetaData of the types, newest first. The live and the revision
+     * collections are merged in one aggregation, each sub-pipeline sorted on the indexed revision timestamp and id and
+     * limited, so MetaData with equal timestamps are cut off the same way in every page. For the next page pass the revision.created and the id of the last result as before and beforeId.
+     */
+    public List<MetaData> recentActivity(List<EntityType> types, int max, Instant before, String beforeId) {
+        int limit = Math.max(1, Math.min(max, 100));
+        if (types.isEmpty()) {
+            return new ArrayList<>();
         }
+        List<Document> pipeline = new ArrayList<>();
+        types.forEach(entityType -> {
+            List<Document> live = activityPipeline(false, limit, before, beforeId);
+            List<Document> revisions = activityPipeline(true, limit, before, beforeId);
+            //The revision of a deleted MetaData is the activity at the moment of termination
+            revisions.add(new Document("$set", new Document("revision.created", "$revision.terminated")));
+            if (pipeline.isEmpty()) {
+                pipeline.addAll(live);
+            } else {
+                pipeline.add(unionWith(entityType.getType(), live));
+            }
+            pipeline.add(unionWith(entityType.getType().concat(REVISION_POSTFIX), revisions));
+        });
+        pipeline.add(new Document("$sort", new Document("revision.created", -1).append("_id", -1)));
+        pipeline.add(new Document("$limit", limit));
+        return mongoTemplate.aggregate(aggregation(pipeline), types.get(0).getType(), MetaData.class).getMappedResults();
+    }
+
+    private List<Document> activityPipeline(boolean terminated, int limit, Instant before, String beforeId) {
+        String timestamp = terminated ? "revision.terminated" : "revision.created";
+        Document match;
+        if (before == null) {
+            //Only the revisions of deleted MetaData are terminated
+            match = terminated ? new Document(timestamp, new Document("$ne", null)) : new Document();
+        } else if (beforeId == null) {
+            match = new Document(timestamp, new Document("$lt", Date.from(before)));
+        } else {
+            match = new Document("$or", List.of(
+                    new Document(timestamp, new Document("$lt", Date.from(before))),
+                    new Document(timestamp, Date.from(before)).append("_id", new Document("$lt", beforeId))));
+        }
+        Document projection = new Document();
+        Stream.of("type", "data.state", "data.entityid", "data.name", "data.metaDataFields.name:en",
+                        "data.metaDataFields.OrganizationName:en", "data.revisionnote", "revision.created",
+                        "revision.terminated", "revision.updatedBy")
+                .forEach(field -> projection.append(field, 1));
+        return new ArrayList<>(List.of(
+                new Document("$match", match),
+                new Document("$sort", new Document(timestamp, -1).append("_id", -1)),
+                new Document("$limit", limit),
+                new Document("$project", projection)));
+    }
 
-        return results;
+    private Document unionWith(String collection, List<Document> pipeline) {
+        return new Document("$unionWith", new Document("coll", collection).append("pipeline", pipeline));
     }
 
-    private MetaData updateCreatedRevision(MetaData metaData) {
-        metaData.getRevision().markCreatedWithTerminatedInstant();
-        return metaData;
+    private Aggregation aggregation(List<Document> pipeline) {
+        return Aggregation.newAggregation(pipeline.stream()
+                .map(stage -> (AggregationOperation) context -> stage)
+                .collect(toList()));
     }
 
     public List<Map> whiteListing(String type, String state) {
@@ -347,26 +775,47 @@ public class MetaDataRepository {
         return mongoTemplate.find(query, Map.class, EntityType.PROV.getType());
     }
 
+    /**
+     * The policies with service providers or relying parties without coin:policy_enforcement_decision_required. The
+     * providers of all policies are fetched at once per collection, projected on the fields needed for the report.
+     */
     public List<MetaData> policiesWithMissingPolicyEnforcementDecisionRequired() {
         List<MetaData> policies = this.mongoTemplate.findAll(MetaData.class, EntityType.PDP.getType());
+        Set<String> entityIds = policies.stream()
+                .map(policy -> (List<Map<String, String>>) policy.getData().get("serviceProviderIds"))
+                .filter(Objects::nonNull)
+                .flatMap(List::stream)
+                .map(serviceProviderId -> serviceProviderId.get("name"))
+                .filter(Objects::nonNull)
+                .collect(toSet());
+        Map<String, MetaData> providers = new HashMap<>();
+        //A service provider takes precedence over a relying party with the same entityid
+        Stream.of(EntityType.SP, EntityType.RP).forEach(entityType -> {
+            if (entityIds.isEmpty()) {
+                return;
+            }
+            Query query = new Query(Criteria.where("data.entityid").in(entityIds));
+            Field fields = query.fields().include("type", "data.entityid",
+                    "data.metaDataFields.coin:policy_enforcement_decision_required");
+            this.supportedLanguages.forEach(lang -> fields.include("data.metaDataFields.name:" + lang,
+                    "data.metaDataFields.OrganizationName:" + lang));
+            mongoTemplate.find(query, MetaData.class, entityType.getType()).forEach(provider -> {
+                //The projection omits the metaDataFields if none of the projected fields is present
+                provider.getData().putIfAbsent("metaDataFields", new HashMap<>());
+                providers.putIfAbsent((String) provider.getData().get("entityid"), provider);
+            });
+        });
         return policies.stream().filter(policy -> {
-            List<Map<String, String>> serviceProviderIds = (List<Map<String, String>>) policy.getData().get("serviceProviderIds");
-            List<MetaData> providers = serviceProviderIds.stream()
-                    .map(serviceProviderId -> {
-                        Query query = new Query()
-                                .addCriteria(Criteria.where("data.entityid").is(serviceProviderId.get("name")));
-                        MetaData provider = mongoTemplate.findOne(query, MetaData.class, EntityType.SP.getType());
-                        if (provider == null) {
-                            provider = mongoTemplate.findOne(query, MetaData.class, EntityType.RP.getType());
-                        }
-                        return provider;
-                    })
+            List<Map<String, String>> serviceProviderIds = (List<Map<String, String>>) policy.getData()
+                    .getOrDefault("serviceProviderIds", emptyList());
+            List<MetaData> missing = serviceProviderIds.stream()
+                    .map(serviceProviderId -> providers.get(serviceProviderId.get("name")))
                     .filter(Objects::nonNull)
-                    .filter(provider -> isPolicyEnforcementDecisionRequiredAbsent(provider))
+                    .filter(this::isPolicyEnforcementDecisionRequiredAbsent)
                     .collect(toList());
-            boolean hasMissingEnforcementProviders = !providers.isEmpty();
+            boolean hasMissingEnforcementProviders = !missing.isEmpty();
             if (hasMissingEnforcementProviders) {
-                policy.getData().put("policyEnforcementDecisionAbsent", providers);
+                policy.getData().put("policyEnforcementDecisionAbsent", missing);
             }
             return hasMissingEnforcementProviders;
         }).collect(toList());
@@ -393,14 +842,42 @@ public class MetaDataRepository {
         return res.getValue();
     }
 
+    /**
+     * The number of documents and the sizes of all collections from the collection metadata instead of counting the
+     * documents. The collections are queried one after another and the result is cached for the TTL. The statistics of
+     * views and of collections without the collStats privilege are reported as null.
+     */
     public List<StatsEntry> stats() {
-        return mongoTemplate.getCollectionNames().stream()
+        List<StatsEntry> cached = stats;
+        if (cached != null && System.currentTimeMillis() - statsCollected < statsTtlMillis) {
+            return cached;
+        }
+        List<StatsEntry> collected = mongoTemplate.getCollectionNames().stream()
                 .filter(name -> !name.toLowerCase().contains("system"))
-                .map(name -> new StatsEntry(name, mongoTemplate.count(new Query(), name)))
+                .map(this::statsEntry)
                 .collect(toList());
+        stats = collected;
+        statsCollected = System.currentTimeMillis();
+        return collected;
+    }
+
+    private StatsEntry statsEntry(String name) {
+        try {
+            Document collStats = mongoTemplate.executeCommand(new Document("collStats", name));
+            return new StatsEntry(name, longValue(collStats, "count"), longValue(collStats, "size"),
+                    longValue(collStats, "storageSize"), longValue(collStats, "totalIndexSize"));
+        } catch (RuntimeException e) {
+            //e.g. views and users without the collStats privilege
+            return new StatsEntry(name, null, null, null, null);
+        }
+    }
+
+    private static Long longValue(Document document, String key) {
+        Object value = document.get(key);
+        return value instanceof Number ? ((Number) value).longValue() : null;
     }
 
-    private Query queryWithSamlFields(EntityType entityType) {
+    Query queryWithSamlFields(EntityType entityType) {
         Query query = new Query();
         //When we have multiple types then we need to delegate depending on the type.
         Field fields = query.fields();
@@ -0,0 +1,201 @@
+package manage.service;
+
+import manage.model.ChangeEvent;
+import manage.model.MetaDataChangedEvent;
+import manage.repository.ChangeEventRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Appends every published MetaData change to the change_events outbox and hands the events over to the consumers,
+ * either paginated on the cursor or streamed as server-sent events.
+ * <p>
+ * The cursor is reserved before the event is inserted, so with concurrent writes an event with a higher cursor can be
+ * visible before an event with a lower cursor. The events after such a gap are only handed over once the gap is older
+ * than the settle time, otherwise a consumer continuing from the last cursor would miss the late event.
+ * <p>
+ * A change that can not be appended is not retried, instead a {@link MetaDataChangedEvent.Operation#RESYNC} marker is
+ * appended once the outbox is available again and the consumers compare all MetaData with the database.
+ */
+@Service
+public class ChangeEventService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ChangeEventService.class);
+
+    public static final int MAX_LIMIT = 1000;
+
+    private final ChangeEventRepository changeEventRepository;
+    private final long settleMillis;
+    private final long streamTimeoutMillis;
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+    //Set when a change is not appended, cleared when the resync marker is appended
+    private final AtomicBoolean resyncRequired = new AtomicBoolean();
+    private final ScheduledExecutorService scheduler;
+
+    @Autowired
+    public ChangeEventService(ChangeEventRepository changeEventRepository,
+                              @Value("${change_events.settle_millis:5000}") long settleMillis,
+                              @Value("${change_events.poll_interval:1000}") long pollInterval,
+                              @Value("${change_events.stream_timeout:1800000}") long streamTimeoutMillis) {
+        this.changeEventRepository = changeEventRepository;
+        this.settleMillis = settleMillis;
+        this.streamTimeoutMillis = streamTimeoutMillis;
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("change-events-");
+        threadFactory.setDaemon(true);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        //Changes made by other Manage instances are only visible in the database, so the subscribers are polled
+        this.scheduler.scheduleWithFixedDelay(this::poll, pollInterval, pollInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @EventListener
+    public void onMetaDataChanged(MetaDataChangedEvent event) {
+        try {
+            changeEventRepository.append(event);
+        } catch (RuntimeException e) {
+            //The write itself has succeeded and must not fail
+            resyncRequired.set(true);
+            LOG.error(String.format("Failed to append %s to the change events, a resync marker is appended", event), e);
+        }
+    }
+
+    boolean isResyncRequired() {
+        return resyncRequired.get();
+    }
+
+    void appendResyncMarker() {
+        if (!resyncRequired.compareAndSet(true, false)) {
+            return;
+        }
+        try {
+            ChangeEvent marker = changeEventRepository.append(new MetaDataChangedEvent(
+                    MetaDataChangedEvent.Operation.RESYNC, null, null, null, null));
+            LOG.warn("Appended resync marker {} to the change events", marker.getCursor());
+        } catch (RuntimeException e) {
+            resyncRequired.set(true);
+            LOG.warn("Failed to append the resync marker to the change events", e);
+        }
+    }
+
+    public Map<String, Object> changes(long after, int limit) {
+        int boundedLimit = Math.max(1, Math.min(limit, MAX_LIMIT));
+        List<ChangeEvent> changes = settled(changeEventRepository.findAfter(after, boundedLimit), after,
+                this::settledBefore);
+        Map<String, Object> result = new HashMap<>();
+        result.put("changes", changes);
+        result.put("cursor", changes.isEmpty() ? after : changes.get(changes.size() - 1).getCursor());
+        result.put("more", changes.size() == boundedLimit);
+        return result;
+    }
+
+    public SseEmitter subscribe(long after) {
+        SseEmitter emitter = new SseEmitter(streamTimeoutMillis);
+        Subscriber subscriber = new Subscriber(emitter, after);
+        emitter.onCompletion(() -> subscribers.remove(subscriber));
+        emitter.onTimeout(() -> subscribers.remove(subscriber));
+        emitter.onError(e -> subscribers.remove(subscriber));
+        subscribers.add(subscriber);
+        //Do not wait for the first poll to hand over the backlog
+        scheduler.execute(() -> send(subscriber, Long.MAX_VALUE));
+        return emitter;
+    }
+
+    /*
+     * The events up to the first gap in the cursors that is not yet settled. The settle moment is only determined if
+     * there is a gap.
+     */
+    public static List<ChangeEvent> settled(List<ChangeEvent> events, long after, Supplier<Instant> settledBefore) {
+        List<ChangeEvent> settled = new ArrayList<>();
+        long expected = after + 1;
+        Instant gapSettledBefore = null;
+        for (ChangeEvent event : events) {
+            if (event.getCursor() != expected) {
+                gapSettledBefore = gapSettledBefore == null ? settledBefore.get() : gapSettledBefore;
+                if (event.getCreated().isAfter(gapSettledBefore)) {
+                    break;
+                }
+            }
+            settled.add(event);
+            expected = event.getCursor() + 1;
+        }
+        return settled;
+    }
+
+    //The created timestamps are recorded by the Mongo server, so the settle window is based on its clock as well
+    private Instant settledBefore() {
+        return changeEventRepository.serverTime().minusMillis(settleMillis);
+    }
+
+    private void poll() {
+        appendResyncMarker();
+        if (subscribers.isEmpty()) {
+            return;
+        }
+        try {
+            long latestCursor = changeEventRepository.latestCursor();
+            subscribers.forEach(subscriber -> send(subscriber, latestCursor));
+        } catch (RuntimeException e) {
+            LOG.warn("Failed to poll the change events", e);
+        }
+    }
+
+    private void send(Subscriber subscriber, long latestCursor) {
+        try {
+            while (subscriber.cursor < latestCursor) {
+                List<ChangeEvent> changes = settled(changeEventRepository.findAfter(subscriber.cursor, MAX_LIMIT),
+                        subscriber.cursor, this::settledBefore);
+                for (ChangeEvent change : changes) {
+                    subscriber.emitter.send(SseEmitter.event()
+                            .id(String.valueOf(change.getCursor()))
+                            .name("change")
+                            .data(change));
+                    subscriber.cursor = change.getCursor();
+                }
+                if (changes.size() < MAX_LIMIT) {
+                    return;
+                }
+            }
+        } catch (IOException | IllegalStateException e) {
+            //The client has gone, the emitter is completed
+            subscribers.remove(subscriber);
+        } catch (RuntimeException e) {
+            LOG.warn("Failed to send the change events", e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+        subscribers.forEach(subscriber -> subscriber.emitter.complete());
+    }
+
+    private static class Subscriber {
+
+        private final SseEmitter emitter;
+        private volatile long cursor;
+
+        private Subscriber(SseEmitter emitter, long cursor) {
+            this.emitter = emitter;
+            this.cursor = cursor;
+        }
+    }
+}
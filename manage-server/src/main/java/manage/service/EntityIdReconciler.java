@@ -0,0 +1,232 @@
+package manage.service;
+
+import manage.model.MetaData;
+import manage.model.MetaDataChangedEvent;
+import manage.repository.MetaDataRepository;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toSet;
+
+/**
+ * Updates all MetaData referring to a renamed or deleted entityid. The revisions of the referring MetaData are
+ * inserted with one unordered bulk write per batch, followed by a guarded replace of every new version. MetaData
+ * changed concurrently is read and reconciled again, the reconciliation fails if it is still changed concurrently
+ * after the last attempt.
+ * <p>
+ * Reconciliations with more references than the async threshold are done in the background, their progress is
+ * available with {@link #find(long)}.
+ */
+@Service
+public class EntityIdReconciler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EntityIdReconciler.class);
+
+    private static final int HISTORY_SIZE = 100;
+    private static final int MAX_ATTEMPTS = 3;
+
+    private final MetaDataRepository metaDataRepository;
+    private final MongoTemplate mongoTemplate;
+    private final ApplicationEventPublisher applicationEventPublisher;
+    private final int batchSize;
+    private final int asyncThreshold;
+    private final ExecutorService executorService;
+    private final AtomicLong sequence = new AtomicLong();
+    private final Map<Long, EntityIdReconciliation> history = new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, EntityIdReconciliation> eldest) {
+            return size() > HISTORY_SIZE;
+        }
+    };
+
+    @Autowired
+    public EntityIdReconciler(MetaDataRepository metaDataRepository,
+                              ApplicationEventPublisher applicationEventPublisher,
+                              @Value("${entity_id_reconciler.batch_size:500}") int batchSize,
+                              @Value("${entity_id_reconciler.async_threshold:1000}") int asyncThreshold) {
+        this.metaDataRepository = metaDataRepository;
+        this.mongoTemplate = metaDataRepository.getMongoTemplate();
+        this.applicationEventPublisher = applicationEventPublisher;
+        this.batchSize = Math.max(1, batchSize);
+        this.asyncThreshold = asyncThreshold;
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("entity-id-reconciler-");
+        threadFactory.setDaemon(true);
+        this.executorService = Executors.newSingleThreadExecutor(threadFactory);
+    }
+
+    /**
+     * Reconciles the references in the collections of the types to the entityid. If the newEntityId is null the
+     * references are removed, otherwise they are renamed.
+     */
+    public EntityIdReconciliation reconcile(String entityId,
+                                            String newEntityId,
+                                            List<String> types,
+                                            List<String> referenceNames,
+                                            String revisionNote) {
+        if (types.isEmpty() || referenceNames.isEmpty()) {
+            EntityIdReconciliation reconciliation = register(entityId, newEntityId, 0, false);
+            reconciliation.complete();
+            return reconciliation;
+        }
+        Criteria referring = new Criteria().orOperator(referenceNames.stream()
+                .map(name -> Criteria.where(String.format("data.%s.name", name)).is(entityId))
+                .toArray(Criteria[]::new));
+        Query query = new Query(referring);
+        int references = types.stream().mapToInt(type -> (int) mongoTemplate.count(query, type)).sum();
+        boolean async = asyncThreshold >= 0 && references > asyncThreshold;
+        EntityIdReconciliation reconciliation = register(entityId, newEntityId, references, async);
+        Runnable run = () -> run(reconciliation, () -> types.forEach(type ->
+                reconcile(type, referring, entityId, newEntityId, referenceNames, revisionNote, reconciliation)));
+        if (async) {
+            LOG.info("Reconciling {} references to {} in the background with id {}", references, entityId,
+                    reconciliation.getId());
+            executorService.execute(run);
+        } else {
+            run.run();
+        }
+        return reconciliation;
+    }
+
+    public synchronized Optional<EntityIdReconciliation> find(long id) {
+        return Optional.ofNullable(history.get(id));
+    }
+
+    public synchronized List<EntityIdReconciliation> findLatest() {
+        List<EntityIdReconciliation> latest = new ArrayList<>(history.values());
+        Collections.reverse(latest);
+        return latest;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executorService.shutdown();
+    }
+
+    private synchronized EntityIdReconciliation register(String entityId, String newEntityId, int references,
+                                                         boolean async) {
+        EntityIdReconciliation reconciliation = new EntityIdReconciliation(sequence.incrementAndGet(), entityId,
+                newEntityId, references, async);
+        history.put(reconciliation.getId(), reconciliation);
+        return reconciliation;
+    }
+
+    private void run(EntityIdReconciliation reconciliation, Runnable work) {
+        reconciliation.start();
+        try {
+            work.run();
+            reconciliation.complete();
+        } catch (RuntimeException e) {
+            reconciliation.fail(e);
+            LOG.error(String.format("Reconciliation %s of %s failed", reconciliation.getId(),
+                    reconciliation.getEntityId()), e);
+            if (!reconciliation.isAsync()) {
+                throw e;
+            }
+        }
+        if (reconciliation.getConflicts() > 0) {
+            LOG.warn("Reconciliation {} of {} read {} MetaData changed concurrently again", reconciliation.getId(),
+                    reconciliation.getEntityId(), reconciliation.getConflicts());
+        }
+    }
+
+    private void reconcile(String type, Criteria referring, String entityId, String newEntityId,
+                           List<String> referenceNames, String revisionNote, EntityIdReconciliation reconciliation) {
+        Set<String> conflicting = reconcile(type, new Query(referring), entityId, newEntityId, referenceNames,
+                revisionNote, reconciliation);
+        for (int attempt = 1; !conflicting.isEmpty() && attempt < MAX_ATTEMPTS; attempt++) {
+            //MetaData that does not refer to the entityid anymore is not read again
+            Query query = new Query(new Criteria().andOperator(Criteria.where("_id").in(conflicting), referring));
+            conflicting = reconcile(type, query, entityId, newEntityId, referenceNames, revisionNote, reconciliation);
+        }
+        if (!conflicting.isEmpty()) {
+            throw new OptimisticLockingFailureException(String.format(
+                    "MetaData %s in %s changed concurrently during the reconciliation of %s", conflicting, type,
+                    entityId));
+        }
+    }
+
+    /*
+     * Returns the ids of the MetaData changed concurrently
+     */
+    @SuppressWarnings("unchecked")
+    private Set<String> reconcile(String type, Query query, String entityId, String newEntityId,
+                                  List<String> referenceNames, String revisionNote,
+                                  EntityIdReconciliation reconciliation) {
+        Set<String> conflicting = new HashSet<>();
+        Set<String> seen = new HashSet<>();
+        List<MetaData> revisions = new ArrayList<>();
+        List<MetaData> latest = new ArrayList<>();
+        try (CloseableIterator<Document> iterator = mongoTemplate.stream(query, Document.class, type)) {
+            while (iterator.hasNext()) {
+                Document document = iterator.next();
+                //A document updated by a previous batch might be returned again by the cursor
+                if (!seen.add(document.get("_id").toString())) {
+                    continue;
+                }
+                MetaData previous = mongoTemplate.getConverter().read(MetaData.class, document);
+                MetaData metaData = mongoTemplate.getConverter().read(MetaData.class, document);
+                referenceNames.forEach(name -> {
+                    List<Map<String, String>> entities = (List<Map<String, String>>) metaData.getData().get(name);
+                    if (entities == null) {
+                        return;
+                    }
+                    if (newEntityId == null) {
+                        metaData.getData().put(name, entities.stream()
+                                .filter(entry -> !entityId.equals(entry.get("name")))
+                                .collect(toList()));
+                    } else {
+                        entities.stream()
+                                .filter(entry -> entityId.equals(entry.get("name")))
+                                .findAny()
+                                .ifPresent(entry -> entry.put("name", newEntityId));
+                    }
+                });
+                previous.revision(UUID.randomUUID().toString());
+                metaData.promoteToLatest("System", revisionNote);
+                revisions.add(previous);
+                latest.add(metaData);
+                if (latest.size() >= batchSize) {
+                    write(type, revisions, latest, reconciliation, conflicting);
+                }
+            }
+        }
+        write(type, revisions, latest, reconciliation, conflicting);
+        return conflicting;
+    }
+
+    private void write(String type, List<MetaData> revisions, List<MetaData> latest,
+                       EntityIdReconciliation reconciliation, Set<String> conflicting) {
+        if (latest.isEmpty()) {
+            return;
+        }
+        List<MetaData> revised = metaDataRepository.reviseAll(type, revisions, latest);
+        Set<String> revisedIds = revised.stream().map(MetaData::getId).collect(toSet());
+        latest.stream().map(MetaData::getId).filter(id -> !revisedIds.contains(id)).forEach(conflicting::add);
+        reconciliation.revised(revised.size(), latest.size() - revised.size());
+        LOG.info("Reconciliation {} of {}: revised {} of {} references", reconciliation.getId(),
+                reconciliation.getEntityId(), reconciliation.getRevised(), reconciliation.getReferences());
+
+        revised.forEach(metaData ->
+                applicationEventPublisher.publishEvent(MetaDataChangedEvent.of(MetaDataChangedEvent.Operation.UPDATE, metaData)));
+        revisions.clear();
+        latest.clear();
+    }
+}
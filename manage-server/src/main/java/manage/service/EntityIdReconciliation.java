@@ -0,0 +1,109 @@
+package manage.service;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Progress of the reconciliation of the references to a renamed or deleted entityid
+ */
+public class EntityIdReconciliation {
+
+    public enum Status {
+        QUEUED, RUNNING, DONE, FAILED
+    }
+
+    private final long id;
+    private final String entityId;
+    //Null if the entityid is deleted
+    private final String newEntityId;
+    private final int references;
+    private final boolean async;
+    private final Instant requested = Instant.now();
+    private final AtomicInteger revised = new AtomicInteger();
+    private final AtomicInteger conflicts = new AtomicInteger();
+
+    private volatile Status status = Status.QUEUED;
+    private volatile Instant finished;
+    private volatile String error;
+
+    EntityIdReconciliation(long id, String entityId, String newEntityId, int references, boolean async) {
+        this.id = id;
+        this.entityId = entityId;
+        this.newEntityId = newEntityId;
+        this.references = references;
+        this.async = async;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getEntityId() {
+        return entityId;
+    }
+
+    public int getReferences() {
+        return references;
+    }
+
+    public boolean isAsync() {
+        return async;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public int getRevised() {
+        return revised.get();
+    }
+
+    public int getConflicts() {
+        return conflicts.get();
+    }
+
+    void start() {
+        status = Status.RUNNING;
+    }
+
+    void revised(int revised, int conflicts) {
+        this.revised.addAndGet(revised);
+        this.conflicts.addAndGet(conflicts);
+    }
+
+    void complete() {
+        finished = Instant.now();
+        status = Status.DONE;
+    }
+
+    void fail(RuntimeException e) {
+        finished = Instant.now();
+        status = Status.FAILED;
+        error = e.getMessage();
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> result = new HashMap<>();
+        result.put("id", id);
+        result.put("status", status.name().toLowerCase());
+        result.put("entityId", entityId);
+        result.put("operation", newEntityId == null ? "delete" : "rename");
+        if (newEntityId != null) {
+            result.put("newEntityId", newEntityId);
+        }
+        result.put("async", async);
+        result.put("references", references);
+        result.put("revised", revised.get());
+        result.put("conflicts", conflicts.get());
+        result.put("requested", requested);
+        if (finished != null) {
+            result.put("finished", finished);
+        }
+        if (error != null) {
+            result.put("error", error);
+        }
+        return result;
+    }
+}
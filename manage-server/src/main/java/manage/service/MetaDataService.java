@@ -13,17 +13,21 @@ import manage.exception.ResourceNotFoundException;
 import manage.format.SaveURLResource;
 import manage.hook.MetaDataHook;
 import manage.model.*;
+import manage.repository.AutocompleteIndex;
+import manage.repository.EntityIdDirectory;
 import manage.repository.MetaDataRepository;
 import manage.shibboleth.FederatedUser;
 import org.everit.json.schema.ValidationException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.core.env.Environment;
 import org.springframework.core.env.Profiles;
 import org.springframework.core.io.Resource;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.util.CloseableIterator;
 import org.springframework.stereotype.Service;
 import org.springframework.util.CollectionUtils;
 import org.springframework.util.StringUtils;
@@ -37,6 +41,7 @@ import java.net.URL;
 import java.net.URLDecoder;
 import java.time.Instant;
 import java.util.*;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import static java.util.Collections.singletonList;
@@ -58,6 +63,8 @@ public class MetaDataService {
 
     public static final String LOGICAL_OPERATOR_IS_AND = "LOGICAL_OPERATOR_IS_AND";
 
+    public static final String TEXT_SEARCH = "TEXT_SEARCH";
+
     private static final String DASHBOARD_CONNECT_OPTION = "coin:dashboard_connect_option";
 
     private static final List<String> entityTypesSuggestions = Arrays.asList(
@@ -65,6 +72,10 @@ public class MetaDataService {
     );
     private final MetaDataRepository metaDataRepository;
 
+    private final AutocompleteIndex autocompleteIndex;
+
+    private final EntityIdDirectory entityIdDirectory;
+
     private final MetaDataAutoConfiguration metaDataAutoConfiguration;
 
     private final MetaDataHook metaDataHook;
@@ -77,21 +88,29 @@ public class MetaDataService {
 
     private final ExporterService exporterService;
 
+    private final ApplicationEventPublisher applicationEventPublisher;
+
     public MetaDataService(MetaDataRepository metaDataRepository,
+                           AutocompleteIndex autocompleteIndex,
+                           EntityIdDirectory entityIdDirectory,
                            MetaDataAutoConfiguration metaDataAutoConfiguration,
                            MetaDataHook metaDataHook,
                            DatabaseController databaseController,
                            ImporterService importerService,
                            ExporterService exporterService,
+                           ApplicationEventPublisher applicationEventPublisher,
                            Environment environment) {
 
         this.metaDataRepository = metaDataRepository;
+        this.autocompleteIndex = autocompleteIndex;
+        this.entityIdDirectory = entityIdDirectory;
         this.metaDataAutoConfiguration = metaDataAutoConfiguration;
         this.metaDataHook = metaDataHook;
         this.databaseController = databaseController;
         this.exporterService = exporterService;
         this.environment = environment;
         this.importerService = importerService;
+        this.applicationEventPublisher = applicationEventPublisher;
     }
 
     public MetaData getMetaDataAndValidate(String type, String id) {
@@ -197,6 +216,7 @@ public class MetaDataService {
         LOG.info("Saving new metaData {} by {}", metaData.getId(), user.getName());
 
         metaDataRepository.save(metaData);
+        publishChange(MetaDataChangedEvent.Operation.CREATE, metaData);
 
         return getMetaDataAndValidate(metaData.getType(), metaData.getId());
     }
@@ -207,14 +227,12 @@ public class MetaDataService {
         //For security enforcement see th SecurityHook#preDelete
         current = metaDataHook.preDelete(current, user);
         metaDataRepository.remove(current);
+        publishChange(MetaDataChangedEvent.Operation.DELETE, current);
 
         LOG.info("Deleted metaData {} by {}", current.getId(), user.getName());
 
-        String changeRequestCollection = type.concat(CHANGE_REQUEST_POSTFIX);
-        Criteria criteria = Criteria.where("metaDataId").is(id);
-        MongoTemplate mongoTemplate = metaDataRepository.getMongoTemplate();
-        List<MetaDataChangeRequest> changeRequests = mongoTemplate
-                .findAllAndRemove(Query.query(criteria), MetaDataChangeRequest.class, changeRequestCollection);
+        List<MetaDataChangeRequest> changeRequests = metaDataRepository
+                .removeChangeRequests(id, type.concat(CHANGE_REQUEST_POSTFIX));
 
         LOG.info("Deleted changeRequests {} by {}",
                 changeRequests.stream().map(MetaDataChangeRequest::getId).collect(Collectors.joining()),
@@ -245,6 +263,7 @@ public class MetaDataService {
 
         metaData.promoteToLatest(user.getName(), (String) metaData.getData().get("revisionnote"));
         metaDataRepository.update(metaData);
+        publishChange(MetaDataChangedEvent.Operation.UPDATE, metaData);
 
         LOG.info("Updated metaData {} by {}", metaData.getId(), user.getName());
 
@@ -270,6 +289,7 @@ public class MetaDataService {
             metaData.promoteToLatest(apiUser.getName(),
                     String.format("API call for deleting %s by %s", keyToDelete, apiUser.getName()));
             metaDataRepository.update(metaData);
+            publishChange(MetaDataChangedEvent.Operation.UPDATE, metaData);
         }
 
         return metaDataList.stream().map(metaData -> (String) metaData.getData().get("entityid")).collect(toList());
@@ -302,6 +322,7 @@ public class MetaDataService {
         if (somethingChanged || forceNewRevision) {
             metaDataRepository.save(previous);
             metaDataRepository.update(metaData);
+            publishChange(MetaDataChangedEvent.Operation.UPDATE, metaData);
 
             LOG.info("Merging new metaData {} by {}", metaData.getId(), user.getName());
 
@@ -335,7 +356,7 @@ public class MetaDataService {
         MongoTemplate mongoTemplate = metaDataRepository.getMongoTemplate();
         String collectionName = changeRequest.getType().concat(CHANGE_REQUEST_POSTFIX);
         MetaDataChangeRequest request = mongoTemplate.findById(changeRequest.getId(), MetaDataChangeRequest.class, collectionName);
-        mongoTemplate.remove(request, collectionName);
+        metaDataRepository.removeChangeRequest(request, collectionName);
 
         return mongoTemplate.findById(changeRequest.getMetaDataId(), MetaData.class, changeRequest.getType());
     }
@@ -363,6 +384,7 @@ public class MetaDataService {
         checkForDuplicateEntityId(revision, true);
 
         metaDataRepository.save(revision);
+        publishChange(MetaDataChangedEvent.Operation.RESTORE, revision);
 
         LOG.info("Restored deleted revision {} with Id {} by {}", revisionRestore, revision.getId(), federatedUser
                 .getUid());
@@ -392,6 +414,7 @@ public class MetaDataService {
         //It might be that the revision is no longer valid as metaData configuration has changed
         revision = validate(revision);
         metaDataRepository.update(revision);
+        publishChange(MetaDataChangedEvent.Operation.RESTORE, revision);
 
         parent.revision(UUID.randomUUID().toString());
         metaDataRepository.save(parent);
@@ -402,13 +425,13 @@ public class MetaDataService {
     }
 
     public Map<String, List<Map>> autoCompleteEntities(String type, String query) {
-        List<Map> suggestions = metaDataRepository.autoComplete(type, query);
+        List<Map> suggestions = autocompleteIndex.autoComplete(type, query);
         Map<String, List<Map>> results = new HashMap<>();
         results.put("suggestions", suggestions);
         if (suggestions.isEmpty() && entityTypesSuggestions.contains(type)) {
             List<Map> alternatives = new ArrayList<>();
             entityTypesSuggestions.stream().filter(s -> !s.equals(type))
-                    .forEach(s -> alternatives.addAll(metaDataRepository.autoComplete(s, query)));
+                    .forEach(s -> alternatives.addAll(autocompleteIndex.autoComplete(s, query)));
             results.put("alternatives", alternatives);
         }
         return results;
@@ -416,36 +439,76 @@ public class MetaDataService {
 
     public List<Map> uniqueEntityId(String type, String entityId) {
         EntityType entityType = EntityType.fromType(type);
-        List<Map> results;
+        if (entityIdDirectory.isEnabled()) {
+            entityIdDirectory.synchronize();
+            return entityIdTypes(entityType).stream()
+                    .flatMap(candidateType -> entityIdDirectory.findIds(candidateType.getType(), entityId).stream())
+                    .map(id -> {
+                        Map<String, Object> result = new HashMap<>();
+                        result.put("_id", id);
+                        return result;
+                    })
+                    .collect(toList());
+        }
+        return entityIdTypes(entityType).stream()
+                .flatMap(candidateType -> metaDataRepository.findByEntityId(candidateType.getType(), entityId).stream())
+                .collect(toList());
+    }
+
+    /*
+     * The collections where the entityid of MetaData of the type must be unique
+     */
+    private List<EntityType> entityIdTypes(EntityType entityType) {
         if (entityType.equals(EntityType.IDP) || entityType.equals(EntityType.STT)) {
-            results = metaDataRepository.findByEntityId(entityType.getType(), entityId);
+            return singletonList(entityType);
         } else if (entityType.equals(EntityType.RS)) {
-            results = metaDataRepository.findByEntityId(entityType.getType(), entityId);
-            results.addAll(metaDataRepository.findByEntityId(EntityType.RP.getType(), entityId));
-        } else {
-            results = metaDataRepository.findByEntityId(entityType.getType(), entityId);
-            String otherType = entityType.equals(EntityType.RP) ? EntityType.SP.getType() : EntityType.RP.getType();
-            results.addAll(metaDataRepository.findByEntityId(otherType, entityId));
-            if (entityType.equals(EntityType.RP)) {
-                results.addAll(metaDataRepository.findByEntityId(EntityType.RS.getType(), entityId));
-            }
+            return Arrays.asList(entityType, EntityType.RP);
+        } else if (entityType.equals(EntityType.RP)) {
+            return Arrays.asList(entityType, EntityType.SP, EntityType.RS);
         }
-        return results;
+        return Arrays.asList(entityType, EntityType.RP);
     }
 
     public List<Map> searchEntityByType(String type, Map<String, Object> properties, boolean nested) {
-        List requestedAttributes = (List) properties.getOrDefault(REQUESTED_ATTRIBUTES, new
-                ArrayList<String>());
-        Boolean allAttributes = (Boolean) properties.getOrDefault(ALL_ATTRIBUTES, false);
-        Boolean logicalOperatorIsAnd = (Boolean) properties.getOrDefault(LOGICAL_OPERATOR_IS_AND, true);
-        properties.remove(REQUESTED_ATTRIBUTES);
-        properties.remove(ALL_ATTRIBUTES);
-        properties.remove(LOGICAL_OPERATOR_IS_AND);
-        List<Map> search = metaDataRepository.search(type, properties, requestedAttributes, allAttributes,
-                logicalOperatorIsAnd);
+        SearchOptions options = new SearchOptions(properties);
+        List<Map> search = metaDataRepository.search(type, properties, options.requestedAttributes,
+                options.allAttributes, options.logicalOperatorIsAnd, options.textSearch);
+        return nested ? search.stream().map(m -> exporterService.nestMetaData(m, type)).collect(toList()) : search;
+    }
+
+    /**
+     * A page of the search ordered on the _id, see {@link MetaDataRepository#search(String, Map, List, Boolean, Boolean, String, String, int)}
+     */
+    public List<Map> searchEntityByType(String type, Map<String, Object> properties, boolean nested, String after,
+                                        int limit) {
+        SearchOptions options = new SearchOptions(properties);
+        List<Map> search = metaDataRepository.search(type, properties, options.requestedAttributes,
+                options.allAttributes, options.logicalOperatorIsAnd, options.textSearch, after, limit);
         return nested ? search.stream().map(m -> exporterService.nestMetaData(m, type)).collect(toList()) : search;
     }
 
+    /**
+     * Passes the results of the search one by one to the consumer as they are read from the database
+     */
+    public void streamEntityByType(String type, Map<String, Object> properties, boolean nested, String after,
+                                   int limit, Consumer<Map> consumer) {
+        SearchOptions options = new SearchOptions(properties);
+        try (CloseableIterator<Map> iterator = metaDataRepository.streamSearch(type, properties,
+                options.requestedAttributes, options.allAttributes, options.logicalOperatorIsAnd, options.textSearch,
+                after, limit)) {
+            iterator.forEachRemaining(m -> consumer.accept(nested ? exporterService.nestMetaData(m, type) : m));
+        }
+    }
+
+    /**
+     * The plan and execution statistics of the search, see {@link MetaDataRepository#explainSearch(String, Map, List, Boolean, Boolean, String)}
+     */
+    public Map<String, Object> explainSearch(String type, Map<String, Object> properties) {
+        SearchOptions options = new SearchOptions(properties);
+        return metaDataRepository.explainSearch(type, properties, options.requestedAttributes, options.allAttributes,
+                options.logicalOperatorIsAnd, options.textSearch);
+    }
+
     public List<MetaData> retrieveRawSearch(String type, String query) throws UnsupportedEncodingException {
         if (query.startsWith("%")) {
             query = URLDecoder.decode(query, "UTF-8");
@@ -468,7 +531,10 @@ public class MetaDataService {
                         EntityType.RP.getType(),
                         EntityType.RS.getType())))
                 .stream().map(EntityType::fromType).collect(toList());
-        return metaDataRepository.recentActivity(types, max);
+        Object before = properties.get("before");
+        Instant beforeInstant = before instanceof Number ? Instant.ofEpochMilli(((Number) before).longValue()) :
+                before instanceof String ? Instant.parse((String) before) : null;
+        return metaDataRepository.recentActivity(types, max, beforeInstant, (String) properties.get("beforeId"));
     }
 
     public void createConnectWithoutInteraction(Map<String, String> connectionData, APIUser apiUser)
@@ -499,7 +565,8 @@ public class MetaDataService {
         addAllowedEntity(sp, idpEntityId, connectionData, apiUser, false);
         addAllowedEntity(idp, spEntityId, connectionData, apiUser, true);
 
-        databaseController.doPush(new PushOptions(true, true, false));
+        //Bulk connections result in bursts of push requests, which are coalesced
+        databaseController.requestPush(new PushOptions(true, true, false), apiUser.getName());
     }
 
     private void addAllowedEntity(MetaData metaData,
@@ -615,6 +682,40 @@ public class MetaDataService {
 
     public void deleteCollection(EntityType entityType) {
         this.metaDataRepository.getMongoTemplate().remove(new Query(),entityType.getType());
+        applicationEventPublisher.publishEvent(new MetaDataChangedEvent(MetaDataChangedEvent.Operation.DELETE_ALL,
+                entityType.getType(), null, null, null));
     }
 
+    public long deleteAllImportedServiceProviders() {
+        Map<String, String> deleted = metaDataRepository.deleteAllImportedServiceProviders();
+        deleted.forEach((id, entityId) -> applicationEventPublisher.publishEvent(new MetaDataChangedEvent(
+                MetaDataChangedEvent.Operation.DELETE, EntityType.SP.getType(), id, entityId, null)));
+        return deleted.size();
+    }
+
+    private void publishChange(MetaDataChangedEvent.Operation operation, MetaData metaData) {
+        applicationEventPublisher.publishEvent(MetaDataChangedEvent.of(operation, metaData));
+    }
+
+    /*
+     * The search options, removed from the properties so only the search criteria remain
+     */
+    private static class SearchOptions {
+
+        private final List<String> requestedAttributes;
+        private final Boolean allAttributes;
+        private final Boolean logicalOperatorIsAnd;
+        private final String textSearch;
+
+        private SearchOptions(Map<String, Object> properties) {
+            this.requestedAttributes = (List<String>) properties.getOrDefault(REQUESTED_ATTRIBUTES, new ArrayList<String>());
+            this.allAttributes = (Boolean) properties.getOrDefault(ALL_ATTRIBUTES, false);
+            this.logicalOperatorIsAnd = (Boolean) properties.getOrDefault(LOGICAL_OPERATOR_IS_AND, true);
+            this.textSearch = (String) properties.get(TEXT_SEARCH);
+            properties.remove(REQUESTED_ATTRIBUTES);
+            properties.remove(ALL_ATTRIBUTES);
+            properties.remove(LOGICAL_OPERATOR_IS_AND);
+            properties.remove(TEXT_SEARCH);
+        }
+    }
 }
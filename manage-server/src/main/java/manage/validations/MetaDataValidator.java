@@ -6,11 +6,13 @@ import manage.exception.CustomValidationException;
 import manage.hook.TypeSafetyHook;
 import manage.model.EntityType;
 import manage.model.MetaData;
+import manage.model.MetaDataChangedEvent;
 import manage.repository.MetaDataRepository;
 import org.everit.json.schema.ValidationException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Component;
 
 import java.util.HashMap;
@@ -25,12 +27,14 @@ public class MetaDataValidator {
 
     private final MetaDataRepository metaDataRepository;
     private final MetaDataAutoConfiguration metaDataAutoConfiguration;
+    private final ApplicationEventPublisher applicationEventPublisher;
 
     @Autowired
     public MetaDataValidator(MetaDataRepository metaDataRepository, MetaDataAutoConfiguration
-            metaDataAutoConfiguration) {
+            metaDataAutoConfiguration, ApplicationEventPublisher applicationEventPublisher) {
         this.metaDataRepository = metaDataRepository;
         this.metaDataAutoConfiguration = metaDataAutoConfiguration;
+        this.applicationEventPublisher = applicationEventPublisher;
         this.metaDataHook = new TypeSafetyHook(metaDataAutoConfiguration);
     }
 
@@ -58,6 +62,8 @@ public class MetaDataValidator {
             if (tryToMigrate) {
                 MetaData transformedMetaData = this.metaDataHook.preValidate(metaData);
                 metaDataRepository.update(transformedMetaData);
+                applicationEventPublisher.publishEvent(
+                        MetaDataChangedEvent.of(MetaDataChangedEvent.Operation.UPDATE, transformedMetaData));
                 doValidate(transformedMetaData, type, results, false);
             } else {
                 Map data = Map.class.cast(metaData.getData());
@@ -8,6 +8,9 @@ import lombok.SneakyThrows;
 import manage.conf.MetaDataAutoConfiguration;
 import manage.model.EntityType;
 import manage.model.MetaData;
+import manage.push.PushSnapshot;
+import manage.repository.AutocompleteIndex;
+import manage.repository.EntityIdDirectory;
 import manage.repository.MetaDataRepository;
 import manage.repository.ScopeRepository;
 import org.junit.Before;
@@ -54,6 +57,15 @@ public abstract class AbstractIntegrationTest implements TestUtils {
     @Autowired
     protected MetaDataAutoConfiguration metaDataAutoConfiguration;
 
+    @Autowired
+    private AutocompleteIndex autocompleteIndex;
+
+    @Autowired
+    private EntityIdDirectory entityIdDirectory;
+
+    @Autowired
+    private PushSnapshot pushSnapshot;
+
     @LocalServerPort
     protected int port;
 
@@ -83,6 +95,10 @@ public abstract class AbstractIntegrationTest implements TestUtils {
                     .forEach((type, metaData) -> await().until(() -> mongoTemplate.count(query, type) == metaData
                             .size()));
             Stream.of(EntityType.values()).forEach(entityType -> mongoTemplate.remove(query, entityType.getType().concat(CHANGE_REQUEST_POSTFIX)));
+            //The seed data is inserted without change events
+            autocompleteIndex.synchronize();
+            entityIdDirectory.rebuild();
+            pushSnapshot.refresh();
         }
     }
 
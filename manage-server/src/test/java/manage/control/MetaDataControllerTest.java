@@ -16,6 +16,7 @@ import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.util.*;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import static io.restassured.RestAssured.given;
@@ -567,6 +568,56 @@ public class MetaDataControllerTest extends AbstractIntegrationTest {
                 .body("size()", is(3));
     }
 
+    @Test
+    public void searchWithPrefix() {
+        Map<String, Object> searchOptions = new HashMap<>();
+        searchOptions.put("entityid", "HTTPS://PROFILE.test2*");
+
+        given()
+                .when()
+                .body(searchOptions)
+                .header("Content-type", "application/json")
+                .post("manage/api/client/search/saml20_sp")
+                .then()
+                .statusCode(SC_OK)
+                .body("size()", is(1))
+                .body("data.entityid", hasItems("https://profile.test2.surfconext.nl/authentication/metadata"));
+    }
+
+    @Test
+    public void searchWithTextSearch() {
+        Map<String, Object> searchOptions = new HashMap<>();
+        searchOptions.put(TEXT_SEARCH, "Mujina");
+
+        given()
+                .when()
+                .body(searchOptions)
+                .header("Content-type", "application/json")
+                .post("manage/api/client/search/saml20_sp")
+                .then()
+                .statusCode(SC_OK)
+                .body("data.entityid", hasItems("http://mock-sp"));
+    }
+
+    @Test
+    public void searchExplain() {
+        Map<String, Object> searchOptions = new HashMap<>();
+        searchOptions.put("entityid", "https://profile*");
+
+        given()
+                .when()
+                .body(searchOptions)
+                .header("Content-type", "application/json")
+                .queryParam("explain", true)
+                .post("manage/api/client/search/saml20_sp")
+                .then()
+                .statusCode(SC_OK)
+                .body("plan.strategy", hasItems("prefix_range"))
+                .body("collation", is(true))
+                .body("indexesUsed", hasItems("data.entityid_1"))
+                .body("nReturned", is(1));
+    }
+
     @Test
     public void searchOidcRp() {
         Map<String, Object> searchOptions = new HashMap<>();
@@ -679,6 +730,45 @@ public class MetaDataControllerTest extends AbstractIntegrationTest {
         assertNotNull(((Map) sp2.get("revision")).get("terminated"));
     }
 
+    @Test
+    public void recentActivityLoadMore() {
+        doDelete(EntityType.RS, "10", "Delete revision RS 10");
+        doUpdate(EntityType.SP, "1", "First revision SP");
+        doUpdate(EntityType.IDP, "6", "First revision IDP");
+
+        Map<String, Object> body = new HashMap<>();
+        body.put("types", Arrays.asList(EntityType.IDP.getType(), EntityType.SP.getType(), EntityType.RS.getType()));
+        body.put("limit", 4);
+        List<Map<String, Object>> all = given()
+                .when()
+                .header("Content-type", "application/json")
+                .body(body)
+                .post("manage/api/client/recent-activity")
+                .as(mapListTypeRef);
+
+        body.put("limit", 2);
+        List<Map<String, Object>> firstPage = given()
+                .when()
+                .header("Content-type", "application/json")
+                .body(body)
+                .post("manage/api/client/recent-activity")
+                .as(mapListTypeRef);
+        Map<String, Object> last = firstPage.get(1);
+        body.put("before", ((Map) last.get("revision")).get("created"));
+        body.put("beforeId", last.get("id"));
+        List<Map<String, Object>> secondPage = given()
+                .when()
+                .header("Content-type", "application/json")
+                .body(body)
+                .post("manage/api/client/recent-activity")
+                .as(mapListTypeRef);
+
+        List<Object> ids = all.stream().map(activity -> activity.get("id")).collect(Collectors.toList());
+        assertEquals(ids.subList(0, 2), firstPage.stream().map(activity -> activity.get("id")).collect(Collectors.toList()));
+        assertEquals(ids.subList(2, 4), secondPage.stream().map(activity -> activity.get("id")).collect(Collectors.toList()));
+        assertEquals("Delete revision RS 10", ((Map) all.get(2).get("data")).get("revisionnote"));
+    }
+
     private void doDelete(EntityType entityType, String id, String revisionNote) {
         given().when()
                 .header("Content-type", "application/json")
@@ -705,6 +795,70 @@ public class MetaDataControllerTest extends AbstractIntegrationTest {
                         "https://sls", null, null, null, null, null));
     }
 
+    @Test
+    public void searchWithKeysetPagination() {
+        Map<String, Object> searchOptions = new HashMap<>();
+        searchOptions.put(ALL_ATTRIBUTES, true);
+        List<Map<String, Object>> all = given()
+                .when()
+                .body(searchOptions)
+                .header("Content-type", "application/json")
+                .post("manage/api/client/search/saml20_sp")
+                .as(mapListTypeRef);
+        List<Object> ids = all.stream().map(metaData -> metaData.get("_id")).sorted().collect(Collectors.toList());
+
+        List<Object> pagedIds = new ArrayList<>();
+        String after = "";
+        List<Map<String, Object>> page;
+        do {
+            page = given()
+                    .when()
+                    .body(searchOptions)
+                    .header("Content-type", "application/json")
+                    .queryParam("after", after)
+                    .queryParam("limit", 3)
+                    .post("manage/api/client/search/saml20_sp")
+                    .as(mapListTypeRef);
+            page.forEach(metaData -> pagedIds.add(metaData.get("_id")));
+            after = page.isEmpty() ? after : (String) page.get(page.size() - 1).get("_id");
+        } while (page.size() == 3);
+
+        assertEquals(ids, pagedIds);
+    }
+
+    @Test
+    public void searchInvalidLimit() {
+        Map<String, Object> searchOptions = new HashMap<>();
+        searchOptions.put(ALL_ATTRIBUTES, true);
+        given()
+                .when()
+                .body(searchOptions)
+                .header("Content-type", "application/json")
+                .queryParam("limit", 0)
+                .post("manage/api/client/search/saml20_sp")
+                .then()
+                .statusCode(SC_BAD_REQUEST);
+    }
+
+    @Test
+    public void searchStreaming() {
+        Map<String, Object> searchOptions = new HashMap<>();
+        searchOptions.put(ALL_ATTRIBUTES, true);
+        String ndjson = given()
+                .when()
+                .body(searchOptions)
+                .header("Content-type", "application/json")
+                .header("Accept", "application/x-ndjson")
+                .post("manage/api/client/search/saml20_sp")
+                .then()
+                .statusCode(SC_OK)
+                .contentType("application/x-ndjson")
+                .extract().asString();
+        List<String> lines = Arrays.asList(ndjson.trim().split("\n"));
+        assertEquals(7, lines.size());
+        lines.forEach(line -> assertTrue(line.startsWith("{\"_id\"")));
+    }
+
     @Test
     public void whiteListingProdAccepted() {
         given()
@@ -990,6 +1144,35 @@ public class MetaDataControllerTest extends AbstractIntegrationTest {
         assertEquals(2, List.class.cast(result.get("merged")).size());
     }
 
+    @Test
+    public void deleteFeedAndImportAgain() throws IOException {
+        String urlS = new ClassPathResource("xml/edugain_feed.xml").getURL().toString();
+        Import importRequest = new Import(urlS, null);
+        Map result = given()
+                .body(importRequest)
+                .header("Content-type", "application/json")
+                .post("manage/api/client/import/feed")
+                .getBody()
+                .as(Map.class);
+        assertEquals(2, List.class.cast(result.get("imported")).size());
+
+        result = given()
+                .delete("manage/api/client/delete/feed")
+                .getBody()
+                .as(Map.class);
+        //Including the imported service provider of the seed
+        assertEquals(3, result.get("deleted"));
+
+        //The deleted entityid's are not duplicates anymore
+        result = given()
+                .body(importRequest)
+                .header("Content-type", "application/json")
+                .post("manage/api/client/import/feed")
+                .getBody()
+                .as(Map.class);
+        assertEquals(2, List.class.cast(result.get("imported")).size());
+    }
+
     @Test
     public void importFeedIdemPotency() throws IOException {
         String urlS = new ClassPathResource("import_xml/edugain_sniplet.xml").getURL().toString();
@@ -1494,6 +1677,53 @@ public class MetaDataControllerTest extends AbstractIntegrationTest {
         assertEquals("minimal_consent", duisAdDo.get("type"));
     }
 
+    @Test
+    public void changeRequestsOverview() {
+        List.of("First", "Second", "Third").forEach(note -> given().auth().preemptive().basic("dashboard", "secret")
+                .when()
+                .body(new MetaDataChangeRequest("6", EntityType.IDP.getType(), note,
+                        Map.of("metaDataFields.description:en", note), Map.of("user", "jdoe")))
+                .header("Content-type", "application/json")
+                .post("manage/api/internal/change-requests")
+                .then()
+                .statusCode(200));
+
+        Map<String, Object> firstPage = given()
+                .when()
+                .queryParam("size", 2)
+                .get("manage/api/client/change-requests/overview")
+                .as(Map.class);
+        List<Map<String, Object>> changeRequests = (List<Map<String, Object>>) firstPage.get("changeRequests");
+        assertEquals(2, changeRequests.size());
+        assertEquals(true, firstPage.get("more"));
+        assertEquals("Third", changeRequests.get(0).get("note"));
+        assertNull(changeRequests.get(0).get("pathUpdates"));
+
+        Map<String, Object> lastPage = given()
+                .when()
+                .queryParam("size", 2)
+                .queryParam("page", 1)
+                .get("manage/api/client/change-requests/overview")
+                .as(Map.class);
+        assertEquals(false, lastPage.get("more"));
+
+        Long count = given()
+                .when()
+                .get("manage/api/client/change-requests/count")
+                .as(Long.class);
+        assertEquals(3L, count.longValue());
+    }
+
+    @Test
+    public void changeRequestsOverviewNegativePage() {
+        given()
+                .when()
+                .queryParam("page", -1)
+                .get("manage/api/client/change-requests/overview")
+                .then()
+                .statusCode(SC_BAD_REQUEST);
+    }
+
     @Test
     public void changeRequestRemoveMetadataField() {
         Map<String, Object> pathUpdates = new HashMap<>();
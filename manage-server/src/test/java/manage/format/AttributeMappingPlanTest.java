@@ -0,0 +1,108 @@
+package manage.format;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import manage.TestUtils;
+import manage.model.MetaData;
+import org.junit.Test;
+
+import java.util.*;
+
+import static java.util.Optional.empty;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@SuppressWarnings("unchecked")
+public class AttributeMappingPlanTest implements TestUtils {
+
+    @Test
+    public void compile() {
+        Map<String, Optional<String>> attributes = new TreeMap<>();
+        attributes.put("entityid", Optional.of("name"));
+        attributes.put("metadata:name:en", empty());
+        attributes.put("bogus:name", empty());
+        AttributeMappingPlan plan = AttributeMappingPlan.compile(attributes);
+        assertEquals(2, plan.size());
+
+        Map<String, Object> result = new TreeMap<>();
+        plan.apply(Map.of("entityid", "https://sp", "metaDataFields", Map.of("name:en", "SP")), result);
+        assertEquals("https://sp", result.get("name"));
+        assertEquals("SP", ((Map<String, Object>) ((Map<String, Object>) result.get("metadata")).get("name")).get("en"));
+    }
+
+    @Test
+    public void applyOnlyCreatesNestedMapsForValues() {
+        AttributeMappingPlan plan = AttributeMappingPlan.compile(EngineBlockFormatter.commonAttributes);
+        Map<String, Object> result = new TreeMap<>();
+        plan.apply(Map.of("metaDataFields", Map.of()), result);
+        assertTrue(result.isEmpty());
+    }
+
+    @Test
+    public void applyIsEquivalentToAttributeWalk() throws Exception {
+        List<MetaData> metaDataList = objectMapper.readValue(readFile("json/meta_data_seed.json"),
+                new TypeReference<List<MetaData>>() {
+                });
+        AttributeMappingPlan plan = AttributeMappingPlan.compile(EngineBlockFormatter.commonAttributes);
+        metaDataList.forEach(metaData -> {
+            Map<String, Object> source = metaData.getData();
+            Map<String, Optional<String>> attributes = new TreeMap<>(EngineBlockFormatter.commonAttributes);
+            ((Map<String, Object>) source.get("metaDataFields")).keySet().stream()
+                    .filter(key -> key.startsWith("coin:"))
+                    .forEach(key -> attributes.put("metadata:" + key, empty()));
+
+            Map<String, Object> expected = new TreeMap<>();
+            attributes.forEach((compoundName, convertTo) -> attributeWalk(source, expected, compoundName, convertTo));
+            removeEmptyValues(expected);
+
+            Map<String, Object> result = new TreeMap<>();
+            AttributeMappingPlan.compile(attributes).apply(source, result);
+
+            assertEquals(expected, result);
+            assertEquals(attributes.size(), AttributeMappingPlan.compile(attributes).size());
+        });
+        assertEquals(EngineBlockFormatter.commonAttributes.size(), plan.size());
+    }
+
+    /*
+     * The attribute walk of the EngineBlockFormatter before the mappings were compiled into a plan
+     */
+    private void attributeWalk(Map<String, Object> source,
+                               Map<String, Object> result,
+                               String compoundName,
+                               Optional<String> convertTo) {
+        List<String> parts = Arrays.asList(compoundName.split(":"));
+        if (parts.size() == 1) {
+            Object o = source.get(compoundName);
+            if (o != null) {
+                result.put(convertTo.orElse(compoundName), EngineBlockFormatter.parseValueToString(o));
+            }
+            return;
+        }
+        Iterator<String> iterator = parts.iterator();
+        Object value = null;
+        while (iterator.hasNext()) {
+            String part = iterator.next();
+            if (part.equals("metadata")) {
+                result = (Map<String, Object>) result.computeIfAbsent(part, key -> new TreeMap<>());
+                value = ((Map) source.get("metaDataFields")).get(compoundName.substring("metadata:".length()));
+            } else {
+                if (iterator.hasNext()) {
+                    result = (Map<String, Object>) result.computeIfAbsent(part, key -> new TreeMap<>());
+                } else if (value != null) {
+                    result.put(convertTo.orElse(part), EngineBlockFormatter.parseValueToString(value));
+                }
+            }
+        }
+    }
+
+    private void removeEmptyValues(Map<String, Object> result) {
+        result.entrySet().removeIf(entry -> {
+            if (entry.getValue() instanceof Map) {
+                Map<String, Object> map = (Map<String, Object>) entry.getValue();
+                removeEmptyValues(map);
+                return map.isEmpty();
+            }
+            return false;
+        });
+    }
+}
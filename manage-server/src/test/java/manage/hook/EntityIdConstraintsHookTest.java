@@ -0,0 +1,82 @@
+package manage.hook;
+
+import manage.TestUtils;
+import manage.model.EntityType;
+import manage.model.MetaData;
+import manage.repository.EntityIdDirectory;
+import manage.repository.MetaDataRepository;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.util.*;
+import java.util.stream.IntStream;
+
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toSet;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@SuppressWarnings("unchecked")
+public class EntityIdConstraintsHookTest implements TestUtils {
+
+    private static final int REFERENCES = 5_000;
+
+    private final MetaDataRepository metaDataRepository = Mockito.mock(MetaDataRepository.class);
+    private final EntityIdDirectory entityIdDirectory = Mockito.mock(EntityIdDirectory.class);
+    private final EntityIdConstraintsHook subject = new EntityIdConstraintsHook(metaDataRepository, entityIdDirectory);
+
+    @Test
+    public void oneQueryPerCollection() {
+        //The even references are service providers, every tenth reference is a relying party
+        when(metaDataRepository.findExistingEntityIds(eq(EntityType.SP.getType()), any()))
+                .thenAnswer(invocation -> ((Set<String>) invocation.getArgument(1)).stream()
+                        .filter(entityId -> index(entityId) % 2 == 0)
+                        .collect(toSet()));
+        when(metaDataRepository.findExistingEntityIds(eq(EntityType.RP.getType()), any()))
+                .thenAnswer(invocation -> ((Set<String>) invocation.getArgument(1)).stream()
+                        .filter(entityId -> index(entityId) % 10 == 5)
+                        .collect(toSet()));
+
+        MetaData identityProvider = subject.prePut(null, identityProvider(), apiUser());
+
+        List<Map<String, String>> allowedEntities = (List<Map<String, String>>) identityProvider.getData().get("allowedEntities");
+        assertEquals(REFERENCES / 2 + REFERENCES / 10, allowedEntities.size());
+        verify(metaDataRepository, times(1)).findExistingEntityIds(eq(EntityType.SP.getType()), any());
+        verify(metaDataRepository, times(1)).findExistingEntityIds(eq(EntityType.RP.getType()), any());
+        //Previously one query per reference and collection
+        verify(metaDataRepository, never()).findRaw(anyString(), anyString());
+    }
+
+    @Test
+    public void entityIdDirectory() {
+        when(entityIdDirectory.isEnabled()).thenReturn(true);
+        when(entityIdDirectory.exists(eq(EntityType.SP.getType()), anyString()))
+                .thenAnswer(invocation -> index(invocation.getArgument(1)) < 10);
+
+        MetaData identityProvider = subject.prePost(identityProvider(), apiUser());
+
+        List<Map<String, String>> allowedEntities = (List<Map<String, String>>) identityProvider.getData().get("allowedEntities");
+        assertEquals(10, allowedEntities.size());
+        verify(entityIdDirectory, times(1)).synchronize();
+        verify(metaDataRepository, never()).findExistingEntityIds(anyString(), any());
+    }
+
+    private MetaData identityProvider() {
+        Map<String, Object> data = new HashMap<>();
+        data.put("entityid", "https://idp");
+        data.put("allowedEntities", IntStream.range(0, REFERENCES)
+                .mapToObj(i -> new HashMap<>(Map.of("name", "https://sp/" + i)))
+                .collect(toList()));
+        return new MetaData(EntityType.IDP.getType(), data);
+    }
+
+    private int index(String entityId) {
+        return Integer.parseInt(entityId.substring(entityId.lastIndexOf('/') + 1));
+    }
+}
@@ -0,0 +1,48 @@
+package manage.policies;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import manage.TestUtils;
+import manage.model.EntityType;
+import manage.model.MetaData;
+import manage.model.Revision;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class PdpPolicyDefinitionTest implements TestUtils {
+
+    @Test
+    public void metaDataFieldsProjection() throws Exception {
+        List<MetaData> policies = objectMapper.readValue(readFile("json/meta_data_seed.json"),
+                        new TypeReference<List<MetaData>>() {
+                        }).stream()
+                .filter(metaData -> metaData.getType().equals(EntityType.PDP.getType()))
+                .collect(Collectors.toList());
+        assertFalse(policies.isEmpty());
+
+        for (MetaData policy : policies) {
+            PdpPolicyDefinition expected = new PdpPolicyDefinition(policy);
+            PdpPolicyDefinition projected = new PdpPolicyDefinition(project(policy));
+            assertEquals(objectMapper.writeValueAsString(expected), objectMapper.writeValueAsString(projected));
+        }
+    }
+
+    private MetaData project(MetaData metaData) {
+        Map<String, Object> data = new HashMap<>();
+        Arrays.stream(PdpPolicyDefinition.METADATA_FIELDS)
+                .filter(field -> field.startsWith("data."))
+                .map(field -> field.substring("data.".length()))
+                .filter(name -> metaData.getData().containsKey(name))
+                .forEach(name -> data.put(name, metaData.getData().get(name)));
+        Revision revision = metaData.getRevision();
+        return new MetaData(metaData.getId(), null, null,
+                new Revision(revision.getNumber(), revision.getCreated(), null, null), data);
+    }
+}
@@ -0,0 +1,56 @@
+package manage.push;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ConnectionsDeltaTest {
+
+    @Test
+    public void between() {
+        Map<String, Map<String, Object>> previous = new HashMap<>();
+        previous.put("1", connection("https://sp1", "prodaccepted"));
+        previous.put("2", connection("https://sp2", "prodaccepted"));
+        previous.put("3", connection("https://sp3", "prodaccepted"));
+
+        Map<String, Map<String, Object>> current = new HashMap<>();
+        current.put("1", connection("https://sp1", "prodaccepted"));
+        current.put("2", connection("https://sp2", "testaccepted"));
+        current.put("4", connection("https://sp4", "prodaccepted"));
+
+        ConnectionsDelta delta = ConnectionsDelta.between(
+                ConnectionsDelta.hashes(previous), ConnectionsDelta.hashes(current), current);
+
+        assertFalse(delta.isEmpty());
+        assertEquals(2, delta.getChangedConnections().size());
+        assertEquals("testaccepted", delta.getChangedConnections().get("2").get("state"));
+        assertTrue(delta.getChangedConnections().containsKey("4"));
+        assertEquals(List.of("3"), delta.getRemovedConnections());
+    }
+
+    @Test
+    public void hashesAreIndependentOfMapOrdering() {
+        Map<String, Object> connection = connection("https://sp1", "prodaccepted");
+        Map<String, Object> reversed = new HashMap<>();
+        reversed.put("state", "prodaccepted");
+        reversed.put("name", "https://sp1");
+
+        Map<String, String> hashes = ConnectionsDelta.hashes(Map.of("1", connection));
+        Map<String, String> reversedHashes = ConnectionsDelta.hashes(Map.of("1", reversed));
+
+        assertTrue(ConnectionsDelta.between(hashes, reversedHashes, Map.of("1", reversed)).isEmpty());
+    }
+
+    private Map<String, Object> connection(String name, String state) {
+        Map<String, Object> connection = new HashMap<>();
+        connection.put("name", name);
+        connection.put("state", state);
+        return connection;
+    }
+}
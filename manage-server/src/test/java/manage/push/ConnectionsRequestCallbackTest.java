@@ -0,0 +1,49 @@
+package manage.push;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.mock.http.client.MockClientHttpRequest;
+
+import java.io.ByteArrayInputStream;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+
+@SuppressWarnings("unchecked")
+public class ConnectionsRequestCallbackTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final ConnectionSource connectionSource = consumer -> {
+        consumer.accept("1", Map.of("name", "https://sp1", "type", "saml20-sp"));
+        consumer.accept("2", Map.of("name", "https://idp1", "type", "saml20-idp"));
+    };
+
+    @Test
+    public void doWithRequest() throws Exception {
+        MockClientHttpRequest request = new MockClientHttpRequest();
+        new ConnectionsRequestCallback(objectMapper, connectionSource).doWithRequest(request);
+
+        assertEquals(MediaType.APPLICATION_JSON, request.getHeaders().getContentType());
+
+        Map<String, Map<String, Map<String, Object>>> json = objectMapper.readValue(request.getBodyAsBytes(), Map.class);
+        Map<String, Map<String, Object>> connections = json.get("connections");
+        assertEquals(2, connections.size());
+        assertEquals("https://idp1", connections.get("2").get("name"));
+    }
+
+    @Test
+    public void doWithRequestGzip() throws Exception {
+        MockClientHttpRequest request = new MockClientHttpRequest();
+        new ConnectionsRequestCallback(objectMapper, connectionSource, true).doWithRequest(request);
+
+        assertEquals("gzip", request.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+
+        GZIPInputStream inputStream = new GZIPInputStream(new ByteArrayInputStream(request.getBodyAsBytes()));
+        Map<String, Map<String, Map<String, Object>>> json = objectMapper.readValue(inputStream, Map.class);
+        assertEquals("https://sp1", json.get("connections").get("1").get("name"));
+    }
+}
@@ -0,0 +1,73 @@
+package manage.push;
+
+import manage.model.MetaData;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class FormattedConnectionCacheTest {
+
+    private final AtomicInteger formatted = new AtomicInteger();
+
+    private final Function<MetaData, Map<String, Object>> formatter = metaData -> {
+        formatted.incrementAndGet();
+        return Map.of("name", metaData.getId());
+    };
+
+    @Test
+    public void get() {
+        FormattedConnectionCache subject = new FormattedConnectionCache(10);
+        Map<String, Object> connection = subject.get(metaData("1", 0L), formatter);
+        assertSame(connection, subject.get(metaData("1", 0L), formatter));
+        assertEquals(1, formatted.get());
+
+        subject.get(metaData("1", 1L), formatter);
+        assertEquals(2, formatted.get());
+
+        subject.invalidate("1");
+        subject.get(metaData("1", 1L), formatter);
+        assertEquals(3, formatted.get());
+
+        Map<String, Object> statistics = subject.statistics();
+        assertEquals(1L, statistics.get("hits"));
+        assertEquals(3L, statistics.get("misses"));
+        assertEquals(1, statistics.get("size"));
+    }
+
+    @Test
+    public void bounded() {
+        FormattedConnectionCache subject = new FormattedConnectionCache(2);
+        subject.get(metaData("1", 0L), formatter);
+        subject.get(metaData("2", 0L), formatter);
+        //Least recently used is now 2
+        subject.get(metaData("1", 0L), formatter);
+        subject.get(metaData("3", 0L), formatter);
+        assertEquals(2, subject.size());
+        assertEquals(1L, subject.statistics().get("evictions"));
+
+        subject.get(metaData("1", 0L), formatter);
+        assertEquals(3, formatted.get());
+
+        subject.invalidateAll();
+        assertEquals(0, subject.size());
+    }
+
+    @Test
+    public void disabled() {
+        FormattedConnectionCache subject = new FormattedConnectionCache(0);
+        subject.get(metaData("1", 0L), formatter);
+        subject.get(metaData("1", 0L), formatter);
+        assertEquals(2, formatted.get());
+        assertEquals(0, subject.size());
+    }
+
+    private MetaData metaData(String id, Long version) {
+        return new MetaData(id, version, "saml20_sp", null, new HashMap<>());
+    }
+}
@@ -0,0 +1,71 @@
+package manage.push;
+
+import manage.model.MetaData;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+
+public class FormattingPipelineTest {
+
+    private final FormattingPipeline subject = new FormattingPipeline(4, 7);
+
+    @After
+    public void after() {
+        subject.shutdown();
+    }
+
+    @Test
+    public void formatPreservesOrder() throws Exception {
+        List<MetaData> metaData = IntStream.range(0, 100)
+                .mapToObj(i -> new MetaData(String.valueOf(i), 0L, "saml20_sp", null, new HashMap<>()))
+                .collect(Collectors.toList());
+        List<String> identifiers = new ArrayList<>();
+        FormattingStatistics statistics = subject.newStatistics();
+
+        subject.format(metaData.iterator(),
+                md -> Integer.parseInt(md.getId()) % 10 != 0,
+                md -> {
+                    sleep();
+                    return Map.of("name", md.getId());
+                },
+                (id, connection) -> {
+                    assertEquals(id, connection.get("name"));
+                    identifiers.add(id);
+                },
+                statistics);
+
+        List<String> expected = IntStream.range(0, 100)
+                .filter(i -> i % 10 != 0)
+                .mapToObj(String::valueOf)
+                .collect(Collectors.toList());
+        assertEquals(expected, identifiers);
+        assertEquals(90L, statistics.getConnections().get());
+        assertEquals(4, statistics.getParallelism());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void formatPropagatesExceptions() throws Exception {
+        List<MetaData> metaData = List.of(new MetaData(String.valueOf(1), 0L, "saml20_sp", null, new HashMap<>()));
+        subject.format(metaData.iterator(), md -> true, md -> {
+            throw new IllegalArgumentException();
+        }, (id, connection) -> {
+        }, subject.newStatistics());
+    }
+
+    private void sleep() {
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextInt(3));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
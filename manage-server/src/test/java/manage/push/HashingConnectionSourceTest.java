@@ -0,0 +1,49 @@
+package manage.push;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class HashingConnectionSourceTest {
+
+    @Test
+    public void digestOfWrittenConnections() throws Exception {
+        AtomicInteger passes = new AtomicInteger();
+        ConnectionSource connectionSource = consumer -> {
+            int pass = passes.incrementAndGet();
+            consumer.accept("1", Map.of("name", "https://sp" + pass));
+            consumer.accept("2", Map.of("name", "https://idp"));
+        };
+        HashingConnectionSource subject = new HashingConnectionSource(connectionSource);
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        new ConnectionsRequestCallback(new ObjectMapper(), subject).writeTo(body);
+
+        //The digest describes the written connections, the source is read only once
+        assertEquals(1, passes.get());
+        Map<String, Map<String, Object>> connections = new ObjectMapper()
+                .readValue(body.toByteArray(), new TypeReference<Map<String, Map<String, Map<String, Object>>>>() {
+                })
+                .get("connections");
+        assertEquals(PayloadDigest.digest(ConnectionsDelta.hashes(connections)), subject.digest());
+    }
+
+    @Test
+    public void hashesOfLastPass() throws Exception {
+        AtomicInteger passes = new AtomicInteger();
+        HashingConnectionSource subject = new HashingConnectionSource(consumer ->
+                consumer.accept(String.valueOf(passes.incrementAndGet()), Map.of("name", "https://sp")));
+        subject.forEachConnection((id, connection) -> {});
+        String digest = subject.digest();
+        subject.forEachConnection((id, connection) -> {});
+
+        assertEquals(Map.of("2", ConnectionsDelta.hash(Map.of("name", "https://sp"))), subject.getHashes());
+        assertNotEquals(digest, subject.digest());
+    }
+}
@@ -0,0 +1,35 @@
+package manage.push;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+import org.springframework.mock.http.client.MockClientHttpRequest;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class JsonArrayRequestCallbackTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    public void doWithRequest() throws Exception {
+        AtomicBoolean closed = new AtomicBoolean();
+        MockClientHttpRequest request = new MockClientHttpRequest();
+        new JsonArrayRequestCallback(objectMapper,
+                () -> Stream.of(Map.of("name", "first"), Map.of("name", "second")).onClose(() -> closed.set(true)),
+                false).doWithRequest(request);
+
+        List<Map<String, Object>> json = objectMapper.readValue(request.getBodyAsBytes(),
+                new TypeReference<List<Map<String, Object>>>() {
+                });
+        assertEquals(2, json.size());
+        assertEquals("second", json.get(1).get("name"));
+        assertTrue(closed.get());
+    }
+}
@@ -0,0 +1,41 @@
+package manage.push;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.mock.http.client.MockClientHttpRequest;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class JsonRequestCallbackTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final List<Map<String, Object>> payload = List.of(Map.of("name", "policy"));
+
+    @Test
+    public void doWithRequest() throws Exception {
+        MockClientHttpRequest request = new MockClientHttpRequest();
+        new JsonRequestCallback(objectMapper, payload, false).doWithRequest(request);
+
+        assertEquals(MediaType.APPLICATION_JSON, request.getHeaders().getContentType());
+        assertNull(request.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+        assertEquals(payload, objectMapper.readValue(request.getBodyAsBytes(), List.class));
+    }
+
+    @Test
+    public void doWithRequestGzip() throws Exception {
+        MockClientHttpRequest request = new MockClientHttpRequest();
+        new JsonRequestCallback(objectMapper, payload, true).doWithRequest(request);
+
+        assertEquals("gzip", request.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+        GZIPInputStream inputStream = new GZIPInputStream(new ByteArrayInputStream(request.getBodyAsBytes()));
+        assertEquals(payload, objectMapper.readValue(inputStream, List.class));
+    }
+}
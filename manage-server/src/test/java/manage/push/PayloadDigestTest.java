@@ -0,0 +1,65 @@
+package manage.push;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class PayloadDigestTest {
+
+    private final PayloadDigest subject = new PayloadDigest(new ObjectMapper());
+
+    @Test
+    public void digestIgnoresMapOrder() throws Exception {
+        Map<String, Object> first = new LinkedHashMap<>();
+        first.put("name", "https://sp");
+        first.put("type", "saml20-sp");
+        Map<String, Object> second = new LinkedHashMap<>();
+        second.put("type", "saml20-sp");
+        second.put("name", "https://sp");
+
+        String digest = subject.digest(List.of(first));
+        assertEquals(64, digest.length());
+        assertEquals(digest, subject.digest(List.of(second)));
+
+        second.put("name", "https://sp2");
+        assertNotEquals(digest, subject.digest(List.of(second)));
+    }
+
+    @Test
+    public void digestConnections() throws Exception {
+        ConnectionSource connectionSource = consumer -> {
+            consumer.accept("1", new TreeMap<>(Map.of("name", "https://sp1")));
+            consumer.accept("2", new TreeMap<>(Map.of("name", "https://idp1")));
+        };
+        assertEquals(subject.digest(connectionSource), subject.digest(connectionSource));
+        assertEquals(subject.digest(Map.of("connections", Map.of(
+                        "1", Map.of("name", "https://sp1"),
+                        "2", Map.of("name", "https://idp1")))),
+                subject.digest(connectionSource));
+    }
+
+    @Test
+    public void elementsDigest() throws Exception {
+        List<Map<String, Object>> elements = List.of(Map.of("name", "first", "active", true), Map.of("name", "second"));
+        PayloadDigest.ElementsDigest elementsDigest = subject.elementsDigest();
+        elements.forEach(elementsDigest::add);
+        assertEquals(subject.digestElements(elements::stream), elementsDigest.digest());
+    }
+
+    @Test
+    public void digestConnectionHashes() {
+        Map<String, String> hashes = new HashMap<>(Map.of("1", "a", "2", "b"));
+        String digest = PayloadDigest.digest(hashes);
+        assertEquals(digest, PayloadDigest.digest(new TreeMap<>(hashes)));
+        hashes.put("2", "c");
+        assertNotEquals(digest, PayloadDigest.digest(hashes));
+    }
+}
@@ -0,0 +1,115 @@
+package manage.push;
+
+import manage.model.PushOptions;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class PushCoordinatorTest {
+
+    private final List<PushOptions> pushes = new CopyOnWriteArrayList<>();
+    private final List<List<String>> initiators = new CopyOnWriteArrayList<>();
+    private final AtomicInteger concurrentPushes = new AtomicInteger();
+    private final AtomicInteger maxConcurrentPushes = new AtomicInteger();
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private PushCoordinator subject;
+
+    @After
+    public void after() {
+        subject.shutdown();
+    }
+
+    @Test
+    public void coalesce() throws InterruptedException {
+        subject = new PushCoordinator(this::push, 0);
+        PushRequest first = subject.submit(new PushOptions(true, false, false), "first");
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        PushRequest second = subject.submit(new PushOptions(false, true, false), "second");
+        PushRequest third = subject.submit(new PushOptions(false, false, true), "third");
+        assertNotSame(first, second);
+        assertSame(second, third);
+        assertEquals(PushRequest.Status.QUEUED, second.getStatus());
+        release.countDown();
+
+        assertEquals(HttpStatus.OK, first.await().getStatusCode());
+        assertEquals(HttpStatus.OK, third.await().getStatusCode());
+
+        assertEquals(2, pushes.size());
+        PushOptions merged = pushes.get(1);
+        assertTrue(merged.isIncludeOIDC() && merged.isIncludePdP() && !merged.isIncludeEB());
+        assertEquals(1, maxConcurrentPushes.get());
+        assertEquals(2, subject.find(third.getId()).get().getCallers());
+        assertEquals(List.of("second", "third"), initiators.get(1));
+        assertEquals("done", subject.find(first.getId()).get().toMap().get("status"));
+    }
+
+    @Test
+    public void debounce() {
+        release.countDown();
+        subject = new PushCoordinator(this::push, 250);
+        PushRequest first = subject.submit(new PushOptions(true, false, false), "first");
+        PushRequest second = subject.submit(new PushOptions(true, true, false), "first");
+        assertSame(first, second);
+        second.await();
+        assertEquals(1, pushes.size());
+        assertEquals(List.of("first"), first.getInitiators());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void failure() {
+        subject = new PushCoordinator((pushOptions, initiators) -> {
+            throw new IllegalStateException();
+        }, 0);
+        subject.submit(new PushOptions(true, false, false), "test").await();
+    }
+
+    @Test
+    public void error() {
+        release.countDown();
+        AtomicInteger attempts = new AtomicInteger();
+        subject = new PushCoordinator((pushOptions, pushInitiators) -> {
+            if (attempts.incrementAndGet() == 1) {
+                throw new StackOverflowError();
+            }
+            return push(pushOptions, pushInitiators);
+        }, 0);
+        PushRequest first = subject.submit(new PushOptions(true, false, false), "first");
+        assertThrows(StackOverflowError.class, first::await);
+        assertEquals(PushRequest.Status.FAILED, first.getStatus());
+
+        //The failed push does not block the next push
+        PushRequest second = subject.submit(new PushOptions(true, false, false), "second");
+        assertEquals(HttpStatus.OK, second.await().getStatusCode());
+    }
+
+    private ResponseEntity<Map> push(PushOptions pushOptions, List<String> pushInitiators) {
+        maxConcurrentPushes.accumulateAndGet(concurrentPushes.incrementAndGet(), Math::max);
+        pushes.add(pushOptions);
+        initiators.add(pushInitiators);
+        started.countDown();
+        try {
+            release.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        concurrentPushes.decrementAndGet();
+        return new ResponseEntity<>(Map.of("status", "OK"), HttpStatus.OK);
+    }
+}
@@ -0,0 +1,92 @@
+package manage.push;
+
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PushFanOutTest {
+
+    private final PushFanOut subject = new PushFanOut(1);
+
+    @After
+    public void after() {
+        subject.shutdown();
+    }
+
+    @Test
+    public void pushConcurrently() {
+        //Each target waits for the others, so this only succeeds if the targets are pushed concurrently
+        CountDownLatch latch = new CountDownLatch(3);
+        PushTask task = (details, stages) -> {
+            latch.countDown();
+            details.put("concurrent", latch.await(5, TimeUnit.SECONDS));
+            return true;
+        };
+        List<PushOutcome> outcomes = subject.push(List.of(
+                new PushTarget("pdp", 0, task),
+                new PushTarget("eb", 0, task),
+                new PushTarget("oidc", 0, task)));
+
+        assertEquals(3, outcomes.size());
+        assertEquals("eb", outcomes.get(1).getTarget());
+        outcomes.forEach(outcome -> {
+            assertTrue(outcome.isSuccess());
+            assertEquals(true, outcome.getDetails().get("concurrent"));
+            assertEquals("OK", outcome.toMap().get("status"));
+        });
+    }
+
+    @Test
+    public void retry() {
+        AtomicInteger attempts = new AtomicInteger();
+        List<PushOutcome> outcomes = subject.push(List.of(new PushTarget("eb", 2, (details, stages) -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw new ResourceAccessException("Read timed out");
+            }
+            return true;
+        })));
+        PushOutcome outcome = outcomes.get(0);
+        assertTrue(outcome.isSuccess());
+        assertEquals(3, outcome.getAttempts());
+    }
+
+    @Test
+    public void retriesExhausted() {
+        List<PushOutcome> outcomes = subject.push(List.of(new PushTarget("eb", 1, (details, stages) -> {
+            throw new ResourceAccessException("Connection refused");
+        })));
+        PushOutcome outcome = outcomes.get(0);
+        assertFalse(outcome.isSuccess());
+        assertEquals(2, outcome.getAttempts());
+        assertEquals("FAILED", outcome.toMap().get("status"));
+        assertEquals("Connection refused", outcome.toMap().get("error"));
+    }
+
+    @Test
+    public void notModified() {
+        List<PushOutcome> outcomes = subject.push(List.of(new PushTarget("oidc", 1, (details, stages) -> false)));
+        PushOutcome outcome = outcomes.get(0);
+        assertTrue(outcome.isSuccess());
+        assertFalse(outcome.isModified());
+        assertEquals("not_modified", outcome.toMap().get("status"));
+    }
+
+    @Test
+    public void noRetryOnClientError() {
+        List<PushOutcome> outcomes = subject.push(List.of(new PushTarget("pdp", 3, (details, stages) -> {
+            throw new HttpClientErrorException(HttpStatus.BAD_REQUEST);
+        })));
+        assertEquals(1, outcomes.get(0).getAttempts());
+    }
+}
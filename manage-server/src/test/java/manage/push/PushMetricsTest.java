@@ -0,0 +1,34 @@
+package manage.push;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class PushMetricsTest {
+
+    @Test
+    public void record() {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        PushStages stages = new PushStages();
+        stages.add(PushStages.LOAD, TimeUnit.MILLISECONDS.toNanos(5));
+        stages.addBody(TimeUnit.MILLISECONDS.toNanos(3), TimeUnit.MILLISECONDS.toNanos(2), 2048L);
+        PushOutcome outcome = new PushOutcome("eb", true, true, 1, 10L, Map.of(), stages, null);
+
+        new PushMetrics(meterRegistry).record(12L, "OK", List.of(outcome));
+
+        assertEquals(12D, meterRegistry.get("manage.push").tag("status", "OK").timer()
+                .totalTime(TimeUnit.MILLISECONDS), 0.1D);
+        assertEquals(10D, meterRegistry.get("manage.push.target").tags("target", "eb", "status", "OK").timer()
+                .totalTime(TimeUnit.MILLISECONDS), 0.1D);
+        assertEquals(5D, meterRegistry.get("manage.push.stage").tags("target", "eb", "stage", "load").timer()
+                .totalTime(TimeUnit.MILLISECONDS), 0.1D);
+        assertEquals(2D, meterRegistry.get("manage.push.stage").tags("target", "eb", "stage", "transmit").timer()
+                .totalTime(TimeUnit.MILLISECONDS), 0.1D);
+        assertEquals(2048D, meterRegistry.get("manage.push.payload").summary().totalAmount(), 0.1D);
+    }
+}
@@ -0,0 +1,289 @@
+package manage.push;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import manage.TestUtils;
+import manage.model.ChangeEvent;
+import manage.model.EntityType;
+import manage.model.MetaData;
+import manage.model.MetaDataChangedEvent;
+import manage.repository.ChangeEventRepository;
+import manage.repository.MetaDataRepository;
+import org.bson.Document;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.util.CloseableIterator;
+
+import java.io.File;
+import java.time.Instant;
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.when;
+
+@SuppressWarnings("unchecked")
+public class PushSnapshotTest implements TestUtils {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final MongoTemplate mongoTemplate = Mockito.mock(MongoTemplate.class);
+    private final ChangeEventRepository changeEventRepository = Mockito.mock(ChangeEventRepository.class);
+    private final List<ChangeEvent> changeEvents = new ArrayList<>();
+    private final FormattingPipeline formattingPipeline = new FormattingPipeline(2, 3);
+    private final Map<String, TreeMap<String, MetaData>> database = new HashMap<>();
+    private final List<String> streamedIdentifiers = new ArrayList<>();
+
+    private EngineBlockConnections engineBlockConnections;
+
+    @Before
+    public void before() throws Exception {
+        List<MetaData> metaDataList = objectMapper.readValue(readFile("json/meta_data_seed.json"),
+                new TypeReference<List<MetaData>>() {
+                });
+        metaDataList.forEach(metaData -> {
+            metaData.setVersion(0L);
+            database.computeIfAbsent(metaData.getType(), type -> new TreeMap<>()).put(metaData.getId(), metaData);
+        });
+        when(mongoTemplate.stream(any(Query.class), eq(MetaData.class), anyString()))
+                .thenAnswer(invocation -> stream(invocation.getArgument(0), invocation.getArgument(2), this::copy));
+        when(mongoTemplate.stream(any(Query.class), eq(Document.class), anyString()))
+                .thenAnswer(invocation -> stream(invocation.getArgument(0), invocation.getArgument(2),
+                        metaData -> new Document("_id", metaData.getId()).append("version", metaData.getVersion())));
+        when(mongoTemplate.findById(anyString(), eq(MetaData.class), anyString()))
+                .thenAnswer(invocation -> Optional.ofNullable(collection(invocation.getArgument(2))
+                        .get((String) invocation.getArgument(0))).map(this::copy).orElse(null));
+        when(changeEventRepository.append(any(MetaDataChangedEvent.class)))
+                .thenAnswer(invocation -> append(invocation.getArgument(0)));
+        when(changeEventRepository.findAfter(anyLong(), anyInt()))
+                .thenAnswer(invocation -> changeEvents.stream()
+                        .filter(changeEvent -> changeEvent.getCursor() > (long) invocation.getArgument(0))
+                        .limit((int) invocation.getArgument(1))
+                        .collect(Collectors.toList()));
+        when(changeEventRepository.latestCursor()).thenAnswer(invocation -> (long) changeEvents.size());
+        engineBlockConnections = new EngineBlockConnections(mongoTemplate, formattingPipeline,
+                new FormattedConnectionCache(100), true, false);
+    }
+
+    @After
+    public void after() {
+        formattingPipeline.shutdown();
+    }
+
+    @Test
+    public void snapshotIsEquivalentToFullFormatting() throws Exception {
+        PushSnapshot subject = snapshot(null);
+        Map<String, Map<String, Object>> connections = connections(subject);
+        Map<String, Map<String, Object>> expected = new LinkedHashMap<>();
+        engineBlockConnections.forEachConnection(expected::put);
+
+        assertEquals(expected, connections);
+        assertEquals(new ArrayList<>(expected.keySet()), new ArrayList<>(connections.keySet()));
+        assertEquals(true, subject.verify().get("consistent"));
+    }
+
+    @Test
+    public void onlyChangedMetaDataIsFormattedAgain() throws Exception {
+        PushSnapshot subject = snapshot(null);
+        connections(subject);
+
+        MetaData serviceProvider = collection(EntityType.SP.getType()).get("1");
+        serviceProvider.metaDataFields().put("name:en", "Changed");
+        serviceProvider.setVersion(1L);
+        collection(EntityType.IDP.getType()).remove("6");
+        streamedIdentifiers.clear();
+
+        //A push does not compare the snapshot with the database
+        connections(subject);
+        assertTrue(streamedIdentifiers.isEmpty());
+        assertTrue(changeEvents.isEmpty());
+
+        subject.synchronize(new FormattingStatistics(1));
+        Map<String, Map<String, Object>> connections = connections(subject);
+        assertEquals(List.of("1"), streamedIdentifiers);
+        //The direct changes are appended to the outbox for the other instances
+        assertEquals(List.of("1", "6"), changeEvents.stream().map(ChangeEvent::getMetaDataId).sorted().collect(Collectors.toList()));
+        Map<String, Object> metadata = (Map<String, Object>) connections.get("1").get("metadata");
+        assertEquals("Changed", ((Map<String, Object>) metadata.get("name")).get("en"));
+        assertFalse(connections.containsKey("6"));
+    }
+
+    @Test
+    public void changeEvent() throws Exception {
+        PushSnapshot subject = snapshot(null);
+        connections(subject);
+
+        MetaData serviceProvider = collection(EntityType.SP.getType()).get("1");
+        serviceProvider.metaDataFields().put("coin:exclude_from_push", true);
+        serviceProvider.setVersion(1L);
+        String watermark = subject.feed(null).getWatermark();
+        append(MetaDataChangedEvent.of(MetaDataChangedEvent.Operation.UPDATE, serviceProvider));
+        streamedIdentifiers.clear();
+
+        //The feed applies the change event without comparing the versions
+        ConnectionsFeed delta = subject.feed(watermark);
+        assertEquals(List.of("1"), streamedIdentifiers);
+        assertEquals(List.of("1"), delta.getRemoved());
+        assertEquals("1", delta.getWatermark());
+
+        Map<String, Map<String, Object>> connections = connections(subject);
+        //The change is applied, so the synchronization has nothing to read
+        assertEquals(List.of("1"), streamedIdentifiers);
+        assertFalse(connections.containsKey("1"));
+    }
+
+    @Test
+    public void resyncMarker() throws Exception {
+        PushSnapshot subject = snapshot(null);
+        String watermark = subject.feed(null).getWatermark();
+
+        //The change is not appended to the outbox
+        MetaData serviceProvider = collection(EntityType.SP.getType()).get("1");
+        serviceProvider.metaDataFields().put("name:en", "Changed");
+        serviceProvider.setVersion(1L);
+        append(new MetaDataChangedEvent(MetaDataChangedEvent.Operation.RESYNC, null, null, null, null));
+
+        ConnectionsFeed delta = subject.feed(watermark);
+        assertTrue(delta.isDelta());
+        assertEquals(Set.of("1"), delta.getConnections().keySet());
+    }
+
+    @Test
+    public void persist() throws Exception {
+        File file = new File(temporaryFolder.getRoot(), "push_snapshot.json.gz");
+        PushSnapshot subject = snapshot(file.getAbsolutePath());
+        Map<String, Map<String, Object>> expected = connections(subject);
+        subject.persist();
+        assertTrue(file.exists());
+
+        PushSnapshot loaded = snapshot(file.getAbsolutePath());
+        streamedIdentifiers.clear();
+        Map<String, Map<String, Object>> connections = connections(loaded);
+        assertTrue(streamedIdentifiers.isEmpty());
+        assertEquals(objectMapper.writeValueAsString(expected), objectMapper.writeValueAsString(connections));
+        assertEquals(subject.feed(null).getWatermark(), loaded.feed(null).getWatermark());
+    }
+
+    @Test
+    public void feed() throws Exception {
+        PushSnapshot subject = snapshot(null);
+        ConnectionsFeed full = subject.feed(null);
+        assertFalse(full.isDelta());
+        assertEquals(connections(subject), full.getConnections());
+
+        ConnectionsFeed unchanged = subject.feed(full.getWatermark());
+        assertTrue(unchanged.isDelta());
+        assertTrue(unchanged.getConnections().isEmpty());
+        assertTrue(unchanged.getRemoved().isEmpty());
+        assertEquals(full.getEtag(), unchanged.getEtag());
+
+        MetaData serviceProvider = collection(EntityType.SP.getType()).get("1");
+        serviceProvider.metaDataFields().put("name:en", "Changed");
+        serviceProvider.setVersion(1L);
+        collection(EntityType.IDP.getType()).remove("6");
+        //The direct changes are found by the synchronization on the refresh interval
+        subject.synchronize(new FormattingStatistics(1));
+
+        ConnectionsFeed delta = subject.feed(full.getWatermark());
+        assertTrue(delta.isDelta());
+        assertEquals(Set.of("1"), delta.getConnections().keySet());
+        assertEquals(List.of("6"), delta.getRemoved());
+        assertFalse(full.getEtag().equals(delta.getEtag()));
+        assertFalse(full.getWatermark().equals(delta.getWatermark()));
+    }
+
+    @Test
+    public void feedWithWatermarkOfOtherInstance() throws Exception {
+        PushSnapshot subject = snapshot(null);
+        PushSnapshot other = snapshot(null);
+        other.feed(null);
+        MetaData serviceProvider = collection(EntityType.SP.getType()).get("1");
+        serviceProvider.metaDataFields().put("name:en", "Changed");
+        serviceProvider.setVersion(1L);
+        other.synchronize(new FormattingStatistics(1));
+
+        //The watermark is the cursor of the shared outbox
+        ConnectionsFeed feed = subject.feed(other.feed(null).getWatermark());
+        assertTrue(feed.isDelta());
+        assertTrue(feed.getConnections().isEmpty());
+        //The ETag only depends on the MetaData
+        assertEquals(other.etag(), subject.etag());
+    }
+
+    @Test
+    public void feedWithUnknownWatermark() throws Exception {
+        PushSnapshot subject = snapshot(null);
+        Map<String, Map<String, Object>> connections = connections(subject);
+        assertFalse(subject.feed("nope").isDelta());
+        assertFalse(subject.feed("k3f9a.12").isDelta());
+        ConnectionsFeed ahead = subject.feed("999");
+        assertFalse(ahead.isDelta());
+        assertEquals(connections, ahead.getConnections());
+    }
+
+    private PushSnapshot snapshot(String file) {
+        return new PushSnapshot(new MetaDataRepository(mongoTemplate, "en,nl"), changeEventRepository,
+                engineBlockConnections, formattingPipeline, objectMapper, true, file, 0L, 5000L);
+    }
+
+    private ChangeEvent append(MetaDataChangedEvent event) {
+        ChangeEvent changeEvent = ChangeEvent.of(changeEvents.size() + 1, event, Instant.now());
+        changeEvents.add(changeEvent);
+        return changeEvent;
+    }
+
+    private Map<String, Map<String, Object>> connections(PushSnapshot subject) throws Exception {
+        Map<String, Map<String, Object>> connections = new LinkedHashMap<>();
+        subject.forEachConnection(connections::put);
+        return connections;
+    }
+
+    private TreeMap<String, MetaData> collection(String type) {
+        return database.computeIfAbsent(type, key -> new TreeMap<>());
+    }
+
+    private MetaData copy(MetaData metaData) {
+        streamedIdentifiers.add(metaData.getId());
+        return objectMapper.convertValue(metaData, MetaData.class);
+    }
+
+    private <T> CloseableIterator<T> stream(Query query, String type, Function<MetaData, T> mapper) {
+        Document queryObject = query.getQueryObject();
+        Collection<String> identifiers = queryObject.containsKey("_id") ?
+                (Collection<String>) ((Document) queryObject.get("_id")).get("$in") : null;
+        Iterator<T> iterator = collection(type).values().stream()
+                .filter(metaData -> identifiers == null || identifiers.contains(metaData.getId()))
+                .map(mapper)
+                .collect(Collectors.toList())
+                .iterator();
+        return new CloseableIterator<>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public T next() {
+                return iterator.next();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+}
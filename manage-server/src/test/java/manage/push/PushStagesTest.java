@@ -0,0 +1,68 @@
+package manage.push;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+import org.springframework.mock.http.client.MockClientHttpRequest;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PushStagesTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    public void measuredRequestCallback() throws Exception {
+        PushStages stages = new PushStages();
+        MockClientHttpRequest request = new MockClientHttpRequest();
+        stages.exchange(() -> {
+            try {
+                new JsonArrayRequestCallback(objectMapper,
+                        () -> Stream.of(Map.of("name", "first"), Map.of("name", "second")), false)
+                        .measuredBy(stages)
+                        .doWithRequest(request);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+            return request;
+        });
+
+        assertEquals(request.getBodyAsBytes().length, stages.getBytes());
+        assertEquals(2L, stages.getEntities());
+        Map<String, Long> durations = stages.durationNanos();
+        assertEquals(List.of(PushStages.LOAD, PushStages.SERIALIZE, PushStages.TRANSMIT),
+                List.copyOf(durations.keySet()));
+        durations.values().forEach(nanos -> assertTrue(nanos >= 0));
+    }
+
+    @Test
+    public void connectionWritesAreTransmitTime() {
+        PushStages stages = new PushStages();
+        stages.add(PushStages.SERIALIZE, 100L);
+        stages.addBody(150L, 40L, 1024L);
+
+        Map<String, Long> durations = stages.durationNanos();
+        assertEquals(60L, durations.get(PushStages.SERIALIZE).longValue());
+        assertEquals(40L, durations.get(PushStages.TRANSMIT).longValue());
+        assertFalse(durations.containsKey(PushStages.FORMAT));
+    }
+
+    @Test
+    public void formattingStatistics() {
+        FormattingStatistics statistics = new FormattingStatistics(2);
+        statistics.addLoaded(10L);
+        statistics.addFiltered(20L);
+        statistics.addFormatted(30L);
+        PushStages stages = new PushStages();
+        stages.addFormatting(statistics);
+
+        assertEquals(Map.of(PushStages.LOAD, 10L, PushStages.FILTER, 20L, PushStages.FORMAT, 30L),
+                stages.durationNanos());
+        assertEquals(1L, stages.getEntities());
+    }
+}
@@ -0,0 +1,166 @@
+package manage.repository;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import manage.TestUtils;
+import manage.model.EntityType;
+import manage.model.MetaData;
+import manage.model.MetaDataChangedEvent;
+import org.bson.Document;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.util.CloseableIterator;
+
+import java.util.*;
+import java.util.function.Function;
+
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.when;
+
+@SuppressWarnings("unchecked")
+public class AutocompleteIndexTest implements TestUtils {
+
+    private final MongoTemplate mongoTemplate = Mockito.mock(MongoTemplate.class);
+    private final Map<String, MetaData> serviceProviders = new TreeMap<>();
+    private AutocompleteIndex subject;
+
+    @Before
+    public void before() throws Exception {
+        List<MetaData> metaDataList = objectMapper.readValue(readFile("json/meta_data_seed.json"),
+                new TypeReference<List<MetaData>>() {
+                });
+        metaDataList.stream()
+                .filter(metaData -> metaData.getType().equals(EntityType.SP.getType()))
+                .forEach(metaData -> {
+                    metaData.setVersion(0L);
+                    serviceProviders.put(metaData.getId(), metaData);
+                });
+        when(mongoTemplate.stream(any(Query.class), eq(Map.class), anyString()))
+                .thenAnswer(invocation -> stream(invocation.getArgument(0), this::document));
+        when(mongoTemplate.stream(any(Query.class), eq(Document.class), anyString()))
+                .thenAnswer(invocation -> stream(invocation.getArgument(0),
+                        metaData -> new Document("_id", metaData.getId()).append("version", metaData.getVersion())));
+        when(mongoTemplate.findOne(any(Query.class), eq(Map.class), anyString()))
+                .thenAnswer(invocation -> {
+                    Query query = invocation.getArgument(0);
+                    MetaData metaData = serviceProviders.get((String) query.getQueryObject().get("_id"));
+                    return metaData == null ? null : document(metaData);
+                });
+        subject = new AutocompleteIndex(new MetaDataRepository(mongoTemplate, "en,nl"), true, 0);
+    }
+
+    @Test
+    public void autoComplete() {
+        assertEquals(List.of("5", "3"), ids(subject.autoComplete(EntityType.SP.getType(), "mock")));
+        assertEquals(List.of("4", "5", "1"), ids(subject.autoComplete(EntityType.SP.getType(), "serviceregistry")));
+        assertEquals(List.of("1"), ids(subject.autoComplete(EntityType.SP.getType(), "Duis do")));
+        assertEquals(List.of(), ids(subject.autoComplete(EntityType.SP.getType(), "nope")));
+        assertEquals(serviceProviders.size(), subject.autoComplete(EntityType.SP.getType(), "*").size());
+    }
+
+    @Test
+    public void shortWords() {
+        assertEquals(List.of("8", "11"), ids(subject.autoComplete(EntityType.SP.getType(), "oi")));
+    }
+
+    @Test
+    public void resultShape() {
+        Map<String, Object> result = subject.autoComplete(EntityType.SP.getType(), "Mujina").get(0);
+        Map<String, Object> metaDataFields = (Map<String, Object>) ((Map<String, Object>) result.get("data")).get("metaDataFields");
+        //The displayName and keywords are only used for the matching
+        assertEquals(Set.of("name:en", "name:nl"), metaDataFields.keySet());
+    }
+
+    @Test
+    public void changeEvent() {
+        assertEquals(List.of(), ids(subject.autoComplete(EntityType.SP.getType(), "changed")));
+        MetaData serviceProvider = serviceProviders.get("2");
+        serviceProvider.metaDataFields().put("name:en", "Changed");
+        serviceProvider.setVersion(1L);
+        subject.onMetaDataChanged(MetaDataChangedEvent.of(MetaDataChangedEvent.Operation.UPDATE, serviceProvider));
+        assertEquals(List.of("2"), ids(subject.autoComplete(EntityType.SP.getType(), "changed")));
+
+        serviceProviders.remove("2");
+        subject.onMetaDataChanged(MetaDataChangedEvent.of(MetaDataChangedEvent.Operation.DELETE, serviceProvider));
+        assertEquals(List.of(), ids(subject.autoComplete(EntityType.SP.getType(), "changed")));
+    }
+
+    @Test
+    public void synchronize() {
+        assertEquals(List.of(), ids(subject.autoComplete(EntityType.SP.getType(), "changed")));
+        MetaData serviceProvider = serviceProviders.get("2");
+        serviceProvider.metaDataFields().put("name:en", "Changed");
+        serviceProvider.setVersion(1L);
+        serviceProviders.remove("3");
+        //The changes are only picked up in the background
+        assertEquals(List.of(), ids(subject.autoComplete(EntityType.SP.getType(), "changed")));
+
+        subject.synchronize();
+        assertEquals(List.of("2"), ids(subject.autoComplete(EntityType.SP.getType(), "changed")));
+        assertEquals(List.of("5"), ids(subject.autoComplete(EntityType.SP.getType(), "mock")));
+    }
+
+    @Test
+    public void quality() {
+        assertEquals(4, AutocompleteIndex.quality("mock", "mock"));
+        assertEquals(3, AutocompleteIndex.quality("mock sp", "mock"));
+        assertEquals(2, AutocompleteIndex.quality("http://mock-sp", "mock"));
+        assertEquals(1, AutocompleteIndex.quality("mujinamock", "mock"));
+        assertEquals(0, AutocompleteIndex.quality("mujina", "mock"));
+    }
+
+    private List<Object> ids(List<Map> results) {
+        return results.stream().map(result -> result.get("_id")).collect(toList());
+    }
+
+    //Applies the projection of the query on the MetaData
+    private Map<String, Object> document(MetaData metaData, Query query) {
+        Map<String, Object> document = objectMapper.convertValue(metaData, Map.class);
+        document.put("_id", document.remove("id"));
+        Map<String, Object> data = (Map<String, Object>) document.get("data");
+        Map<String, Object> metaDataFields = (Map<String, Object>) data.get("metaDataFields");
+        Set<String> fields = query.getFieldsObject().keySet();
+        metaDataFields.keySet().removeIf(key -> !fields.contains("data.metaDataFields." + key));
+        data.keySet().removeIf(key -> !key.equals("metaDataFields") && !fields.contains("data." + key));
+        return document;
+    }
+
+    private Map<String, Object> document(MetaData metaData) {
+        Query query = new MetaDataRepository(mongoTemplate, "en,nl").queryWithSamlFields(EntityType.SP);
+        new MetaDataRepository(mongoTemplate, "en,nl").autoCompleteFields(EntityType.SP.getType())
+                .forEach(field -> query.fields().include(field));
+        return document(metaData, query);
+    }
+
+    private <T> CloseableIterator<T> stream(Query query, Function<MetaData, T> mapper) {
+        Document queryObject = query.getQueryObject();
+        Collection<String> identifiers = queryObject.containsKey("_id") ?
+                (Collection<String>) ((Document) queryObject.get("_id")).get("$in") : null;
+        Iterator<T> iterator = serviceProviders.values().stream()
+                .filter(metaData -> identifiers == null || identifiers.contains(metaData.getId()))
+                .map(mapper)
+                .collect(toList())
+                .iterator();
+        return new CloseableIterator<>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public T next() {
+                return iterator.next();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+}
@@ -0,0 +1,142 @@
+package manage.repository;
+
+import manage.model.ChangeEvent;
+import manage.model.MetaDataChangedEvent;
+import org.bson.Document;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.util.CloseableIterator;
+
+import java.time.Instant;
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.when;
+
+public class EntityIdDirectoryTest {
+
+    private static final String SP = "saml20_sp";
+
+    private final MongoTemplate mongoTemplate = Mockito.mock(MongoTemplate.class);
+    private final ChangeEventRepository changeEventRepository = Mockito.mock(ChangeEventRepository.class);
+    private final Map<String, String> serviceProviders = new TreeMap<>();
+    private final List<ChangeEvent> changeEvents = new ArrayList<>();
+    private EntityIdDirectory subject;
+
+    @Before
+    public void before() {
+        serviceProviders.put("1", "https://sp");
+        serviceProviders.put("2", "https://other-sp");
+        when(mongoTemplate.stream(any(Query.class), eq(Document.class), anyString())).thenAnswer(invocation -> {
+            Iterator<Document> iterator = serviceProviders.entrySet().stream()
+                    .map(entry -> new Document("_id", entry.getKey())
+                            .append("data", new Document("entityid", entry.getValue())))
+                    .iterator();
+            return new CloseableIterator<Document>() {
+                @Override
+                public boolean hasNext() {
+                    return iterator.hasNext();
+                }
+
+                @Override
+                public Document next() {
+                    return iterator.next();
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        });
+        when(changeEventRepository.latestCursor()).thenAnswer(invocation -> (long) changeEvents.size());
+        when(changeEventRepository.findAfter(anyLong(), anyInt())).thenAnswer(invocation -> {
+            long after = invocation.getArgument(0);
+            return changeEvents.subList((int) after, changeEvents.size());
+        });
+        subject = new EntityIdDirectory(new MetaDataRepository(mongoTemplate, "en"), changeEventRepository, true, 0);
+        subject.synchronize();
+    }
+
+    @Test
+    public void lookups() {
+        assertEquals(List.of("1"), subject.findIds(SP, "HTTPS://SP"));
+        assertTrue(subject.exists(SP, "https://sp"));
+        //References are matched exactly
+        assertFalse(subject.exists(SP, "HTTPS://SP"));
+        assertTrue(subject.findIds(SP, "https://nope").isEmpty());
+    }
+
+    @Test
+    public void lookupsWithoutEntityId() {
+        assertTrue(subject.findIds(SP, null).isEmpty());
+        assertFalse(subject.exists(SP, null));
+    }
+
+    @Test
+    public void changeEventsOfOtherInstances() {
+        subject.findIds(SP, "https://sp");
+        serviceProviders.put("1", "https://renamed");
+        changeEvents.add(new ChangeEvent(1L, MetaDataChangedEvent.Operation.UPDATE, SP, "1", "https://renamed", 1L,
+                Instant.now()));
+        changeEvents.add(new ChangeEvent(2L, MetaDataChangedEvent.Operation.DELETE, SP, "2", "https://other-sp", 1L,
+                Instant.now()));
+        subject.synchronize();
+        assertTrue(subject.findIds(SP, "https://sp").isEmpty());
+        assertEquals(List.of("1"), subject.findIds(SP, "https://renamed"));
+        assertFalse(subject.exists(SP, "https://other-sp"));
+    }
+
+    @Test
+    public void localChangeEvent() {
+        subject.findIds(SP, "https://sp");
+        subject.onMetaDataChanged(new MetaDataChangedEvent(MetaDataChangedEvent.Operation.CREATE, SP, "3",
+                "https://new-sp", 0L));
+        assertEquals(List.of("3"), subject.findIds(SP, "https://new-sp"));
+    }
+
+    @Test
+    public void rebuild() {
+        subject.findIds(SP, "https://sp");
+        //Changed directly in the database
+        serviceProviders.put("3", "https://direct");
+        subject.synchronize();
+        assertTrue(subject.findIds(SP, "https://direct").isEmpty());
+
+        subject.rebuild();
+        assertEquals(List.of("3"), subject.findIds(SP, "https://direct"));
+    }
+
+    @Test
+    public void resyncMarker() {
+        subject.findIds(SP, "https://sp");
+        serviceProviders.put("3", "https://direct");
+        changeEvents.add(new ChangeEvent(1L, MetaDataChangedEvent.Operation.RESYNC, null, null, null, null,
+                Instant.now()));
+        subject.synchronize();
+        assertEquals(List.of("3"), subject.findIds(SP, "https://direct"));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void verify() {
+        subject.findIds(SP, "https://sp");
+        assertEquals(true, subject.verify().get("consistent"));
+
+        //Changed directly in the database
+        serviceProviders.put("3", "https://direct");
+        Map<String, Object> result = subject.verify();
+        assertEquals(false, result.get("consistent"));
+        assertEquals(List.of("3"), ((Map<String, Object>) result.get(SP)).get("missing"));
+        assertEquals(List.of("3"), subject.findIds(SP, "https://direct"));
+    }
+}
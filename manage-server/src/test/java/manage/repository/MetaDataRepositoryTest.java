@@ -1,9 +1,40 @@
 package manage.repository;
 
+import manage.exception.InvalidSearchException;
+import manage.model.EntityType;
+import manage.model.MetaData;
+import manage.model.MetaDataChangeRequest;
+import manage.model.StatsEntry;
+import org.bson.Document;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.data.mongodb.UncategorizedMongoDbException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Collation;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
+@SuppressWarnings("unchecked")
 public class MetaDataRepositoryTest {
 
     private MetaDataRepository subject = new MetaDataRepository(null, "en,nl,pt");
@@ -13,4 +44,190 @@ public class MetaDataRepositoryTest {
         String result = subject.escapeSpecialChars("query (((test))) | part [test] ? {} + *");
         assertEquals("query \\(\\(\\(test\\)\\)\\) \\| part \\[test\\] \\? \\{\\} \\+ \\*", result);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void openChangeRequestsIsCached() {
+        MongoTemplate mongoTemplate = Mockito.mock(MongoTemplate.class);
+        when(mongoTemplate.estimatedCount(anyString())).thenReturn(2L);
+        when(mongoTemplate.insert(any(MetaDataChangeRequest.class), anyString())).thenAnswer(invocation -> invocation.getArgument(0));
+        MetaDataRepository cached = new MetaDataRepository(mongoTemplate, "en", 60_000, 0);
+        int collections = EntityType.values().length;
+
+        assertEquals(2L * collections, cached.openChangeRequests());
+        assertEquals(2L * collections, cached.openChangeRequests());
+        verify(mongoTemplate, times(collections)).estimatedCount(anyString());
+
+        cached.save(new MetaDataChangeRequest("1", EntityType.SP.getType(), "note", new HashMap<>(), new HashMap<>()));
+        cached.openChangeRequests();
+        verify(mongoTemplate, times(2 * collections)).estimatedCount(anyString());
+    }
+
+    @Test
+    public void stats() {
+        MongoTemplate mongoTemplate = Mockito.mock(MongoTemplate.class);
+        when(mongoTemplate.getCollectionNames()).thenReturn(Set.of("saml20_sp", "saml20_sp_view", "system.views"));
+        when(mongoTemplate.executeCommand(new Document("collStats", "saml20_sp"))).thenReturn(new Document("count", 7)
+                .append("size", 1024).append("storageSize", 4096L).append("totalIndexSize", 2048));
+        when(mongoTemplate.executeCommand(new Document("collStats", "saml20_sp_view")))
+                .thenThrow(new UncategorizedMongoDbException("Not a collection", null));
+        MetaDataRepository cached = new MetaDataRepository(mongoTemplate, "en", 0, 60_000);
+
+        Map<String, StatsEntry> stats = cached.stats().stream().collect(Collectors.toMap(entry -> entry.name, entry -> entry));
+        assertEquals(2, stats.size());
+        StatsEntry serviceProviders = stats.get("saml20_sp");
+        assertEquals(Long.valueOf(7), serviceProviders.count);
+        assertEquals(Long.valueOf(1024), serviceProviders.size);
+        assertEquals(Long.valueOf(4096), serviceProviders.storageSize);
+        assertEquals(Long.valueOf(2048), serviceProviders.indexSize);
+        StatsEntry view = stats.get("saml20_sp_view");
+        assertNull(view.count);
+        assertNull(view.size);
+        assertNull(view.storageSize);
+        assertNull(view.indexSize);
+        verify(mongoTemplate, never()).estimatedCount(anyString());
+
+        cached.stats();
+        verify(mongoTemplate, times(1)).getCollectionNames();
+    }
+
+    @Test
+    public void policiesWithMissingPolicyEnforcementDecisionRequired() {
+        MongoTemplate mongoTemplate = Mockito.mock(MongoTemplate.class);
+        when(mongoTemplate.findAll(MetaData.class, EntityType.PDP.getType())).thenReturn(List.of(
+                policy("1", "https://sp", "https://rp"),
+                policy("2", "https://enforced", "https://unknown")));
+        when(mongoTemplate.find(any(Query.class), eq(MetaData.class), eq(EntityType.SP.getType()))).thenReturn(List.of(
+                provider("https://sp", EntityType.SP, Map.of("name:en", "SP")),
+                provider("https://enforced", EntityType.SP, Map.of("coin:policy_enforcement_decision_required", true))));
+        when(mongoTemplate.find(any(Query.class), eq(MetaData.class), eq(EntityType.RP.getType()))).thenReturn(List.of(
+                provider("https://rp", EntityType.RP, Map.of("coin:policy_enforcement_decision_required", "0")),
+                provider("https://sp", EntityType.RP, Map.of("coin:policy_enforcement_decision_required", true))));
+
+        List<MetaData> policies = new MetaDataRepository(mongoTemplate, "en").policiesWithMissingPolicyEnforcementDecisionRequired();
+
+        assertEquals(1, policies.size());
+        List<MetaData> absent = (List<MetaData>) policies.get(0).getData().get("policyEnforcementDecisionAbsent");
+        assertEquals(List.of(EntityType.SP.getType(), EntityType.RP.getType()),
+                absent.stream().map(MetaData::getType).collect(Collectors.toList()));
+        //One query per collection for all policies
+        verify(mongoTemplate, times(2)).find(any(Query.class), eq(MetaData.class), anyString());
+    }
+
+    @Test
+    public void searchPlanWildcards() {
+        Map<String, Object> properties = new LinkedHashMap<>();
+        properties.put("entityid", "HTTPS://sp.*");
+        properties.put("metaDataFields.name:en", "Mujina*");
+        properties.put("metaDataFields.contacts:0:emailAddress", "*");
+        properties.put("metaDataFields.description:en", "^mock.*sp*");
+        properties.put("metaDataFields.coin:institution_id", "123");
+
+        MetaDataRepository.SearchPlan plan = searchPlan(EntityType.SP, properties, null);
+
+        assertEquals(List.of("prefix_range", "prefix_regex", "exists", "regex", "equals"), strategies(plan));
+        List<Document> criteria = (List<Document>) plan.query.getQueryObject().get("$and");
+        assertEquals(new Document("$gte", "HTTPS://sp").append("$lt", "HTTPS://sp\uFFFF"), criteria.get(0).get("data.entityid"));
+        assertEquals("^Mujina", ((Pattern) criteria.get(1).get("data.metaDataFields.name:en")).pattern());
+        assertEquals(new Document("$exists", true), criteria.get(2).get("data.metaDataFields.contacts:0:emailAddress"));
+        assertEquals("^mock.*sp*", ((Pattern) criteria.get(3).get("data.metaDataFields.description:en")).pattern());
+        assertEquals(123, criteria.get(4).get("data.metaDataFields.coin:institution_id"));
+        assertEquals(Collation.of("en").strength(2).toDocument(), plan.query.getCollation().get().toDocument());
+    }
+
+    @Test
+    public void searchPlanPrefixWithStringEquality() {
+        Map<String, Object> properties = new LinkedHashMap<>();
+        properties.put("entityid", "https://sp*");
+        properties.put("metaDataFields.NameIDFormat", "urn:oasis:names:tc:SAML:1.1:nameid-format:unspecified");
+
+        MetaDataRepository.SearchPlan plan = searchPlan(EntityType.SP, properties, null);
+
+        //The collation would make the equality of the other property case-insensitive
+        assertEquals(List.of("prefix_regex", "equals"), strategies(plan));
+        List<Document> criteria = (List<Document>) plan.query.getQueryObject().get("$and");
+        assertEquals("^https:\\/\\/sp", ((Pattern) criteria.get(0).get("data.entityid")).pattern());
+        assertFalse(plan.query.getCollation().isPresent());
+    }
+
+    @Test
+    public void searchPlanTextSearch() {
+        MetaDataRepository.SearchPlan plan = searchPlan(EntityType.SP, new HashMap<>(), "mujina");
+
+        assertEquals(List.of("text"), strategies(plan));
+        Document queryObject = plan.query.getQueryObject();
+        assertEquals(new Document("$search", "mujina"), queryObject.get("$text"));
+        assertFalse(queryObject.containsKey("$and"));
+    }
+
+    @Test(expected = InvalidSearchException.class)
+    public void searchPlanTextSearchRevisions() {
+        subject.searchPlan(EntityType.SP.getType().concat("_revision"), new HashMap<>(), List.of(), false, true, "mujina");
+    }
+
+    @Test
+    public void searchLimitIsClamped() {
+        MongoTemplate mongoTemplate = Mockito.mock(MongoTemplate.class);
+        MetaDataRepository repository = new MetaDataRepository(mongoTemplate, "en");
+
+        repository.search(EntityType.SP.getType(), new HashMap<>(), List.of(), true, true, null, "1", Integer.MAX_VALUE);
+
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).find(query.capture(), eq(Map.class), eq(EntityType.SP.getType()));
+        assertEquals(MetaDataRepository.SEARCH_PAGE_LIMIT, query.getValue().getLimit());
+    }
+
+    @Test(expected = InvalidSearchException.class)
+    public void searchWithoutLimit() {
+        subject.search(EntityType.SP.getType(), new HashMap<>(), List.of(), true, true, null, "1", 0);
+    }
+
+    @Test(expected = InvalidSearchException.class)
+    public void changeRequestsOverviewNegativePage() {
+        subject.changeRequestsOverview(-1, 10, null);
+    }
+
+    @Test
+    public void explainSearch() {
+        MongoTemplate mongoTemplate = Mockito.mock(MongoTemplate.class);
+        Document winningPlan = new Document("stage", "FETCH")
+                .append("inputStage", new Document("stage", "IXSCAN").append("indexName", "data.entityid_1"));
+        when(mongoTemplate.executeCommand(any(Document.class))).thenReturn(new Document("queryPlanner",
+                new Document("winningPlan", winningPlan))
+                .append("executionStats", new Document("nReturned", 1).append("totalKeysExamined", 1)
+                        .append("totalDocsExamined", 1).append("executionTimeMillis", 0)));
+
+        Map<String, Object> explain = new MetaDataRepository(mongoTemplate, "en").explainSearch(EntityType.SP.getType(),
+                Map.of("entityid", "https://sp*"), List.of(), false, true, null);
+
+        assertEquals(Set.of("data.entityid_1"), explain.get("indexesUsed"));
+        assertEquals(1, explain.get("totalDocsExamined"));
+        assertEquals(true, explain.get("collation"));
+        ArgumentCaptor<Document> command = ArgumentCaptor.forClass(Document.class);
+        verify(mongoTemplate).executeCommand(command.capture());
+        Document find = command.getValue().get("explain", Document.class);
+        assertEquals(EntityType.SP.getType(), find.get("find"));
+        assertEquals("en", find.get("collation", Document.class).get("locale"));
+        assertEquals("executionStats", command.getValue().get("verbosity"));
+    }
+
+    private MetaDataRepository.SearchPlan searchPlan(EntityType entityType, Map<String, Object> properties, String textSearch) {
+        return subject.searchPlan(entityType.getType(), properties, List.of(), false, true, textSearch);
+    }
+
+    private List<String> strategies(MetaDataRepository.SearchPlan plan) {
+        return plan.steps.stream().map(step -> (String) step.get("strategy")).collect(Collectors.toList());
+    }
+
+    private MetaData policy(String id, String... serviceProviders) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("serviceProviderIds", Stream.of(serviceProviders).map(name -> Map.of("name", name)).collect(Collectors.toList()));
+        return new MetaData(id, 0L, EntityType.PDP.getType(), null, data);
+    }
+
+    private MetaData provider(String entityId, EntityType entityType, Map<String, Object> metaDataFields) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("entityid", entityId);
+        data.put("metaDataFields", new HashMap<>(metaDataFields));
+        return new MetaData(entityId, 0L, entityType.getType(), null, data);
+    }
+}
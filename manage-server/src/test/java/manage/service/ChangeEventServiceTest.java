@@ -0,0 +1,108 @@
+package manage.service;
+
+import manage.model.ChangeEvent;
+import manage.model.MetaDataChangedEvent;
+import manage.repository.ChangeEventRepository;
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ChangeEventServiceTest {
+
+    private final ChangeEventRepository changeEventRepository = Mockito.mock(ChangeEventRepository.class);
+    private final ChangeEventService subject = new ChangeEventService(changeEventRepository, 5000, 60_000, 60_000);
+
+    @After
+    public void after() {
+        subject.shutdown();
+    }
+
+    @Test
+    public void settled() {
+        Instant now = Instant.now();
+        List<ChangeEvent> events = List.of(event(1, now), event(2, now), event(4, now), event(5, now));
+        assertEquals(List.of(1L, 2L), cursors(ChangeEventService.settled(events, 0, () -> now.minusSeconds(5))));
+        //The gap is older than the settle time
+        assertEquals(List.of(1L, 2L, 4L, 5L), cursors(ChangeEventService.settled(events, 0, () -> now.plusSeconds(1))));
+    }
+
+    @Test
+    public void settledAfterRemovedEvents() {
+        Instant created = Instant.now().minusSeconds(60);
+        List<ChangeEvent> events = List.of(event(100, created), event(101, Instant.now()));
+        assertEquals(List.of(100L, 101L), cursors(ChangeEventService.settled(events, 0, () -> Instant.now().minusSeconds(5))));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void changes() {
+        Instant now = Instant.now();
+        when(changeEventRepository.findAfter(10, 2)).thenReturn(List.of(event(11, now), event(12, now)));
+        Map<String, Object> changes = subject.changes(10, 2);
+        assertEquals(12L, changes.get("cursor"));
+        assertEquals(true, changes.get("more"));
+        assertEquals(List.of(11L, 12L), cursors((List<ChangeEvent>) changes.get("changes")));
+
+        Map<String, Object> none = subject.changes(12, 2);
+        assertEquals(12L, none.get("cursor"));
+        assertEquals(false, none.get("more"));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void changesSettledOnServerTime() {
+        //The clock of the Mongo server is an hour behind the local clock
+        Instant serverTime = Instant.now().minusSeconds(3600);
+        when(changeEventRepository.serverTime()).thenReturn(serverTime);
+        when(changeEventRepository.findAfter(10, 100)).thenReturn(List.of(event(11, serverTime), event(13, serverTime)));
+        Map<String, Object> changes = subject.changes(10, 100);
+        assertEquals(List.of(11L), cursors((List<ChangeEvent>) changes.get("changes")));
+
+        when(changeEventRepository.serverTime()).thenReturn(serverTime.plusSeconds(10));
+        changes = subject.changes(10, 100);
+        assertEquals(List.of(11L, 13L), cursors((List<ChangeEvent>) changes.get("changes")));
+    }
+
+    @Test
+    public void resyncMarker() {
+        MetaDataChangedEvent event = new MetaDataChangedEvent(MetaDataChangedEvent.Operation.UPDATE, "saml20_sp", "id",
+                "entityId", 1L);
+        when(changeEventRepository.append(any(MetaDataChangedEvent.class)))
+                .thenThrow(new IllegalStateException("unavailable"))
+                .thenThrow(new IllegalStateException("unavailable"))
+                .thenReturn(event(1, Instant.now()));
+        subject.onMetaDataChanged(event);
+        assertTrue(subject.isResyncRequired());
+
+        //The outbox is still unavailable
+        subject.appendResyncMarker();
+        assertTrue(subject.isResyncRequired());
+
+        subject.appendResyncMarker();
+        assertFalse(subject.isResyncRequired());
+        verify(changeEventRepository, times(2)).append(argThat(appended ->
+                appended.getOperation() == MetaDataChangedEvent.Operation.RESYNC));
+    }
+
+    private ChangeEvent event(long cursor, Instant created) {
+        return new ChangeEvent(cursor, MetaDataChangedEvent.Operation.UPDATE, "saml20_sp", "id", "entityId", 1L, created);
+    }
+
+    private List<Long> cursors(List<ChangeEvent> events) {
+        return events.stream().map(ChangeEvent::getCursor).collect(toList());
+    }
+}
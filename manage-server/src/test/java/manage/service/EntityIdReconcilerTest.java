@@ -0,0 +1,254 @@
+package manage.service;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.result.UpdateResult;
+import manage.model.EntityType;
+import manage.model.MetaData;
+import manage.model.MetaDataChangedEvent;
+import manage.repository.MetaDataRepository;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.util.CloseableIterator;
+
+import java.util.*;
+import java.util.stream.IntStream;
+
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@SuppressWarnings("unchecked")
+public class EntityIdReconcilerTest {
+
+    private static final String SP_ENTITY_ID = "https://sp";
+
+    private final MongoTemplate mongoTemplate = Mockito.mock(MongoTemplate.class);
+    private final MetaDataRepository metaDataRepository = new MetaDataRepository(mongoTemplate, "en");
+    private final BulkOperations insertOperations = Mockito.mock(BulkOperations.class);
+    private final MongoCollection<Document> collection = Mockito.mock(MongoCollection.class);
+    private final ApplicationEventPublisher applicationEventPublisher = Mockito.mock(ApplicationEventPublisher.class);
+    private final List<MetaData> inserted = new ArrayList<>();
+    private final List<MetaData> replaced = new ArrayList<>();
+    //The number of replaces per id of MetaData changed concurrently
+    private final Map<String, Integer> conflicting = new HashMap<>();
+    //The ids of the MetaData deleted concurrently
+    private final Set<String> deleted = new HashSet<>();
+
+    @Before
+    public void before() {
+        MongoCustomConversions conversions = new MongoCustomConversions(Collections.emptyList());
+        MongoMappingContext mappingContext = new MongoMappingContext();
+        mappingContext.setSimpleTypeHolder(conversions.getSimpleTypeHolder());
+        MappingMongoConverter converter = new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, mappingContext);
+        converter.setCustomConversions(conversions);
+        converter.afterPropertiesSet();
+        when(mongoTemplate.getConverter()).thenReturn(converter);
+        when(mongoTemplate.getCollection("saml20_idp")).thenReturn(collection);
+        when(mongoTemplate.bulkOps(any(BulkOperations.BulkMode.class), eq(MetaData.class), eq("saml20_idp_revision")))
+                .thenReturn(insertOperations);
+        when(insertOperations.insert(anyList())).thenAnswer(invocation -> {
+            inserted.addAll(invocation.getArgument(0));
+            return insertOperations;
+        });
+        when(collection.replaceOne(any(Bson.class), any(Document.class))).thenAnswer(invocation -> {
+            MetaData metaData = converter.read(MetaData.class, invocation.getArgument(1, Document.class));
+            replaced.add(metaData);
+            String id = metaData.getId();
+            if (conflicting.getOrDefault(id, 0) > 0) {
+                conflicting.merge(id, -1, Integer::sum);
+                return UpdateResult.acknowledged(0, 0L, null);
+            }
+            return deleted.contains(id) ? UpdateResult.acknowledged(0, 0L, null) : UpdateResult.acknowledged(1, 1L, null);
+        });
+        //The revisions of the MetaData not replaced are removed again
+        when(mongoTemplate.remove(any(Query.class), eq("saml20_idp_revision"))).thenAnswer(invocation -> {
+            Collection<String> ids = (Collection<String>) ((Document) invocation.getArgument(0, Query.class)
+                    .getQueryObject().get("_id")).get("$in");
+            inserted.removeIf(revision -> ids.contains(revision.getId()));
+            return null;
+        });
+    }
+
+    @Test
+    public void rename() {
+        List<Document> identityProviders = identityProviders(3);
+        stream(EntityType.IDP.getType(), identityProviders);
+        conflicting.put("1", 1);
+
+        EntityIdReconciliation reconciliation = subject(2, 1000).reconcile(SP_ENTITY_ID, "https://renamed",
+                List.of(EntityType.IDP.getType()), List.of("allowedEntities"), "Renamed");
+
+        assertEquals(EntityIdReconciliation.Status.DONE, reconciliation.getStatus());
+        assertFalse(reconciliation.isAsync());
+        assertEquals(3, reconciliation.getReferences());
+        //Two batches, one of them conflicting, and the retry of the conflicting MetaData
+        verify(collection, times(4)).replaceOne(any(Bson.class), any(Document.class));
+        verify(mongoTemplate, times(3)).bulkOps(BulkOperations.BulkMode.UNORDERED, MetaData.class, "saml20_idp_revision");
+        assertEquals(3, reconciliation.getRevised());
+        assertEquals(1, reconciliation.getConflicts());
+
+        //Only the revisions of the replaced MetaData
+        assertEquals(3, inserted.size());
+        inserted.forEach(revision -> {
+            assertEquals("saml20_idp_revision", revision.getType());
+            assertEquals(SP_ENTITY_ID, ((List<Map<String, String>>) revision.getData().get("allowedEntities")).get(0).get("name"));
+        });
+        assertEquals(List.of("0", "2", "1"), inserted.stream().map(revision -> revision.getRevision().getParentId()).collect(toList()));
+        replaced.forEach(metaData -> {
+            assertEquals(Long.valueOf(2L), metaData.getVersion());
+            assertEquals(1, metaData.getRevision().getNumber());
+            assertEquals("Renamed", metaData.getData().get("revisionnote"));
+            List<Map<String, String>> allowedEntities = (List<Map<String, String>>) metaData.getData().get("allowedEntities");
+            assertEquals(List.of("https://renamed", "https://other"),
+                    allowedEntities.stream().map(entry -> entry.get("name")).collect(toList()));
+        });
+
+        ArgumentCaptor<MetaDataChangedEvent> events = ArgumentCaptor.forClass(MetaDataChangedEvent.class);
+        verify(applicationEventPublisher, times(3)).publishEvent(events.capture());
+        assertTrue(events.getAllValues().stream().allMatch(event -> event.getOperation() == MetaDataChangedEvent.Operation.UPDATE));
+    }
+
+    @Test
+    public void conflictAfterRetries() {
+        stream(EntityType.IDP.getType(), identityProviders(3));
+        conflicting.put("1", Integer.MAX_VALUE);
+
+        EntityIdReconciler subject = subject(500, 1000);
+        assertThrows(OptimisticLockingFailureException.class, () -> subject.reconcile(SP_ENTITY_ID, "https://renamed",
+                List.of(EntityType.IDP.getType()), List.of("allowedEntities"), "Renamed"));
+
+        EntityIdReconciliation reconciliation = subject.findLatest().get(0);
+        assertEquals(EntityIdReconciliation.Status.FAILED, reconciliation.getStatus());
+        assertEquals(2, reconciliation.getRevised());
+        assertEquals(3, reconciliation.getConflicts());
+        assertEquals(List.of("0", "2"), inserted.stream().map(revision -> revision.getRevision().getParentId()).collect(toList()));
+        verify(applicationEventPublisher, times(2)).publishEvent(any(MetaDataChangedEvent.class));
+    }
+
+    @Test
+    public void deletedConcurrently() {
+        stream(EntityType.IDP.getType(), identityProviders(2));
+        deleted.add("1");
+
+        EntityIdReconciliation reconciliation = subject(500, 1000).reconcile(SP_ENTITY_ID, "https://renamed",
+                List.of(EntityType.IDP.getType()), List.of("allowedEntities"), "Renamed");
+
+        assertEquals(EntityIdReconciliation.Status.DONE, reconciliation.getStatus());
+        assertEquals(1, reconciliation.getRevised());
+        //The MetaData deleted concurrently is not inserted again
+        verify(mongoTemplate, times(1)).remove(any(Query.class), eq("saml20_idp_revision"));
+        verify(mongoTemplate, times(0)).remove(any(Query.class), eq("saml20_idp"));
+        assertEquals(List.of("0"), inserted.stream().map(revision -> revision.getRevision().getParentId()).collect(toList()));
+        verify(applicationEventPublisher, times(1)).publishEvent(any(MetaDataChangedEvent.class));
+    }
+
+    @Test
+    public void delete() {
+        stream(EntityType.IDP.getType(), identityProviders(1));
+
+        EntityIdReconciliation reconciliation = subject(500, 1000).reconcile(SP_ENTITY_ID, null,
+                List.of(EntityType.IDP.getType()), List.of("allowedEntities"), "Deleted");
+
+        assertEquals(1, reconciliation.getRevised());
+        List<Map<String, String>> allowedEntities = (List<Map<String, String>>) replaced.get(0).getData().get("allowedEntities");
+        assertEquals(List.of(Map.of("name", "https://other")), allowedEntities);
+    }
+
+    @Test
+    public void async() throws InterruptedException {
+        stream(EntityType.IDP.getType(), identityProviders(5));
+
+        EntityIdReconciler subject = subject(500, 4);
+        EntityIdReconciliation reconciliation = subject.reconcile(SP_ENTITY_ID, null,
+                List.of(EntityType.IDP.getType()), List.of("allowedEntities"), "Deleted");
+        assertTrue(reconciliation.isAsync());
+        subject.shutdown();
+        for (int i = 0; i < 50 && reconciliation.getStatus() != EntityIdReconciliation.Status.DONE; i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(EntityIdReconciliation.Status.DONE, reconciliation.getStatus());
+        assertEquals(5, reconciliation.getRevised());
+        assertEquals(reconciliation, subject.find(reconciliation.getId()).get());
+        assertEquals(List.of(reconciliation), subject.findLatest());
+    }
+
+    @Test
+    public void noReferenceNames() {
+        EntityIdReconciliation reconciliation = subject(500, 1000).reconcile(SP_ENTITY_ID, null,
+                Collections.emptyList(), Collections.emptyList(), "Deleted");
+        assertEquals(EntityIdReconciliation.Status.DONE, reconciliation.getStatus());
+        verify(mongoTemplate, times(0)).bulkOps(any(BulkOperations.BulkMode.class), eq(MetaData.class), anyString());
+    }
+
+    private EntityIdReconciler subject(int batchSize, int asyncThreshold) {
+        return new EntityIdReconciler(metaDataRepository, applicationEventPublisher, batchSize, asyncThreshold);
+    }
+
+    private List<Document> identityProviders(int count) {
+        return IntStream.range(0, count)
+                .mapToObj(i -> new Document("_id", String.valueOf(i))
+                        .append("type", "saml20_idp")
+                        .append("version", 1L)
+                        .append("revision", new Document("number", 0))
+                        .append("data", new Document("entityid", "https://idp/" + i)
+                                .append("allowedEntities", new ArrayList<>(List.of(
+                                        new Document("name", SP_ENTITY_ID),
+                                        new Document("name", "https://other"))))))
+                .collect(toList());
+    }
+
+    private void stream(String type, List<Document> documents) {
+        when(mongoTemplate.count(any(Query.class), eq(type))).thenReturn((long) documents.size());
+        when(mongoTemplate.stream(any(Query.class), eq(Document.class), eq(type))).thenAnswer(invocation -> {
+            Collection<String> ids = ids(invocation.getArgument(0));
+            Iterator<Document> iterator = documents.stream()
+                    //The MetaData deleted concurrently is not found by the retry
+                    .filter(document -> ids == null ||
+                            (ids.contains(document.getString("_id")) && !deleted.contains(document.getString("_id"))))
+                    .iterator();
+            return new CloseableIterator<Document>() {
+                @Override
+                public boolean hasNext() {
+                    return iterator.hasNext();
+                }
+
+                @Override
+                public Document next() {
+                    return iterator.next();
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        });
+    }
+
+    //The ids of the query of the retry
+    private Collection<String> ids(Query query) {
+        List<Document> criteria = (List<Document>) query.getQueryObject().get("$and");
+        return criteria == null ? null : (Collection<String>) ((Document) criteria.get(0).get("_id")).get("$in");
+    }
+}